@@ -1,7 +1,9 @@
 package com.koryshev.widgets;
 
+import com.koryshev.widgets.config.WidgetProperties;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.data.jpa.repository.config.EnableJpaAuditing;
 
 /**
@@ -11,6 +13,7 @@ import org.springframework.data.jpa.repository.config.EnableJpaAuditing;
  */
 @SpringBootApplication
 @EnableJpaAuditing
+@EnableConfigurationProperties(WidgetProperties.class)
 public class WidgetsApplication {
 
     public static void main(String[] args) {
@@ -0,0 +1,50 @@
+package com.koryshev.widgets.config;
+
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Configures the {@code reactive} profile, serving the API on Netty event loops.
+ *
+ * @author Ivan Koryshev
+ */
+@Configuration
+@Profile("reactive")
+public class ReactiveConfiguration {
+
+    /**
+     * Netty is used even though Tomcat is available for other profiles.
+     */
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    /**
+     * Performs modifications, which may block, on a bounded number of threads. Modifications are rejected once
+     * the queue of waiting ones is full, rather than piling up.
+     */
+    @Bean(destroyMethod = "dispose")
+    public Scheduler widgetWriteScheduler(WidgetProperties widgetProperties) {
+        WidgetProperties.Reactive properties = widgetProperties.getReactive();
+        AtomicInteger threads = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(properties.getWriteThreads(),
+                properties.getWriteThreads(), 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(properties.getWriteQueueCapacity()),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "widget-write-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        return Schedulers.fromExecutorService(executor, "widget-write");
+    }
+}
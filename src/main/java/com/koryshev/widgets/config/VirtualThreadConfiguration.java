@@ -0,0 +1,65 @@
+package com.koryshev.widgets.config;
+
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs Tomcat request handling, and so widget service calls, along with background tasks such as rebalancing on
+ * virtual threads, enabled by {@code widgets.virtual-threads.enabled}.
+ * <p>
+ * A request waiting for a lock or a JDBC connection parks its virtual thread instead of holding a platform thread,
+ * so the number of concurrent requests is no longer capped by the size of a thread pool.
+ * <p>
+ * The application is built for Java 11, so virtual threads are created reflectively and enabling them on an older
+ * runtime fails on startup.
+ *
+ * @author Ivan Koryshev
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "widgets.virtual-threads", name = "enabled", havingValue = "true")
+public class VirtualThreadConfiguration {
+
+    /**
+     * Starts a new virtual thread for every task.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService virtualThreadExecutor() {
+        return newVirtualThreadPerTaskExecutor();
+    }
+
+    /**
+     * Replaces the thread pool of Tomcat connectors, Tomcat doesn't stop an executor it hasn't created.
+     */
+    @Bean
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadProtocolHandlerCustomizer(
+            ExecutorService virtualThreadExecutor) {
+        return protocolHandler -> protocolHandler.setExecutor(virtualThreadExecutor);
+    }
+
+    /**
+     * Replaces the auto-configured thread pool running background tasks.
+     */
+    @Bean
+    public TaskExecutor applicationTaskExecutor(ExecutorService virtualThreadExecutor) {
+        return new TaskExecutorAdapter(virtualThreadExecutor);
+    }
+
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Virtual threads require Java 21 or later, running on Java "
+                    + Runtime.version().feature(), e);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to create an executor of virtual threads", e);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.koryshev.widgets.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * Configuration properties of the Widgets application.
+ *
+ * @author Ivan Koryshev
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "widgets")
+public class WidgetProperties {
+
+    private final SparseOrdering sparseOrdering = new SparseOrdering();
+
+    private final Cache cache = new Cache();
+
+    private final FilterCache filterCache = new FilterCache();
+
+    private final BulkImport bulkImport = new BulkImport();
+
+    private final Journal journal = new Journal();
+
+    private final Tracing tracing = new Tracing();
+
+    private final Reactive reactive = new Reactive();
+
+    private final VirtualThreads virtualThreads = new VirtualThreads();
+
+    private final Subscriptions subscriptions = new Subscriptions();
+
+    @Getter
+    @Setter
+    public static class SparseOrdering {
+
+        /**
+         * Whether z-indexes are allocated with gaps between neighbours, so that most inserts need no shifting.
+         */
+        private boolean enabled;
+
+        /**
+         * The distance between neighbouring z-indexes assigned automatically or by rebalancing.
+         */
+        private int gap = 1024;
+    }
+
+    @Getter
+    @Setter
+    public static class Cache {
+
+        /**
+         * Whether widgets read by ID are cached.
+         */
+        private boolean enabled;
+
+        /**
+         * The maximum number of cached widgets, the least valuable ones are evicted when it is exceeded.
+         */
+        private long maximumSize = 10_000;
+    }
+
+    @Getter
+    @Setter
+    public static class FilterCache {
+
+        /**
+         * Whether pages and slices of widgets filtered by a rectangle are cached.
+         */
+        private boolean enabled;
+
+        /**
+         * The maximum number of cached pages and slices, the least valuable ones are evicted when it is exceeded.
+         */
+        private long maximumSize = 1_000;
+    }
+
+    @Getter
+    @Setter
+    public static class BulkImport {
+
+        /**
+         * The number of widgets read from an imported file before they are created at once.
+         */
+        private int chunkSize = 1000;
+
+        /**
+         * The maximum number of rejected lines reported back, further ones are only counted.
+         */
+        private int maxErrors = 100;
+    }
+
+    @Getter
+    @Setter
+    public static class Journal {
+
+        /**
+         * The directory keeping the journal and snapshots of the {@code journal} profile.
+         */
+        private String directory = "data/journal";
+
+        /**
+         * The size of a journal segment file, a new segment is started when one is full.
+         */
+        private DataSize segmentSize = DataSize.ofMegabytes(64);
+
+        /**
+         * The number of changes written to the journal before a snapshot is taken and the journal is truncated.
+         */
+        private int snapshotInterval = 100_000;
+    }
+
+    @Getter
+    @Setter
+    public static class Tracing {
+
+        /**
+         * Whether every operation writes a single trace event instead of its log lines.
+         */
+        private boolean enabled;
+
+        /**
+         * The fraction of operations which are neither slow nor failed writing a trace event.
+         */
+        private double sampleRate = 0.01;
+
+        /**
+         * The duration starting from which an operation is slow, writing a trace event with all its log lines.
+         */
+        private Duration slowThreshold = Duration.ofMillis(100);
+
+        /**
+         * The number of trace events waiting to be written, further ones are dropped.
+         */
+        private int queueSize = 8192;
+    }
+
+    @Getter
+    @Setter
+    public static class Reactive {
+
+        /**
+         * The number of threads performing modifications requested through the {@code reactive} profile API.
+         */
+        private int writeThreads = 4;
+
+        /**
+         * The number of modifications waiting for a thread, further ones are rejected as the service is busy.
+         */
+        private int writeQueueCapacity = 10_000;
+    }
+
+    @Getter
+    @Setter
+    public static class VirtualThreads {
+
+        /**
+         * Whether requests and background tasks run on virtual threads, requires Java 21 or later at runtime.
+         */
+        private boolean enabled;
+    }
+
+    @Getter
+    @Setter
+    public static class Subscriptions {
+
+        /**
+         * The number of changes waiting to be sent to a subscriber, the subscription is ended once it's exceeded.
+         */
+        private int bufferSize = 1000;
+
+        /**
+         * The duration after which a subscription is ended, so that the client reconnects.
+         */
+        private Duration timeout = Duration.ofMinutes(30);
+    }
+}
@@ -0,0 +1,328 @@
+package com.koryshev.widgets.contoller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.koryshev.widgets.domain.model.Widget;
+import com.koryshev.widgets.dto.WidgetBatchRequestDto;
+import com.koryshev.widgets.dto.WidgetBatchResponseDto;
+import com.koryshev.widgets.dto.WidgetChangeDto;
+import com.koryshev.widgets.dto.WidgetImportResponseDto;
+import com.koryshev.widgets.dto.WidgetPageRequestDto;
+import com.koryshev.widgets.dto.WidgetPageResponseDto;
+import com.koryshev.widgets.dto.WidgetRequestDto;
+import com.koryshev.widgets.dto.WidgetResponseDto;
+import com.koryshev.widgets.dto.mapper.WidgetMapper;
+import com.koryshev.widgets.exception.ServiceBusyException;
+import com.koryshev.widgets.service.WidgetBatchResult;
+import com.koryshev.widgets.service.WidgetChangeFeed;
+import com.koryshev.widgets.service.WidgetImportFormat;
+import com.koryshev.widgets.service.WidgetImportResult;
+import com.koryshev.widgets.service.WidgetImporter;
+import com.koryshev.widgets.service.WidgetService;
+import com.koryshev.widgets.service.WouldBlockException;
+import com.koryshev.widgets.util.WidgetUtil;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Provides the same API for widgets as {@link WidgetController} without blocking event loops, enabled by
+ * the {@code reactive} profile.
+ * <p>
+ * Modifications are performed by the write scheduler, a bounded number of threads with a bounded queue, and rejected
+ * as the service is busy once the queue is full. Reads of services which never block are performed right on event
+ * loops, and repeated on the bounded elastic scheduler if they'd have to wait for a modification. Reads of other
+ * services are always performed by the bounded elastic scheduler.
+ *
+ * @author Ivan Koryshev
+ */
+@Profile("reactive")
+@RestController
+@RequestMapping("/v1/widgets")
+@RequiredArgsConstructor
+public class ReactiveWidgetController {
+
+    private static final String NDJSON = "application/x-ndjson";
+    private static final String CSV = "text/csv";
+    private static final int EXPORT_CHUNK_SIZE = 1000;
+    private static final int IMPORT_PIPE_SIZE = 64 * 1024;
+
+    private final WidgetService widgetService;
+
+    private final WidgetImporter widgetImporter;
+
+    private final WidgetChangeFeed widgetChangeFeed;
+
+    private final WidgetMapper widgetMapper;
+
+    private final ObjectMapper objectMapper;
+
+    private final Scheduler widgetWriteScheduler;
+
+    /**
+     * Creates a new widget from data specified in a DTO.
+     *
+     * @param dto the DTO containing widget details
+     * @return the created widget
+     */
+    @PostMapping
+    @ResponseStatus(HttpStatus.CREATED)
+    public Mono<WidgetResponseDto> create(@RequestBody @Valid WidgetRequestDto dto) {
+        return write(() -> widgetMapper.toWidgetResponseDto(widgetService.create(dto)));
+    }
+
+    /**
+     * Updates a widget with data specified in a DTO.
+     *
+     * @param widgetId the widget ID to update
+     * @param dto      the DTO containing data to update
+     */
+    @PutMapping("/{widgetId}")
+    public Mono<WidgetResponseDto> update(@PathVariable UUID widgetId, @RequestBody @Valid WidgetRequestDto dto) {
+        return write(() -> widgetMapper.toWidgetResponseDto(widgetService.update(widgetId, dto)));
+    }
+
+    /**
+     * Deletes a widget with the specified ID.
+     *
+     * @param widgetId the widget ID to delete
+     */
+    @DeleteMapping("/{widgetId}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public Mono<Void> delete(@PathVariable UUID widgetId) {
+        return write(() -> {
+            widgetService.delete(widgetId);
+            return null;
+        }).then();
+    }
+
+    /**
+     * Returns a widget with the specified ID.
+     *
+     * @param widgetId the widget ID to return
+     * @return the widget
+     */
+    @GetMapping("/{widgetId}")
+    public Mono<WidgetResponseDto> get(@PathVariable UUID widgetId) {
+        return read(() -> widgetMapper.toWidgetResponseDto(widgetService.findOne(widgetId)));
+    }
+
+    /**
+     * Creates, updates and deletes widgets at once.
+     *
+     * @param dto the DTO containing widget changes
+     * @return the created and updated widgets
+     */
+    @PostMapping("/batch")
+    public Mono<WidgetBatchResponseDto> batch(@RequestBody @Valid WidgetBatchRequestDto dto) {
+        return write(() -> {
+            WidgetBatchResult result = widgetService.applyBatch(dto);
+            return WidgetBatchResponseDto.builder()
+                    .created(widgetMapper.toWidgetResponseDto(result.getCreated()))
+                    .updated(widgetMapper.toWidgetResponseDto(result.getUpdated()))
+                    .build();
+        });
+    }
+
+    /**
+     * Returns a list of widgets based on the specified filter.
+     * <p>
+     * If a cursor returned with a previous page is specified, the page following it is returned instead of the page
+     * with the specified number, and the total number of widgets is not calculated.
+     *
+     * @return the widgets list
+     */
+    @PostMapping("/filter")
+    public Mono<WidgetPageResponseDto> filter(
+            @Min(0L) @Valid @RequestParam(value = "page", required = false, defaultValue = "0") Integer page,
+            @Min(0L) @Max(500L) @Valid @RequestParam(value = "size", required = false, defaultValue = "10") Integer size,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestBody(required = false) @Valid WidgetPageRequestDto dto) {
+        if (cursor != null) {
+            return read(() -> {
+                Slice<Widget> widgetsSlice = widgetService.findAllAfter(WidgetUtil.decodeCursor(cursor), size, dto);
+                List<WidgetResponseDto> content = widgetMapper.toWidgetResponseDto(widgetsSlice.getContent());
+
+                return WidgetPageResponseDto.builder()
+                        .size(widgetsSlice.getSize())
+                        .content(content)
+                        .nextCursor(WidgetController.nextCursor(widgetsSlice))
+                        .build();
+            });
+        }
+
+        return read(() -> {
+            Page<Widget> widgetsPage = widgetService.findAll(page, size, dto);
+            List<WidgetResponseDto> content = widgetMapper.toWidgetResponseDto(widgetsPage.getContent());
+
+            return WidgetPageResponseDto.builder()
+                    .totalElements(Math.toIntExact(widgetsPage.getTotalElements()))
+                    .number(widgetsPage.getNumber())
+                    .size(widgetsPage.getSize())
+                    .content(content)
+                    .nextCursor(WidgetController.nextCursor(widgetsPage))
+                    .build();
+        });
+    }
+
+    /**
+     * Streams all widgets ordered by z-index as newline-delimited JSON, one widget per line. Widgets are read in
+     * chunks as the client consumes them, every chunk is consistent on its own.
+     *
+     * @return the widgets stream
+     */
+    @GetMapping(value = "/export", produces = NDJSON)
+    public Flux<String> export() {
+        ObjectWriter writer = objectMapper.writerFor(WidgetResponseDto.class);
+        return read(() -> widgetService.findAll(0, EXPORT_CHUNK_SIZE, null).getContent())
+                .expand(widgets -> {
+                    if (widgets.size() < EXPORT_CHUNK_SIZE) {
+                        return Mono.empty();
+                    }
+                    Integer z = widgets.get(widgets.size() - 1).getZ();
+                    return read(() -> widgetService.findAllAfter(z, EXPORT_CHUNK_SIZE, null).getContent());
+                })
+                .flatMapIterable(widgets -> widgets)
+                .map(widget -> {
+                    try {
+                        return writer.writeValueAsString(widgetMapper.toWidgetResponseDto(widget)) + '\n';
+                    } catch (JsonProcessingException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    /**
+     * Creates widgets from newline-delimited JSON, one widget per line.
+     *
+     * @param body the request body
+     * @return the numbers of imported and rejected widgets, and the first errors
+     */
+    @PostMapping(value = "/import", consumes = NDJSON)
+    public Mono<WidgetImportResponseDto> importNdjson(@RequestBody Flux<DataBuffer> body) {
+        return importWidgets(body, WidgetImportFormat.NDJSON);
+    }
+
+    /**
+     * Creates widgets from comma-separated values with a header.
+     *
+     * @param body the request body
+     * @return the numbers of imported and rejected widgets, and the first errors
+     */
+    @PostMapping(value = "/import", consumes = CSV)
+    public Mono<WidgetImportResponseDto> importCsv(@RequestBody Flux<DataBuffer> body) {
+        return importWidgets(body, WidgetImportFormat.CSV);
+    }
+
+    /**
+     * Streams changes of widgets inside a viewport as server-sent events named after the kind of the change, starting
+     * with the widgets currently inside it. The viewport is specified by query parameters named and validated the same
+     * way as the rectangle of {@link #filter}.
+     *
+     * @param viewport the DTO containing the viewport rectangle
+     * @return the changes stream
+     */
+    @GetMapping(value = "/subscribe", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<WidgetChangeDto>> subscribe(@Valid WidgetPageRequestDto viewport) {
+        return widgetChangeFeed.subscribe(viewport)
+                .map(change -> ServerSentEvent.builder(widgetMapper.toWidgetChangeDto(change))
+                        .event(WidgetController.eventName(change))
+                        .build());
+    }
+
+    /**
+     * Imports widgets while the request is being received. The request is written to a pipe by the bounded elastic
+     * scheduler, blocking while the pipe is full, and the importer reads the pipe on the write scheduler, so only
+     * the pipe buffer is held in memory.
+     */
+    private Mono<WidgetImportResponseDto> importWidgets(Flux<DataBuffer> body, WidgetImportFormat format) {
+        PipedInputStream input = new PipedInputStream(IMPORT_PIPE_SIZE);
+        PipedOutputStream output;
+        try {
+            output = new PipedOutputStream(input);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        // A failed request closes the reading end first, so that the importer fails instead of reaching the end
+        Mono<Boolean> upload = DataBufferUtils.write(body.publishOn(Schedulers.boundedElastic()), output)
+                .map(DataBufferUtils::release)
+                .doOnError(e -> closeQuietly(input))
+                .doFinally(signal -> closeQuietly(output))
+                // Writing fails once the importer stops reading, which is reported by the importer itself
+                .onErrorResume(e -> Mono.empty())
+                .then(Mono.just(true));
+        Mono<WidgetImportResponseDto> importing = write(() -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+                WidgetImportResult result = widgetImporter.importWidgets(reader, format);
+                return widgetMapper.toWidgetImportResponseDto(result);
+            }
+        }).doFinally(signal -> closeQuietly(input));
+        return Mono.zip(importing, upload, (response, uploaded) -> response);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing left to release
+        }
+    }
+
+    /**
+     * Performs a modification on the write scheduler.
+     */
+    private <T> Mono<T> write(Callable<T> modification) {
+        return Mono.fromCallable(modification)
+                .subscribeOn(widgetWriteScheduler)
+                .onErrorMap(RejectedExecutionException.class, e -> new ServiceBusyException());
+    }
+
+    /**
+     * Performs a read on the current thread if the service never blocks, otherwise on a thread allowed to block.
+     */
+    private <T> Mono<T> read(Callable<T> operation) {
+        Mono<T> blockingRead = Mono.fromCallable(operation).subscribeOn(Schedulers.boundedElastic());
+        if (widgetService.isBlockingRead()) {
+            return blockingRead;
+        }
+        return Mono.fromCallable(operation).onErrorResume(WouldBlockException.class, e -> blockingRead);
+    }
+}
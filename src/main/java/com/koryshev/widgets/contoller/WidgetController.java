@@ -1,15 +1,32 @@
 package com.koryshev.widgets.contoller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.koryshev.widgets.domain.model.Widget;
+import com.koryshev.widgets.dto.WidgetBatchRequestDto;
+import com.koryshev.widgets.dto.WidgetBatchResponseDto;
+import com.koryshev.widgets.dto.WidgetImportResponseDto;
 import com.koryshev.widgets.dto.WidgetPageRequestDto;
 import com.koryshev.widgets.dto.WidgetPageResponseDto;
 import com.koryshev.widgets.dto.WidgetRequestDto;
 import com.koryshev.widgets.dto.WidgetResponseDto;
 import com.koryshev.widgets.dto.mapper.WidgetMapper;
+import com.koryshev.widgets.service.WidgetBatchResult;
+import com.koryshev.widgets.service.WidgetChange;
+import com.koryshev.widgets.service.WidgetChangeFeed;
+import com.koryshev.widgets.service.WidgetImportFormat;
+import com.koryshev.widgets.service.WidgetImportResult;
+import com.koryshev.widgets.service.WidgetImporter;
 import com.koryshev.widgets.service.WidgetService;
+import com.koryshev.widgets.util.WidgetUtil;
 import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Profile;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Slice;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -20,27 +37,49 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.scheduler.Schedulers;
 
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Locale;
 import java.util.UUID;
 
 /**
- * Provides an API for widgets.
+ * Provides an API for widgets, unless the {@code reactive} profile serves it with {@link ReactiveWidgetController}.
  *
  * @author Ivan Koryshev
  */
+@Profile("!reactive")
 @RestController
 @RequestMapping("/v1/widgets")
 @RequiredArgsConstructor
 public class WidgetController {
 
+    private static final String NDJSON = "application/x-ndjson";
+    private static final String CSV = "text/csv";
+
     private final WidgetService widgetService;
 
+    private final WidgetImporter widgetImporter;
+
+    private final WidgetChangeFeed widgetChangeFeed;
+
     private final WidgetMapper widgetMapper;
 
+    private final ObjectMapper objectMapper;
+
     /**
      * Creates a new widget from data specified in a DTO.
      *
@@ -89,8 +128,26 @@ public class WidgetController {
         return widgetMapper.toWidgetResponseDto(widget);
     }
 
+    /**
+     * Creates, updates and deletes widgets at once.
+     *
+     * @param dto the DTO containing widget changes
+     * @return the created and updated widgets
+     */
+    @PostMapping("/batch")
+    public WidgetBatchResponseDto batch(@RequestBody @Valid WidgetBatchRequestDto dto) {
+        WidgetBatchResult result = widgetService.applyBatch(dto);
+        return WidgetBatchResponseDto.builder()
+                .created(widgetMapper.toWidgetResponseDto(result.getCreated()))
+                .updated(widgetMapper.toWidgetResponseDto(result.getUpdated()))
+                .build();
+    }
+
     /**
      * Returns a list of widgets based on the specified filter.
+     * <p>
+     * If a cursor returned with a previous page is specified, the page following it is returned instead of the page
+     * with the specified number, and the total number of widgets is not calculated.
      *
      * @return the widgets list
      */
@@ -98,7 +155,19 @@ public class WidgetController {
     public WidgetPageResponseDto filter(
             @Min(0L) @Valid @RequestParam(value = "page", required = false, defaultValue = "0") Integer page,
             @Min(0L) @Max(500L) @Valid @RequestParam(value = "size", required = false, defaultValue = "10") Integer size,
+            @RequestParam(value = "cursor", required = false) String cursor,
             @RequestBody(required = false) @Valid WidgetPageRequestDto dto) {
+        if (cursor != null) {
+            Slice<Widget> widgetsSlice = widgetService.findAllAfter(WidgetUtil.decodeCursor(cursor), size, dto);
+            List<WidgetResponseDto> content = widgetMapper.toWidgetResponseDto(widgetsSlice.getContent());
+
+            return WidgetPageResponseDto.builder()
+                    .size(widgetsSlice.getSize())
+                    .content(content)
+                    .nextCursor(nextCursor(widgetsSlice))
+                    .build();
+        }
+
         Page<Widget> widgetsPage = widgetService.findAll(page, size, dto);
         List<WidgetResponseDto> content = widgetMapper.toWidgetResponseDto(widgetsPage.getContent());
 
@@ -107,6 +176,110 @@ public class WidgetController {
                 .number(widgetsPage.getNumber())
                 .size(widgetsPage.getSize())
                 .content(content)
+                .nextCursor(nextCursor(widgetsPage))
                 .build();
     }
+
+    /**
+     * Writes all widgets ordered by z-index as newline-delimited JSON, one widget per line, while reading them.
+     *
+     * @param response the response to write widgets to
+     * @throws IOException if writing the response fails
+     */
+    @GetMapping(value = "/export", produces = NDJSON)
+    public void export(HttpServletResponse response) throws IOException {
+        // Widgets are flushed by the response buffer rather than one by one
+        ObjectWriter writer = objectMapper.writerFor(WidgetResponseDto.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        response.setContentType(NDJSON);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            generator.setRootValueSeparator(null);
+            widgetService.exportAll(widget -> {
+                try {
+                    writer.writeValue(generator, widgetMapper.toWidgetResponseDto(widget));
+                    generator.writeRaw('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Creates widgets from newline-delimited JSON, one widget per line, reading it while importing.
+     *
+     * @param body the request body
+     * @return the numbers of imported and rejected widgets, and the first errors
+     * @throws IOException if reading the request fails
+     */
+    @PostMapping(value = "/import", consumes = NDJSON)
+    public WidgetImportResponseDto importNdjson(InputStream body) throws IOException {
+        return importWidgets(body, WidgetImportFormat.NDJSON);
+    }
+
+    /**
+     * Creates widgets from comma-separated values with a header, reading them while importing.
+     *
+     * @param body the request body
+     * @return the numbers of imported and rejected widgets, and the first errors
+     * @throws IOException if reading the request fails
+     */
+    @PostMapping(value = "/import", consumes = CSV)
+    public WidgetImportResponseDto importCsv(InputStream body) throws IOException {
+        return importWidgets(body, WidgetImportFormat.CSV);
+    }
+
+    private WidgetImportResponseDto importWidgets(InputStream body, WidgetImportFormat format) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        WidgetImportResult result = widgetImporter.importWidgets(reader, format);
+        return widgetMapper.toWidgetImportResponseDto(result);
+    }
+
+    /**
+     * Streams changes of widgets inside a viewport as server-sent events named after the kind of the change, starting
+     * with the widgets currently inside it. The viewport is specified by query parameters named and validated the same
+     * way as the rectangle of {@link #filter}.
+     *
+     * @param viewport the DTO containing the viewport rectangle
+     * @return the emitter of changes
+     */
+    @GetMapping(value = "/subscribe", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribe(@Valid WidgetPageRequestDto viewport) {
+        // The subscription ends after its own timeout, so the emitter never times out
+        SseEmitter emitter = new SseEmitter(0L);
+        // Disposing the swap before the subscription is set disposes the subscription as soon as it's set
+        Disposable.Swap subscription = Disposables.swap();
+        // Changes are sent by another thread, since they're received while changes are being made
+        subscription.update(widgetChangeFeed
+                .subscribe(viewport)
+                .publishOn(Schedulers.boundedElastic())
+                .subscribe(change -> {
+                    try {
+                        emitter.send(SseEmitter.event()
+                                .name(eventName(change))
+                                .data(widgetMapper.toWidgetChangeDto(change), MediaType.APPLICATION_JSON));
+                    } catch (IOException e) {
+                        // The client has disconnected, which is expected rather than an error of the subscription
+                        emitter.completeWithError(e);
+                        subscription.dispose();
+                    }
+                }, emitter::completeWithError, emitter::complete));
+        emitter.onCompletion(subscription::dispose);
+        emitter.onError(e -> subscription.dispose());
+        return emitter;
+    }
+
+    static String eventName(WidgetChange change) {
+        return change.getType().name().toLowerCase(Locale.ROOT);
+    }
+
+    static String nextCursor(Slice<Widget> widgets) {
+        if (!widgets.hasNext() || widgets.getContent().isEmpty()) {
+            return null;
+        }
+        List<Widget> content = widgets.getContent();
+        return WidgetUtil.encodeCursor(content.get(content.size() - 1).getZ());
+    }
 }
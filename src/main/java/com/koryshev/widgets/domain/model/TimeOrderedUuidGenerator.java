@@ -0,0 +1,54 @@
+package com.koryshev.widgets.domain.model;
+
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerator;
+
+import java.io.Serializable;
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates version 7 UUIDs, which start with the current time in milliseconds followed by a counter, so that every
+ * generated UUID is greater than the previous one. The remaining 62 bits are random.
+ * <p>
+ * The IDs are generated without a round trip to the database, so they don't prevent batching of inserts.
+ *
+ * @author Ivan Koryshev
+ */
+public class TimeOrderedUuidGenerator implements IdentifierGenerator {
+
+    public static final String NAME = "time-ordered-uuid";
+    public static final String STRATEGY = "com.koryshev.widgets.domain.model.TimeOrderedUuidGenerator";
+
+    private static final int COUNTER_BITS = 12;
+    private static final long VERSION = 0x7000L;
+    private static final long VARIANT = 0x8000_0000_0000_0000L;
+    private static final long RANDOM_BITS = 0x3FFF_FFFF_FFFF_FFFFL;
+
+    private static final AtomicLong LAST_TIMESTAMP = new AtomicLong();
+    private static final Random RANDOM = new SecureRandom();
+
+    @Override
+    public Serializable generate(SharedSessionContractImplementor session, Object object) {
+        return generate();
+    }
+
+    /**
+     * Returns a new UUID greater than all UUIDs generated before.
+     *
+     * @return the UUID
+     */
+    public static UUID generate() {
+        // Milliseconds with a counter, running ahead of the clock if more UUIDs are requested within a millisecond
+        long now = System.currentTimeMillis() << COUNTER_BITS;
+        long timestamp = LAST_TIMESTAMP.updateAndGet(last -> Math.max(last + 1, now));
+
+        long millis = timestamp >>> COUNTER_BITS;
+        long counter = timestamp & ((1L << COUNTER_BITS) - 1);
+        long mostSigBits = millis << 16 | VERSION | counter;
+        long leastSigBits = VARIANT | RANDOM.nextLong() & RANDOM_BITS;
+        return new UUID(mostSigBits, leastSigBits);
+    }
+}
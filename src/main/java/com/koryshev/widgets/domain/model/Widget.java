@@ -4,6 +4,7 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.GenericGenerator;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.LastModifiedDate;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
@@ -14,6 +15,8 @@ import javax.persistence.EntityListeners;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 import javax.persistence.Index;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
 import javax.persistence.Table;
 import javax.validation.constraints.Positive;
 import java.time.Instant;
@@ -21,20 +24,32 @@ import java.util.UUID;
 
 /**
  * An entity containing widget details.
+ * <p>
+ * Besides the center coordinates and size, a widget stores its left, right and top edges derived from them, so that
+ * widgets inside a rectangle can be found using an index on the edges. Filtering compares height instead of the bottom
+ * edge, which isn't stored. The index also covers height and z-index, so the database can filter, count and order
+ * matching widgets without reading the rows.
+ * <p>
+ * IDs are generated in ascending order, so that inserts append to the primary key index instead of splitting its
+ * pages at random.
  *
  * @author Ivan Koryshev
  */
 @Entity
 @EntityListeners(AuditingEntityListener.class)
-@Table(indexes = @Index(columnList = "z"))
+@Table(indexes = {
+        @Index(columnList = "z"),
+        @Index(name = "idx_widget_edges", columnList = "leftEdge, rightEdge, topEdge, height, z")
+})
 @Data
-@Builder
+@Builder(toBuilder = true)
 @NoArgsConstructor
 @AllArgsConstructor
 public class Widget {
 
     @Id
-    @GeneratedValue
+    @GeneratedValue(generator = TimeOrderedUuidGenerator.NAME)
+    @GenericGenerator(name = TimeOrderedUuidGenerator.NAME, strategy = TimeOrderedUuidGenerator.STRATEGY)
     private UUID id;
 
     @Column(nullable = false)
@@ -54,9 +69,30 @@ public class Widget {
     @Column(nullable = false)
     private Integer height;
 
+    @Column(nullable = false)
+    private Long leftEdge;
+
+    @Column(nullable = false)
+    private Long rightEdge;
+
+    @Column(nullable = false)
+    private Long topEdge;
+
     @CreatedDate
     private Instant createdDate;
 
     @LastModifiedDate
     private Instant lastModifiedDate;
+
+    /**
+     * Derives edges from the center coordinates and size, the same way filtering does.
+     * Must be called whenever coordinates or size change before the widget is stored.
+     */
+    @PrePersist
+    @PreUpdate
+    public void calculateEdges() {
+        leftEdge = (long) x - width / 2;
+        rightEdge = leftEdge + width;
+        topEdge = (long) y + height / 2;
+    }
 }
@@ -0,0 +1,421 @@
+package com.koryshev.widgets.domain.repository;
+
+import com.koryshev.widgets.domain.model.Widget;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static com.koryshev.widgets.domain.repository.SlotOrderTree.NONE;
+
+/**
+ * An in-memory repository for accessing {@link Widget}, keeping widgets in primitive arrays instead of objects.
+ * <p>
+ * Every widget takes a slot, an index into arrays holding its coordinates, size and dates. Slots are kept dense:
+ * the slot of a deleted widget is taken by the widget in the last slot. IDs are mapped to slots by a
+ * {@link SlotIdTable} and slots are ordered by z-index by a {@link SlotOrderTree}, both kept in primitive arrays as
+ * well, so a widget takes less than a hundred bytes and no objects at all. {@link Widget} objects are only created
+ * when widgets are returned, and changing them doesn't change stored widgets.
+ * <p>
+ * Widgets inside a rectangle are found by scanning the coordinate arrays of all widgets, which doesn't allocate and
+ * reads memory sequentially, instead of walking a spatial index. Dates are kept in milliseconds.
+ * <p>
+ * Like {@link InMemoryWidgetRepository}, the repository expects changes to be serialized by the caller, and reads
+ * racing with changes may return inconsistent results or throw exceptions, but they always terminate.
+ *
+ * @author Ivan Koryshev
+ */
+@Profile("in-memory-compact")
+@Repository
+public class CompactWidgetRepository implements WidgetRepository {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private SlotIdTable ids;
+    private SlotOrderTree zOrder;
+    private int[] x;
+    private int[] y;
+    private int[] width;
+    private int[] height;
+    private long[] createdDates;
+    private long[] lastModifiedDates;
+    private int size;
+
+    public CompactWidgetRepository() {
+        deleteAll();
+    }
+
+    @Override
+    public Widget save(Widget widget) {
+        if (widget.getId() == null) {
+            UUID id = UUID.randomUUID();
+            Instant createdDate = now();
+            widget.setId(id);
+            widget.setCreatedDate(createdDate);
+        }
+
+        widget.setLastModifiedDate(now());
+        widget.calculateEdges();
+
+        int slot = ids.find(widget.getId());
+        int z = widget.getZ();
+        int taken = zOrder.find(z);
+        // Services free a z-index before saving a widget there, so this only guards against corrupting the order
+        if (taken != NONE && taken != slot) {
+            throw new IllegalArgumentException("Z-index " + z + " is taken by widget " + ids.id(taken));
+        }
+
+        if (slot == NONE) {
+            slot = size;
+            ensureCapacity(size + 1);
+            ids.add(slot, widget.getId());
+            zOrder.insert(slot, z);
+            size++;
+        } else if (zOrder.key(slot) != z) {
+            zOrder.remove(slot);
+            zOrder.insert(slot, z);
+        }
+        x[slot] = widget.getX();
+        y[slot] = widget.getY();
+        width[slot] = widget.getWidth();
+        height[slot] = widget.getHeight();
+        createdDates[slot] = widget.getCreatedDate().toEpochMilli();
+        lastModifiedDates[slot] = widget.getLastModifiedDate().toEpochMilli();
+        return widget;
+    }
+
+    @Override
+    public void deleteById(UUID id) {
+        int slot = ids.find(id);
+        if (slot == NONE) {
+            return;
+        }
+        zOrder.remove(slot);
+        ids.remove(slot);
+
+        int last = --size;
+        if (slot != last) {
+            zOrder.move(last, slot);
+            ids.move(last, slot);
+            x[slot] = x[last];
+            y[slot] = y[last];
+            width[slot] = width[last];
+            height[slot] = height[last];
+            createdDates[slot] = createdDates[last];
+            lastModifiedDates[slot] = lastModifiedDates[last];
+        }
+    }
+
+    /**
+     * Deletes all widgets and releases the memory they took.
+     */
+    @Override
+    public void deleteAll() {
+        ids = new SlotIdTable(INITIAL_CAPACITY);
+        zOrder = new SlotOrderTree(INITIAL_CAPACITY);
+        x = new int[INITIAL_CAPACITY];
+        y = new int[INITIAL_CAPACITY];
+        width = new int[INITIAL_CAPACITY];
+        height = new int[INITIAL_CAPACITY];
+        createdDates = new long[INITIAL_CAPACITY];
+        lastModifiedDates = new long[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    /**
+     * Returns the number of widgets.
+     *
+     * @return the number of widgets
+     */
+    public int count() {
+        return size;
+    }
+
+    @Override
+    public Optional<Widget> findById(UUID widgetId) {
+        int slot = ids.find(widgetId);
+        return slot == NONE ? Optional.empty() : Optional.of(toWidget(slot));
+    }
+
+    @Override
+    public Optional<Widget> findByZ(Integer z) {
+        int slot = zOrder.find(z);
+        return slot == NONE ? Optional.empty() : Optional.of(toWidget(slot));
+    }
+
+    @Override
+    public Optional<Integer> findMaxZ() {
+        int slot = zOrder.last();
+        return slot == NONE ? Optional.empty() : Optional.of(zOrder.key(slot));
+    }
+
+    @Override
+    public Optional<Integer> findMaxZLessThan(Integer z) {
+        int slot = zOrder.lower(z);
+        return slot == NONE ? Optional.empty() : Optional.of(zOrder.key(slot));
+    }
+
+    @Override
+    public List<Integer> findAllZ() {
+        return zOrder.keys();
+    }
+
+    @Override
+    public Page<Widget> findAll(Pageable pageable) {
+        int total = size;
+        if (pageable.getOffset() > total) {
+            return Page.empty(pageable);
+        }
+
+        List<Widget> content = new ArrayList<>(Math.min(pageable.getPageSize(), total));
+        SlotOrderTree.Cursor cursor = zOrder.cursorFromIndex((int) pageable.getOffset());
+        for (int slot = cursor.next(); slot != NONE && content.size() < pageable.getPageSize(); slot = cursor.next()) {
+            content.add(toWidget(slot));
+        }
+        return new PageImpl<>(content, pageable, total);
+    }
+
+    @Override
+    public List<Widget> findAllByZGreaterThanOrderByZAsc(Integer z, Pageable pageable) {
+        List<Widget> widgets = new ArrayList<>(pageable.getPageSize());
+        if (z == Integer.MAX_VALUE) {
+            return widgets;
+        }
+        SlotOrderTree.Cursor cursor = zOrder.cursorFromKey(z + 1);
+        for (int slot = cursor.next(); slot != NONE && widgets.size() < pageable.getPageSize(); slot = cursor.next()) {
+            widgets.add(toWidget(slot));
+        }
+        return widgets;
+    }
+
+    @Override
+    public void shiftZ(Integer z) {
+        updateZ(z, z + 1);
+    }
+
+    /**
+     * Shifts the run in place: every widget of the run takes the next z-index, which is either taken by the next
+     * widget of the run or free, so the order of slots doesn't change.
+     */
+    @Override
+    public int shiftZRun(Integer z) {
+        if (zOrder.find(z) == NONE) {
+            return 0;
+        }
+
+        int[] run = new int[INITIAL_CAPACITY];
+        int length = 0;
+        SlotOrderTree.Cursor cursor = zOrder.cursorFromKey(z);
+        for (int slot = cursor.next(); slot != NONE && zOrder.key(slot) == z + length; slot = cursor.next()) {
+            if (length == run.length) {
+                run = Arrays.copyOf(run, 2 * length);
+            }
+            run[length++] = slot;
+        }
+
+        long lastModifiedDate = now().toEpochMilli();
+        for (int i = length - 1; i >= 0; i--) {
+            zOrder.setKeyInPlace(run[i], z + i + 1);
+            lastModifiedDates[run[i]] = lastModifiedDate;
+        }
+        return length;
+    }
+
+    /**
+     * Shifts the range in place if no widget lies between the range and the z-indexes it's shifted to, since the
+     * order of slots doesn't change then. Otherwise every widget of the range is moved in the tree.
+     */
+    @Override
+    public int shiftZRange(Integer from, Integer to, Integer offset) {
+        int[] range = new int[INITIAL_CAPACITY];
+        int length = 0;
+        SlotOrderTree.Cursor cursor = zOrder.cursorFromKey(from);
+        for (int slot = cursor.next(); slot != NONE && zOrder.key(slot) <= to; slot = cursor.next()) {
+            if (length == range.length) {
+                range = Arrays.copyOf(range, 2 * length);
+            }
+            range[length++] = slot;
+        }
+        if (length == 0) {
+            return 0;
+        }
+
+        long lastModifiedDate = now().toEpochMilli();
+        int highest = zOrder.lower((int) Math.min(Integer.MAX_VALUE, (long) to + offset + 1));
+        boolean inPlace = highest == range[length - 1];
+        // Moving from the top keeps z-indexes unique, since the range is only shifted to z-indexes above it
+        for (int i = length - 1; i >= 0; i--) {
+            int slot = range[i];
+            int z = zOrder.key(slot) + offset;
+            if (inPlace) {
+                zOrder.setKeyInPlace(slot, z);
+            } else {
+                zOrder.remove(slot);
+                zOrder.insert(slot, z);
+            }
+            lastModifiedDates[slot] = lastModifiedDate;
+        }
+        return length;
+    }
+
+    @Override
+    public void updateZ(Integer oldValue, Integer newValue) {
+        int slot = zOrder.find(oldValue);
+        zOrder.remove(slot);
+        zOrder.insert(slot, newValue);
+        lastModifiedDates[slot] = now().toEpochMilli();
+    }
+
+    @Override
+    public List<Widget> findAllInRectangleOrderByZAsc(Integer x, Integer y, Integer width, Integer height) {
+        long left = (long) x - width / 2;
+        long top = (long) y + height / 2;
+        return toWidgets(scan(left, left + width, top, height, Integer.MIN_VALUE, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public List<Widget> findAllInRectangleByZGreaterThanOrderByZAsc(
+            Integer x, Integer y, Integer width, Integer height, Integer z, Pageable pageable) {
+        long left = (long) x - width / 2;
+        long top = (long) y + height / 2;
+        return toWidgets(scan(left, left + width, top, height, z, pageable.getPageSize()));
+    }
+
+    /**
+     * Returns the time to record as the creation or modification date of widgets.
+     *
+     * @return the current time in milliseconds
+     */
+    protected Instant now() {
+        return Instant.ofEpochMilli(System.currentTimeMillis());
+    }
+
+    /**
+     * Finds the widgets with the lowest z-indexes inside a rectangle having a z-index greater than the specified one.
+     */
+    private Matches scan(long left, long right, long top, long height, long after, int limit) {
+        int count = size;
+        int[] xs = x;
+        int[] ys = y;
+        int[] widths = width;
+        int[] heights = this.height;
+        SlotOrderTree zOrder = this.zOrder;
+
+        Matches matches = new Matches(limit);
+        for (int slot = 0; slot < count; slot++) {
+            int widgetWidth = widths[slot];
+            int widgetHeight = heights[slot];
+            long widgetLeft = (long) xs[slot] - widgetWidth / 2;
+            if (widgetLeft >= left && widgetLeft + widgetWidth <= right
+                    && (long) ys[slot] + widgetHeight / 2 <= top && widgetHeight <= height) {
+                int z = zOrder.key(slot);
+                if (z > after) {
+                    matches.add(z, slot);
+                }
+            }
+        }
+        return matches;
+    }
+
+    private List<Widget> toWidgets(Matches matches) {
+        long[] keys = matches.sorted();
+        List<Widget> widgets = new ArrayList<>(keys.length);
+        for (long key : keys) {
+            widgets.add(toWidget((int) key));
+        }
+        return widgets;
+    }
+
+    private Widget toWidget(int slot) {
+        Widget widget = Widget.builder()
+                .id(ids.id(slot))
+                .x(x[slot])
+                .y(y[slot])
+                .z(zOrder.key(slot))
+                .width(width[slot])
+                .height(height[slot])
+                .createdDate(Instant.ofEpochMilli(createdDates[slot]))
+                .lastModifiedDate(Instant.ofEpochMilli(lastModifiedDates[slot]))
+                .build();
+        widget.calculateEdges();
+        return widget;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= x.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, x.length + (x.length >> 1));
+        ids.ensureCapacity(newCapacity);
+        zOrder.ensureCapacity(newCapacity);
+        x = Arrays.copyOf(x, newCapacity);
+        y = Arrays.copyOf(y, newCapacity);
+        width = Arrays.copyOf(width, newCapacity);
+        height = Arrays.copyOf(height, newCapacity);
+        createdDates = Arrays.copyOf(createdDates, newCapacity);
+        lastModifiedDates = Arrays.copyOf(lastModifiedDates, newCapacity);
+    }
+
+    /**
+     * Widgets found by a scan, every one kept as a key with its z-index in the upper half and its slot in the lower
+     * half, so that ordering keys orders widgets by z-index. Once the limit is reached, the keys are kept in a heap
+     * with the highest one on top, which is replaced by lower keys found afterwards.
+     */
+    private static final class Matches {
+
+        private final int limit;
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private int count;
+
+        Matches(int limit) {
+            this.limit = limit;
+        }
+
+        void add(int z, int slot) {
+            long key = (long) z << 32 | slot;
+            if (count < limit) {
+                if (count == keys.length) {
+                    keys = Arrays.copyOf(keys, (int) Math.min(limit, 2L * count));
+                }
+                keys[count++] = key;
+                if (count == limit) {
+                    for (int i = count / 2 - 1; i >= 0; i--) {
+                        siftDown(i);
+                    }
+                }
+            } else if (key < keys[0]) {
+                keys[0] = key;
+                siftDown(0);
+            }
+        }
+
+        long[] sorted() {
+            long[] result = Arrays.copyOf(keys, count);
+            Arrays.sort(result);
+            return result;
+        }
+
+        private void siftDown(int index) {
+            long key = keys[index];
+            for (int child = 2 * index + 1; child < count; child = 2 * index + 1) {
+                if (child + 1 < count && keys[child + 1] > keys[child]) {
+                    child++;
+                }
+                if (keys[child] <= key) {
+                    break;
+                }
+                keys[index] = keys[child];
+                index = child;
+            }
+            keys[index] = key;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.koryshev.widgets.domain.repository;
 
 import com.koryshev.widgets.domain.model.Widget;
+import com.koryshev.widgets.util.WidgetUtil;
 import org.springframework.context.annotation.Profile;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
@@ -10,13 +11,12 @@ import org.springframework.stereotype.Repository;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.TreeMap;
 import java.util.UUID;
-
-import static java.util.stream.Collectors.toList;
+import java.util.function.Consumer;
 
 /**
  * An in-memory repository for accessing {@link Widget}.
@@ -27,22 +27,27 @@ import static java.util.stream.Collectors.toList;
 @Repository
 public class InMemoryWidgetRepository implements WidgetRepository {
 
-    private final Map<UUID, Widget> repository = new HashMap<>();
-    private final TreeMap<Integer, Widget> orderedRepository = new TreeMap<>();
+    private static final int Z_ORDER_SCAN_FACTOR = 8;
+
+    private Map<UUID, Widget> repository = new HashMap<>();
+    private final OrderStatisticTree<Widget> orderedRepository = new OrderStatisticTree<>();
+    private final WidgetSpatialIndex spatialIndex = new WidgetSpatialIndex();
 
     @Override
     public Widget save(Widget widget) {
         if (widget.getId() == null) {
             UUID id = UUID.randomUUID();
-            Instant createdDate = Instant.now();
+            Instant createdDate = now();
             widget.setId(id);
             widget.setCreatedDate(createdDate);
         }
 
-        widget.setLastModifiedDate(Instant.now());
+        widget.setLastModifiedDate(now());
+        widget.calculateEdges();
 
         repository.put(widget.getId(), widget);
         orderedRepository.put(widget.getZ(), widget);
+        spatialIndex.put(widget);
         return widget;
     }
 
@@ -50,12 +55,52 @@ public class InMemoryWidgetRepository implements WidgetRepository {
     public void deleteById(UUID id) {
         Widget widget = repository.remove(id);
         orderedRepository.remove(widget.getZ());
+        spatialIndex.remove(id);
     }
 
     @Override
     public void deleteAll() {
         repository.clear();
         orderedRepository.clear();
+        spatialIndex.clear();
+    }
+
+    /**
+     * Replaces all widgets with the specified ones, building the indexes at once rather than widget by widget.
+     * The widgets are stored as they are, with their IDs and dates. If they can't be loaded, the repository is left
+     * empty.
+     *
+     * @param widgets the widgets ordered by z-index
+     * @throws IllegalArgumentException if z-indexes are not strictly ascending or IDs are not unique
+     */
+    public void load(List<Widget> widgets) {
+        repository = new HashMap<>(widgets.size() * 4 / 3 + 1);
+        orderedRepository.clear();
+        spatialIndex.clear();
+        for (Widget widget : widgets) {
+            widget.calculateEdges();
+            if (repository.put(widget.getId(), widget) != null) {
+                repository.clear();
+                throw new IllegalArgumentException("Widget " + widget.getId() + " is loaded twice");
+            }
+        }
+
+        try {
+            orderedRepository.load(widgets, Widget::getZ);
+        } catch (IllegalArgumentException e) {
+            repository.clear();
+            throw e;
+        }
+        spatialIndex.load(widgets);
+    }
+
+    /**
+     * Returns the number of widgets.
+     *
+     * @return the number of widgets
+     */
+    public int count() {
+        return repository.size();
     }
 
     @Override
@@ -70,52 +115,168 @@ public class InMemoryWidgetRepository implements WidgetRepository {
 
     @Override
     public Optional<Integer> findMaxZ() {
-        if (orderedRepository.isEmpty()) {
-            return Optional.empty();
-        }
-        return Optional.of(orderedRepository.lastKey());
+        return Optional.ofNullable(orderedRepository.lastKey());
     }
 
     @Override
-    public Page<Widget> findAll(Pageable pageable) {
-        List<Widget> widgets = new ArrayList<>(orderedRepository.values());
+    public Optional<Integer> findMaxZLessThan(Integer z) {
+        return Optional.ofNullable(orderedRepository.lowerKey(z));
+    }
 
-        int total = widgets.size();
-        int from = (int) pageable.getOffset();
-        int to = from + pageable.getPageSize();
+    @Override
+    public List<Integer> findAllZ() {
+        return orderedRepository.keys();
+    }
 
-        if (from > total) {
+    @Override
+    public Page<Widget> findAll(Pageable pageable) {
+        int total = orderedRepository.size();
+        if (pageable.getOffset() > total) {
             return Page.empty(pageable);
         }
-        if (to > total) {
-            to = total;
-        }
 
-        List<Widget> content = widgets.subList(from, to);
+        List<Widget> content = orderedRepository.values((int) pageable.getOffset(), pageable.getPageSize());
         return new PageImpl<>(content, pageable, total);
     }
 
+    /**
+     * Passes all widgets to an action ordered by z-index.
+     *
+     * @param action the action to perform on every widget
+     */
+    public void forEachOrderByZAsc(Consumer<Widget> action) {
+        Iterator<Map.Entry<Integer, Widget>> iterator = orderedRepository.iteratorFromIndex(0);
+        while (iterator.hasNext()) {
+            action.accept(iterator.next().getValue());
+        }
+    }
+
     @Override
     public void shiftZ(Integer z) {
         updateZ(z, z + 1);
     }
 
+    @Override
+    public List<Widget> findAllByZGreaterThanOrderByZAsc(Integer z, Pageable pageable) {
+        List<Widget> widgets = new ArrayList<>(pageable.getPageSize());
+        if (z == Integer.MAX_VALUE) {
+            return widgets;
+        }
+        Iterator<Map.Entry<Integer, Widget>> iterator = orderedRepository.iteratorFromKey(z + 1);
+        while (iterator.hasNext() && widgets.size() < pageable.getPageSize()) {
+            widgets.add(iterator.next().getValue());
+        }
+        return widgets;
+    }
+
+    @Override
+    public int shiftZRun(Integer z) {
+        if (!orderedRepository.containsKey(z)) {
+            return 0;
+        }
+
+        // Every key in the run except the first one stays taken, so it is enough to move widgets one entry up
+        // and to relink the first and the last keys
+        Instant lastModifiedDate = now();
+        int next = z;
+        Widget carried = null;
+        Iterator<Map.Entry<Integer, Widget>> iterator = orderedRepository.iteratorFromKey(z);
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, Widget> entry = iterator.next();
+            if (entry.getKey() != next) {
+                break;
+            }
+            Widget widget = entry.getValue();
+            widget.setZ(next + 1);
+            widget.setLastModifiedDate(lastModifiedDate);
+            entry.setValue(carried);
+            carried = widget;
+            next++;
+        }
+
+        orderedRepository.remove(z);
+        orderedRepository.put(next, carried);
+        return next - z;
+    }
+
+    @Override
+    public int shiftZRange(Integer from, Integer to, Integer offset) {
+        List<Widget> widgets = new ArrayList<>();
+        Iterator<Map.Entry<Integer, Widget>> iterator = orderedRepository.iteratorFromKey(from);
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, Widget> entry = iterator.next();
+            if (entry.getKey() > to) {
+                break;
+            }
+            widgets.add(entry.getValue());
+        }
+
+        // Moving from the top keeps z-indexes unique, since the range is only shifted to z-indexes above it
+        Instant lastModifiedDate = now();
+        for (int i = widgets.size() - 1; i >= 0; i--) {
+            Widget widget = widgets.get(i);
+            orderedRepository.remove(widget.getZ());
+            widget.setZ(widget.getZ() + offset);
+            widget.setLastModifiedDate(lastModifiedDate);
+            orderedRepository.put(widget.getZ(), widget);
+        }
+        return widgets.size();
+    }
+
     @Override
     public void updateZ(Integer oldValue, Integer newValue) {
         Widget widget = orderedRepository.remove(oldValue);
 
         widget.setZ(newValue);
-        widget.setLastModifiedDate(Instant.now());
+        widget.setLastModifiedDate(now());
 
         orderedRepository.put(widget.getZ(), widget);
         repository.put(widget.getId(), widget);
     }
 
     @Override
-    public List<Widget> findAllByWidthLessThanEqualAndHeightLessThanEqualOrderByZAsc(Integer width, Integer height) {
-        return orderedRepository.values()
-                .stream()
-                .filter(widget -> widget.getWidth() <= width && widget.getHeight() <= height)
-                .collect(toList());
+    public List<Widget> findAllInRectangleOrderByZAsc(Integer x, Integer y, Integer width, Integer height) {
+        long left = (long) x - width / 2;
+        long top = (long) y + height / 2;
+        return spatialIndex.search(left, left + width, top, height);
+    }
+
+    @Override
+    public List<Widget> findAllInRectangleByZGreaterThanOrderByZAsc(
+            Integer x, Integer y, Integer width, Integer height, Integer z, Pageable pageable) {
+        int limit = pageable.getPageSize();
+        List<Widget> widgets = new ArrayList<>(limit);
+        if (z == Integer.MAX_VALUE || limit <= 0) {
+            return widgets;
+        }
+
+        // Walking up the z-order finds a page after scanning it if the rectangle covers a fair share of widgets,
+        // otherwise the spatial index finds the rest after visiting every widget inside the rectangle
+        int remainingScans = limit * Z_ORDER_SCAN_FACTOR;
+        int lastZ = z;
+        Iterator<Map.Entry<Integer, Widget>> iterator = orderedRepository.iteratorFromKey(z + 1);
+        while (iterator.hasNext() && widgets.size() < limit) {
+            if (remainingScans-- == 0) {
+                long left = (long) x - width / 2;
+                long top = (long) y + height / 2;
+                widgets.addAll(spatialIndex.search(left, left + width, top, height, lastZ, limit - widgets.size()));
+                break;
+            }
+            Widget widget = iterator.next().getValue();
+            lastZ = widget.getZ();
+            if (WidgetUtil.rectangleContains(x, y, width, height, widget)) {
+                widgets.add(widget);
+            }
+        }
+        return widgets;
+    }
+
+    /**
+     * Returns the time to record as the creation or modification date of widgets.
+     *
+     * @return the current time
+     */
+    protected Instant now() {
+        return Instant.now();
     }
 }
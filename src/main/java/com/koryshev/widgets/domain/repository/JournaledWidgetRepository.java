@@ -0,0 +1,342 @@
+package com.koryshev.widgets.domain.repository;
+
+import com.koryshev.widgets.config.WidgetProperties;
+import com.koryshev.widgets.domain.model.Widget;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * An in-memory repository for accessing {@link Widget}, which survives restarts by writing every change to
+ * a {@link WidgetJournal} on disk.
+ * <p>
+ * Reads are served from the same in-heap indexes as by {@link InMemoryWidgetRepository}. Every change is applied to
+ * them first and then appended to the journal as a record describing it, and {@link #sync()} makes the appended records
+ * durable. After every {@code widgets.journal.snapshot-interval} changes the journal is rotated to a new segment and
+ * all widgets are copied into a {@link WidgetSnapshot}, then written in the background as a snapshot preceding that
+ * segment. Once the snapshot is written, older snapshots and segments are deleted. On startup the latest snapshot is
+ * loaded with bulk index construction and the journal segments following it are replayed. Changes which weren't synced
+ * may be lost, and a modification journaled as several records may be recovered partially.
+ * <p>
+ * Dates are recorded in milliseconds, the precision they are journaled with, so that replaying restores exactly the
+ * same widgets. Like its parent, the repository expects changes to be serialized by the caller.
+ *
+ * @author Ivan Koryshev
+ */
+@Slf4j
+@Profile("journal")
+@Repository
+public class JournaledWidgetRepository extends InMemoryWidgetRepository implements Closeable {
+
+    private static final byte SAVE = 1;
+    private static final byte DELETE = 2;
+    private static final byte DELETE_ALL = 3;
+    private static final byte SHIFT_Z_RUN = 4;
+    private static final byte SHIFT_Z_RANGE = 5;
+    private static final byte UPDATE_Z = 6;
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final int snapshotInterval;
+    private final WidgetJournal journal;
+    private final ByteBuffer record = ByteBuffer.allocate(64);
+    private final ExecutorService snapshotExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "widget-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private Instant timestamp;
+    private long changesSinceSnapshot;
+    private Future<?> snapshotTask;
+
+    public JournaledWidgetRepository(WidgetProperties widgetProperties) throws IOException {
+        WidgetProperties.Journal properties = widgetProperties.getJournal();
+        directory = Paths.get(properties.getDirectory());
+        snapshotInterval = properties.getSnapshotInterval();
+        journal = new WidgetJournal(directory, (int) properties.getSegmentSize().toBytes());
+
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    @Override
+    public Widget save(Widget widget) {
+        startChange();
+        super.save(widget);
+
+        record.clear();
+        record.put(SAVE);
+        putWidget(widget);
+        append();
+        return widget;
+    }
+
+    @Override
+    public void deleteById(UUID id) {
+        startChange();
+        super.deleteById(id);
+
+        record.clear();
+        record.put(DELETE).putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits());
+        append();
+    }
+
+    @Override
+    public void deleteAll() {
+        startChange();
+        super.deleteAll();
+
+        record.clear();
+        record.put(DELETE_ALL);
+        append();
+    }
+
+    @Override
+    public int shiftZRun(Integer z) {
+        startChange();
+        int shifted = super.shiftZRun(z);
+        if (shifted == 0) {
+            return 0;
+        }
+
+        record.clear();
+        record.put(SHIFT_Z_RUN).putInt(z).putLong(timestamp.toEpochMilli());
+        append();
+        return shifted;
+    }
+
+    @Override
+    public int shiftZRange(Integer from, Integer to, Integer offset) {
+        startChange();
+        int shifted = super.shiftZRange(from, to, offset);
+
+        record.clear();
+        record.put(SHIFT_Z_RANGE).putInt(from).putInt(to).putInt(offset).putLong(timestamp.toEpochMilli());
+        append();
+        return shifted;
+    }
+
+    /**
+     * Updates a z-index and journals it. Shifting a single z-index is journaled the same way.
+     */
+    @Override
+    public void updateZ(Integer oldValue, Integer newValue) {
+        startChange();
+        super.updateZ(oldValue, newValue);
+
+        record.clear();
+        record.put(UPDATE_Z).putInt(oldValue).putInt(newValue).putLong(timestamp.toEpochMilli());
+        append();
+    }
+
+    /**
+     * Waits until all changes made so far are durable. Concurrent callers are served by a single write to disk.
+     */
+    public void sync() {
+        journal.sync();
+    }
+
+    @Override
+    public void close() throws IOException {
+        snapshotExecutor.shutdown();
+        try {
+            snapshotExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        journal.close();
+    }
+
+    /**
+     * Returns the time of the change being applied or replayed.
+     */
+    @Override
+    protected Instant now() {
+        return timestamp;
+    }
+
+    private void startChange() {
+        timestamp = Instant.ofEpochMilli(System.currentTimeMillis());
+    }
+
+    private void append() {
+        record.flip();
+        journal.append(record);
+
+        if (++changesSinceSnapshot >= snapshotInterval && (snapshotTask == null || snapshotTask.isDone())) {
+            takeSnapshot();
+        }
+    }
+
+    /**
+     * Starts a new journal segment and writes all widgets as they are at its start in the background.
+     */
+    private void takeSnapshot() {
+        changesSinceSnapshot = 0;
+        long segment = journal.rotate();
+        WidgetSnapshot snapshot = WidgetSnapshot.of(this);
+
+        snapshotTask = snapshotExecutor.submit(() -> {
+            try {
+                long started = System.nanoTime();
+                Path temporaryFile = directory.resolve(snapshotFileName(segment) + TEMPORARY_SUFFIX);
+                snapshot.write(temporaryFile);
+                Files.move(temporaryFile, snapshotPath(segment), StandardCopyOption.ATOMIC_MOVE);
+                WidgetJournal.syncDirectory(directory);
+                log.info("Wrote snapshot of {} widgets preceding journal segment {} in {} ms", snapshot.size(),
+                        segment, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+
+                deleteSnapshotsBefore(segment);
+                journal.deleteSegmentsBefore(segment);
+            } catch (IOException | RuntimeException e) {
+                log.error("Failed to write snapshot preceding journal segment {}", segment, e);
+            }
+        });
+    }
+
+    /**
+     * Loads the latest snapshot and replays the journal following it.
+     */
+    private void recover() throws IOException {
+        long started = System.nanoTime();
+        deleteTemporarySnapshots();
+
+        Optional<Long> snapshotSegment = findLatestSnapshot();
+        int loaded = 0;
+        if (snapshotSegment.isPresent()) {
+            WidgetSnapshot snapshot = WidgetSnapshot.read(snapshotPath(snapshotSegment.get()));
+            load(snapshot.toWidgets());
+            loaded = snapshot.size();
+        }
+
+        changesSinceSnapshot = journal.recover(snapshotSegment.orElse(0L), this::replay);
+        timestamp = null;
+        log.info("Recovered {} widgets from snapshot and {} journaled changes in {} ms", loaded, changesSinceSnapshot,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    private void replay(ByteBuffer payload) {
+        byte type = payload.get();
+        switch (type) {
+            case SAVE:
+                Widget widget = getWidget(payload);
+                timestamp = widget.getLastModifiedDate();
+                super.save(widget);
+                break;
+            case DELETE:
+                super.deleteById(new UUID(payload.getLong(), payload.getLong()));
+                break;
+            case DELETE_ALL:
+                super.deleteAll();
+                break;
+            case SHIFT_Z_RUN:
+                int z = payload.getInt();
+                timestamp = Instant.ofEpochMilli(payload.getLong());
+                super.shiftZRun(z);
+                break;
+            case SHIFT_Z_RANGE:
+                int from = payload.getInt();
+                int to = payload.getInt();
+                int offset = payload.getInt();
+                timestamp = Instant.ofEpochMilli(payload.getLong());
+                super.shiftZRange(from, to, offset);
+                break;
+            case UPDATE_Z:
+                int oldValue = payload.getInt();
+                int newValue = payload.getInt();
+                timestamp = Instant.ofEpochMilli(payload.getLong());
+                super.updateZ(oldValue, newValue);
+                break;
+            default:
+                throw new IllegalStateException("Unknown journal record type " + type);
+        }
+    }
+
+    private void putWidget(Widget widget) {
+        record.putLong(widget.getId().getMostSignificantBits())
+                .putLong(widget.getId().getLeastSignificantBits())
+                .putInt(widget.getX())
+                .putInt(widget.getY())
+                .putInt(widget.getZ())
+                .putInt(widget.getWidth())
+                .putInt(widget.getHeight())
+                .putLong(widget.getCreatedDate().toEpochMilli())
+                .putLong(widget.getLastModifiedDate().toEpochMilli());
+    }
+
+    private static Widget getWidget(ByteBuffer payload) {
+        return Widget.builder()
+                .id(new UUID(payload.getLong(), payload.getLong()))
+                .x(payload.getInt())
+                .y(payload.getInt())
+                .z(payload.getInt())
+                .width(payload.getInt())
+                .height(payload.getInt())
+                .createdDate(Instant.ofEpochMilli(payload.getLong()))
+                .lastModifiedDate(Instant.ofEpochMilli(payload.getLong()))
+                .build();
+    }
+
+    private Optional<Long> findLatestSnapshot() throws IOException {
+        return listSnapshots().stream().max(Long::compare);
+    }
+
+    private void deleteSnapshotsBefore(long segment) throws IOException {
+        for (long snapshot : listSnapshots()) {
+            if (snapshot < segment) {
+                Files.delete(snapshotPath(snapshot));
+            }
+        }
+    }
+
+    private void deleteTemporarySnapshots() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.getFileName().toString().endsWith(TEMPORARY_SUFFIX)) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    private List<Long> listSnapshots() throws IOException {
+        List<Long> snapshots = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX))
+                    .forEach(name -> snapshots.add(Long.parseLong(
+                            name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length()))));
+        }
+        return snapshots;
+    }
+
+    private Path snapshotPath(long segment) {
+        return directory.resolve(snapshotFileName(segment));
+    }
+
+    private static String snapshotFileName(long segment) {
+        return String.format("%s%016d%s", SNAPSHOT_PREFIX, segment, SNAPSHOT_SUFFIX);
+    }
+}
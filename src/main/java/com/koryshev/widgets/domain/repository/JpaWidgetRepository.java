@@ -1,16 +1,27 @@
 package com.koryshev.widgets.domain.repository;
 
 import com.koryshev.widgets.domain.model.Widget;
+import com.koryshev.widgets.util.WidgetUtil;
 import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
+
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 /**
  * A JPA repository for accessing {@link Widget}.
@@ -21,22 +32,117 @@ import java.util.UUID;
 @Repository
 public interface JpaWidgetRepository extends WidgetRepository, JpaRepository<Widget, UUID> {
 
+    /**
+     * Checks if a widget is inside a rectangle specified by its edges and height, the same way
+     * {@link WidgetUtil#rectangleContains} does. Only indexed columns are compared. The left edge is bounded on both
+     * sides, which follows from widths being positive, so the index is scanned over a range.
+     */
+    String IN_BOUNDS = "w.leftEdge between :left and :right and w.rightEdge <= :right and w.topEdge <= :top "
+            + "and w.height <= :height";
+
     @Override
     Optional<Widget> findByZ(Integer z);
 
     @Query("select max(w.z) from Widget w")
     Optional<Integer> findMaxZ();
 
+    @Override
+    @Query("select max(w.z) from Widget w where w.z < :z")
+    Optional<Integer> findMaxZLessThan(@Param(value = "z") Integer z);
+
+    @Override
+    @Query("select w.z from Widget w order by w.z")
+    List<Integer> findAllZ();
+
+    boolean existsByZ(Integer z);
+
+    @Override
+    List<Widget> findAllByZGreaterThanOrderByZAsc(Integer z, Pageable pageable);
+
+    /**
+     * Returns all widgets ordered by z-index, scrolling forward through the result fetched in chunks. The stream must
+     * be consumed within a transaction and closed.
+     */
+    @QueryHints({
+            @QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = org.hibernate.jpa.QueryHints.HINT_READONLY, value = "true")
+    })
+    @Query("select w from Widget w order by w.z")
+    Stream<Widget> streamAllOrderByZAsc();
+
+    @Query("select min(w.z) from Widget w where w.z >= :z and not exists "
+            + "(select n.id from Widget n where n.z = w.z + 1)")
+    Optional<Integer> findZRunEnd(@Param(value = "z") Integer z);
+
     @Override
     @Modifying
     @Query("update Widget w set w.z = w.z + 1, w.lastModifiedDate = CURRENT_TIMESTAMP where w.z = :z")
     void shiftZ(@Param(value = "z") Integer z);
 
+    @Override
+    @Modifying(clearAutomatically = true)
+    @Query("update Widget w set w.z = w.z + :offset, w.lastModifiedDate = CURRENT_TIMESTAMP "
+            + "where w.z between :from and :to")
+    int shiftZRange(@Param(value = "from") Integer from, @Param(value = "to") Integer to,
+                    @Param(value = "offset") Integer offset);
+
+    @Override
+    default int shiftZRun(Integer z) {
+        if (!existsByZ(z)) {
+            return 0;
+        }
+        return findZRunEnd(z)
+                .map(end -> shiftZRange(z, end, 1))
+                .orElse(0);
+    }
+
     @Override
     @Modifying
     @Query("update Widget w set w.z = :newValue, w.lastModifiedDate = CURRENT_TIMESTAMP where w.z = :oldValue")
     void updateZ(@Param(value = "oldValue") Integer oldValue, @Param(value = "newValue") Integer newValue);
 
+    @Query("select w from Widget w where " + IN_BOUNDS + " order by w.z")
+    List<Widget> findAllInBounds(@Param(value = "left") Long left, @Param(value = "right") Long right,
+                                 @Param(value = "top") Long top, @Param(value = "height") Integer height);
+
+    @Override
+    default List<Widget> findAllInRectangleOrderByZAsc(Integer x, Integer y, Integer width, Integer height) {
+        long left = (long) x - width / 2;
+        return findAllInBounds(left, left + width, (long) y + height / 2, height);
+    }
+
+    @Query(value = "select w.z from Widget w where " + IN_BOUNDS,
+            countQuery = "select count(w.z) from Widget w where " + IN_BOUNDS)
+    Page<Integer> findAllZInBounds(@Param(value = "left") Long left, @Param(value = "right") Long right,
+                                   @Param(value = "top") Long top, @Param(value = "height") Integer height,
+                                   Pageable pageable);
+
+    @Query("select w.z from Widget w where " + IN_BOUNDS + " and w.z > :z order by w.z")
+    List<Integer> findAllZInBoundsByZGreaterThan(@Param(value = "left") Long left, @Param(value = "right") Long right,
+                                                 @Param(value = "top") Long top,
+                                                 @Param(value = "height") Integer height,
+                                                 @Param(value = "z") Integer z, Pageable pageable);
+
+    List<Widget> findAllByZInOrderByZAsc(Collection<Integer> z);
+
+    /**
+     * Finds z-indexes of matching widgets using the index only, and then reads just the requested widgets.
+     */
+    @Override
+    default Page<Widget> findAllInRectangle(Integer x, Integer y, Integer width, Integer height, Pageable pageable) {
+        long left = (long) x - width / 2;
+        Page<Integer> zs = findAllZInBounds(left, left + width, (long) y + height / 2, height,
+                PageRequest.of(pageable.getPageNumber(), pageable.getPageSize(), Sort.by("z")));
+        List<Widget> widgets = zs.isEmpty() ? List.of() : findAllByZInOrderByZAsc(zs.getContent());
+        return new PageImpl<>(widgets, pageable, zs.getTotalElements());
+    }
+
     @Override
-    List<Widget> findAllByWidthLessThanEqualAndHeightLessThanEqualOrderByZAsc(Integer width, Integer height);
+    default List<Widget> findAllInRectangleByZGreaterThanOrderByZAsc(
+            Integer x, Integer y, Integer width, Integer height, Integer z, Pageable pageable) {
+        long left = (long) x - width / 2;
+        List<Integer> zs = findAllZInBoundsByZGreaterThan(left, left + width, (long) y + height / 2, height, z,
+                PageRequest.of(0, pageable.getPageSize()));
+        return zs.isEmpty() ? List.of() : findAllByZInOrderByZAsc(zs);
+    }
 }
@@ -0,0 +1,372 @@
+package com.koryshev.widgets.domain.repository;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.ToIntFunction;
+
+/**
+ * An AVL tree mapping z-indexes to values, augmented with subtree sizes so that entries can be found by their
+ * position in z-order in logarithmic time.
+ * <p>
+ * The tree is not thread-safe. Reads racing with modifications may return inconsistent results or throw
+ * {@link ConcurrentModificationException}, but they always terminate, so they can be validated and retried by the
+ * caller.
+ *
+ * @param <V> the type of values
+ * @author Ivan Koryshev
+ */
+class OrderStatisticTree<V> {
+
+    /**
+     * The limit of traversal depth. AVL trees holding up to {@link Integer#MAX_VALUE} entries are lower, so it can
+     * only be exceeded by a read racing with a modification.
+     */
+    private static final int MAX_HEIGHT = 64;
+
+    private Node<V> root;
+
+    int size() {
+        return size(root);
+    }
+
+    boolean isEmpty() {
+        return root == null;
+    }
+
+    void clear() {
+        root = null;
+    }
+
+    boolean containsKey(int key) {
+        return find(key) != null;
+    }
+
+    V get(int key) {
+        Node<V> node = find(key);
+        return node == null ? null : node.value;
+    }
+
+    V put(int key, V value) {
+        Node<V> node = find(key);
+        if (node != null) {
+            return node.setValue(value);
+        }
+        root = insert(root, key, value);
+        return null;
+    }
+
+    /**
+     * Replaces all entries with the specified values, building a balanced tree at once in linear time.
+     *
+     * @param values the values ordered by their keys
+     * @param key    the function returning the key of a value
+     * @throws IllegalArgumentException if the keys are not strictly ascending
+     */
+    void load(List<V> values, ToIntFunction<V> key) {
+        for (int i = 1; i < values.size(); i++) {
+            if (key.applyAsInt(values.get(i - 1)) >= key.applyAsInt(values.get(i))) {
+                throw new IllegalArgumentException("Keys are not strictly ascending at position " + i);
+            }
+        }
+        root = build(values, key, 0, values.size());
+    }
+
+    V remove(int key) {
+        Node<V> node = find(key);
+        if (node == null) {
+            return null;
+        }
+        root = delete(root, key);
+        return node.value;
+    }
+
+    /**
+     * Returns the greatest key, or {@code null} if the tree is empty.
+     */
+    Integer lastKey() {
+        if (root == null) {
+            return null;
+        }
+        Node<V> node = root;
+        for (int depth = 0; node.right != null; depth++) {
+            checkDepth(depth);
+            node = node.right;
+        }
+        return node.key;
+    }
+
+    /**
+     * Returns the greatest key strictly less than the specified one, or {@code null} if there is no such key.
+     */
+    Integer lowerKey(int key) {
+        Integer result = null;
+        Node<V> node = root;
+        for (int depth = 0; node != null; depth++) {
+            checkDepth(depth);
+            if (node.key < key) {
+                result = node.key;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return result;
+    }
+
+    List<Integer> keys() {
+        List<Integer> keys = new ArrayList<>(size());
+        iteratorFromIndex(0).forEachRemaining(entry -> keys.add(entry.getKey()));
+        return keys;
+    }
+
+    /**
+     * Returns values at the specified positions in key order.
+     *
+     * @param fromIndex the position of the first value
+     * @param count     the maximum number of values to return
+     * @return the values list
+     */
+    List<V> values(int fromIndex, int count) {
+        List<V> values = new ArrayList<>(Math.max(0, Math.min(count, size() - fromIndex)));
+        Iterator<Map.Entry<Integer, V>> iterator = iteratorFromIndex(fromIndex);
+        while (iterator.hasNext() && values.size() < count) {
+            values.add(iterator.next().getValue());
+        }
+        return values;
+    }
+
+    /**
+     * Returns an iterator over entries in key order starting at the specified position.
+     * Values can be replaced through the entries, structural changes invalidate the iterator.
+     */
+    Iterator<Map.Entry<Integer, V>> iteratorFromIndex(int index) {
+        Deque<Node<V>> path = new ArrayDeque<>();
+        Node<V> node = root;
+        for (int depth = 0; node != null; depth++) {
+            checkDepth(depth);
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                path.push(node);
+                node = node.left;
+            } else if (index == leftSize) {
+                path.push(node);
+                break;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+        return new EntryIterator<>(path);
+    }
+
+    /**
+     * Returns an iterator over entries in key order starting at the least key greater than or equal to
+     * the specified one. Values can be replaced through the entries, structural changes invalidate the iterator.
+     */
+    Iterator<Map.Entry<Integer, V>> iteratorFromKey(int key) {
+        Deque<Node<V>> path = new ArrayDeque<>();
+        Node<V> node = root;
+        for (int depth = 0; node != null; depth++) {
+            checkDepth(depth);
+            if (key <= node.key) {
+                path.push(node);
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return new EntryIterator<>(path);
+    }
+
+    private Node<V> find(int key) {
+        Node<V> node = root;
+        for (int depth = 0; node != null && node.key != key; depth++) {
+            checkDepth(depth);
+            node = key < node.key ? node.left : node.right;
+        }
+        return node;
+    }
+
+    private static void checkDepth(int depth) {
+        if (depth > MAX_HEIGHT) {
+            throw new ConcurrentModificationException();
+        }
+    }
+
+    /**
+     * Builds a subtree of values in the specified range, rooted at the middle one, so that heights of subtrees of
+     * every node differ by one at most.
+     */
+    private static <V> Node<V> build(List<V> values, ToIntFunction<V> key, int from, int to) {
+        if (from >= to) {
+            return null;
+        }
+        int middle = (from + to) >>> 1;
+        V value = values.get(middle);
+        Node<V> node = new Node<>(key.applyAsInt(value), value);
+        node.left = build(values, key, from, middle);
+        node.right = build(values, key, middle + 1, to);
+        update(node);
+        return node;
+    }
+
+    private static <V> Node<V> insert(Node<V> node, int key, V value) {
+        if (node == null) {
+            return new Node<>(key, value);
+        }
+        if (key < node.key) {
+            node.left = insert(node.left, key, value);
+        } else {
+            node.right = insert(node.right, key, value);
+        }
+        return balance(node);
+    }
+
+    private static <V> Node<V> delete(Node<V> node, int key) {
+        if (key < node.key) {
+            node.left = delete(node.left, key);
+        } else if (key > node.key) {
+            node.right = delete(node.right, key);
+        } else {
+            if (node.left == null) {
+                return node.right;
+            }
+            if (node.right == null) {
+                return node.left;
+            }
+            Node<V> successor = node.right;
+            while (successor.left != null) {
+                successor = successor.left;
+            }
+            successor.right = deleteMin(node.right);
+            successor.left = node.left;
+            node = successor;
+        }
+        return balance(node);
+    }
+
+    private static <V> Node<V> deleteMin(Node<V> node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        node.left = deleteMin(node.left);
+        return balance(node);
+    }
+
+    private static <V> Node<V> balance(Node<V> node) {
+        update(node);
+        int balance = height(node.left) - height(node.right);
+        if (balance > 1) {
+            if (height(node.left.left) < height(node.left.right)) {
+                node.left = rotateLeft(node.left);
+            }
+            return rotateRight(node);
+        }
+        if (balance < -1) {
+            if (height(node.right.right) < height(node.right.left)) {
+                node.right = rotateRight(node.right);
+            }
+            return rotateLeft(node);
+        }
+        return node;
+    }
+
+    private static <V> Node<V> rotateRight(Node<V> node) {
+        Node<V> left = node.left;
+        node.left = left.right;
+        left.right = node;
+        update(node);
+        update(left);
+        return left;
+    }
+
+    private static <V> Node<V> rotateLeft(Node<V> node) {
+        Node<V> right = node.right;
+        node.right = right.left;
+        right.left = node;
+        update(node);
+        update(right);
+        return right;
+    }
+
+    private static void update(Node<?> node) {
+        node.height = 1 + Math.max(height(node.left), height(node.right));
+        node.size = 1 + size(node.left) + size(node.right);
+    }
+
+    private static int height(Node<?> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static int size(Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static final class Node<V> implements Map.Entry<Integer, V> {
+
+        final int key;
+        V value;
+        Node<V> left;
+        Node<V> right;
+        int height = 1;
+        int size = 1;
+
+        Node(int key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public Integer getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            V oldValue = this.value;
+            this.value = value;
+            return oldValue;
+        }
+    }
+
+    /**
+     * Iterates in key order, keeping the path of nodes whose entries and right subtrees are yet to be visited.
+     */
+    private static final class EntryIterator<V> implements Iterator<Map.Entry<Integer, V>> {
+
+        private final Deque<Node<V>> path;
+
+        EntryIterator(Deque<Node<V>> path) {
+            this.path = path;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !path.isEmpty();
+        }
+
+        @Override
+        public Map.Entry<Integer, V> next() {
+            if (path.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            Node<V> node = path.pop();
+            for (Node<V> next = node.right; next != null; next = next.left) {
+                path.push(next);
+                checkDepth(path.size());
+            }
+            return node;
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package com.koryshev.widgets.domain.repository;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable AVL tree map, augmented with subtree sizes so that entries can be found by their position in key order
+ * in logarithmic time.
+ * <p>
+ * Modifications return a new map sharing all untouched nodes with the original one, so every instance is a snapshot
+ * which can be read concurrently without any synchronization.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ * @author Ivan Koryshev
+ */
+final class PersistentSortedMap<K, V> {
+
+    private final Comparator<? super K> comparator;
+    private final Node<K, V> root;
+
+    private PersistentSortedMap(Comparator<? super K> comparator, Node<K, V> root) {
+        this.comparator = comparator;
+        this.root = root;
+    }
+
+    /**
+     * Returns an empty map ordered by the specified comparator.
+     */
+    static <K, V> PersistentSortedMap<K, V> empty(Comparator<? super K> comparator) {
+        return new PersistentSortedMap<>(comparator, null);
+    }
+
+    int size() {
+        return size(root);
+    }
+
+    boolean isEmpty() {
+        return root == null;
+    }
+
+    V get(K key) {
+        Node<K, V> node = root;
+        while (node != null) {
+            int comparison = comparator.compare(key, node.key);
+            if (comparison == 0) {
+                return node.value;
+            }
+            node = comparison < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    boolean containsKey(K key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Returns a map with the specified key mapped to the specified value.
+     */
+    PersistentSortedMap<K, V> put(K key, V value) {
+        return new PersistentSortedMap<>(comparator, insert(root, key, value));
+    }
+
+    /**
+     * Returns a map without the specified key, or this map if there is no such key.
+     */
+    PersistentSortedMap<K, V> remove(K key) {
+        if (!containsKey(key)) {
+            return this;
+        }
+        return new PersistentSortedMap<>(comparator, delete(root, key));
+    }
+
+    /**
+     * Returns the greatest key, or {@code null} if the map is empty.
+     */
+    K lastKey() {
+        if (root == null) {
+            return null;
+        }
+        Node<K, V> node = root;
+        while (node.right != null) {
+            node = node.right;
+        }
+        return node.key;
+    }
+
+    /**
+     * Returns the greatest key strictly less than the specified one, or {@code null} if there is no such key.
+     */
+    K lowerKey(K key) {
+        K result = null;
+        Node<K, V> node = root;
+        while (node != null) {
+            if (comparator.compare(node.key, key) < 0) {
+                result = node.key;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return result;
+    }
+
+    List<K> keys() {
+        List<K> keys = new ArrayList<>(size());
+        iteratorFromIndex(0).forEachRemaining(entry -> keys.add(entry.getKey()));
+        return keys;
+    }
+
+    /**
+     * Returns values at the specified positions in key order.
+     *
+     * @param fromIndex the position of the first value
+     * @param count     the maximum number of values to return
+     * @return the values list
+     */
+    List<V> values(int fromIndex, int count) {
+        List<V> values = new ArrayList<>(Math.max(0, Math.min(count, size() - fromIndex)));
+        Iterator<Map.Entry<K, V>> iterator = iteratorFromIndex(fromIndex);
+        while (iterator.hasNext() && values.size() < count) {
+            values.add(iterator.next().getValue());
+        }
+        return values;
+    }
+
+    /**
+     * Returns an iterator over entries in key order starting at the specified position.
+     */
+    Iterator<Map.Entry<K, V>> iteratorFromIndex(int index) {
+        Deque<Node<K, V>> path = new ArrayDeque<>();
+        Node<K, V> node = root;
+        while (node != null) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                path.push(node);
+                node = node.left;
+            } else if (index == leftSize) {
+                path.push(node);
+                break;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+        return new EntryIterator<>(path);
+    }
+
+    /**
+     * Returns an iterator over entries in key order starting at the least key greater than or equal to
+     * the specified one.
+     */
+    Iterator<Map.Entry<K, V>> iteratorFromKey(K key) {
+        Deque<Node<K, V>> path = new ArrayDeque<>();
+        Node<K, V> node = root;
+        while (node != null) {
+            if (comparator.compare(key, node.key) <= 0) {
+                path.push(node);
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return new EntryIterator<>(path);
+    }
+
+    private Node<K, V> insert(Node<K, V> node, K key, V value) {
+        if (node == null) {
+            return new Node<>(key, value, null, null);
+        }
+        int comparison = comparator.compare(key, node.key);
+        if (comparison < 0) {
+            return balance(node.key, node.value, insert(node.left, key, value), node.right);
+        }
+        if (comparison > 0) {
+            return balance(node.key, node.value, node.left, insert(node.right, key, value));
+        }
+        return new Node<>(key, value, node.left, node.right);
+    }
+
+    private Node<K, V> delete(Node<K, V> node, K key) {
+        int comparison = comparator.compare(key, node.key);
+        if (comparison < 0) {
+            return balance(node.key, node.value, delete(node.left, key), node.right);
+        }
+        if (comparison > 0) {
+            return balance(node.key, node.value, node.left, delete(node.right, key));
+        }
+        if (node.left == null) {
+            return node.right;
+        }
+        if (node.right == null) {
+            return node.left;
+        }
+        Node<K, V> successor = node.right;
+        while (successor.left != null) {
+            successor = successor.left;
+        }
+        return balance(successor.key, successor.value, node.left, deleteMin(node.right));
+    }
+
+    private static <K, V> Node<K, V> deleteMin(Node<K, V> node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        return balance(node.key, node.value, deleteMin(node.left), node.right);
+    }
+
+    /**
+     * Creates a node from the specified parts, rotating them if subtree heights differ by more than one.
+     */
+    private static <K, V> Node<K, V> balance(K key, V value, Node<K, V> left, Node<K, V> right) {
+        int balance = height(left) - height(right);
+        if (balance > 1) {
+            if (height(left.left) >= height(left.right)) {
+                return new Node<>(left.key, left.value, left.left, new Node<>(key, value, left.right, right));
+            }
+            Node<K, V> middle = left.right;
+            return new Node<>(middle.key, middle.value,
+                    new Node<>(left.key, left.value, left.left, middle.left),
+                    new Node<>(key, value, middle.right, right));
+        }
+        if (balance < -1) {
+            if (height(right.right) >= height(right.left)) {
+                return new Node<>(right.key, right.value, new Node<>(key, value, left, right.left), right.right);
+            }
+            Node<K, V> middle = right.left;
+            return new Node<>(middle.key, middle.value,
+                    new Node<>(key, value, left, middle.left),
+                    new Node<>(right.key, right.value, middle.right, right.right));
+        }
+        return new Node<>(key, value, left, right);
+    }
+
+    private static int height(Node<?, ?> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static int size(Node<?, ?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static final class Node<K, V> implements Map.Entry<K, V> {
+
+        final K key;
+        final V value;
+        final Node<K, V> left;
+        final Node<K, V> right;
+        final int height;
+        final int size;
+
+        Node(K key, V value, Node<K, V> left, Node<K, V> right) {
+            this.key = key;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.height = 1 + Math.max(height(left), height(right));
+            this.size = 1 + size(left) + size(right);
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Iterates in key order, keeping the path of nodes whose entries and right subtrees are yet to be visited.
+     */
+    private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+
+        private final Deque<Node<K, V>> path;
+
+        EntryIterator(Deque<Node<K, V>> path) {
+            this.path = path;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !path.isEmpty();
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (path.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            Node<K, V> node = path.pop();
+            for (Node<K, V> next = node.right; next != null; next = next.left) {
+                path.push(next);
+            }
+            return node;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.koryshev.widgets.domain.repository;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * A hash table mapping widget IDs to slots, kept in primitive arrays.
+ * <p>
+ * The two halves of the ID of every slot are kept in arrays indexed by slot, and the table itself is an array of
+ * slots with open addressing and linear probing. Removed slots are filled by moving back the following slots of
+ * the same probe sequence, so that no tombstones accumulate. The table is kept at most half full.
+ * <p>
+ * The table is not thread-safe. Lookups racing with modifications may return a wrong slot or throw
+ * {@link IndexOutOfBoundsException}, but they always terminate, so they can be validated and retried by the caller.
+ *
+ * @author Ivan Koryshev
+ */
+class SlotIdTable {
+
+    private static final int EMPTY = -1;
+    private static final int MIN_TABLE_SIZE = 16;
+
+    private long[] mostSigBits;
+    private long[] leastSigBits;
+    private int[] table;
+    private int count;
+
+    SlotIdTable(int capacity) {
+        mostSigBits = new long[capacity];
+        leastSigBits = new long[capacity];
+        table = newTable(capacity);
+    }
+
+    void ensureCapacity(int capacity) {
+        if (capacity > mostSigBits.length) {
+            mostSigBits = Arrays.copyOf(mostSigBits, capacity);
+            leastSigBits = Arrays.copyOf(leastSigBits, capacity);
+        }
+    }
+
+    void clear() {
+        Arrays.fill(table, EMPTY);
+        count = 0;
+    }
+
+    UUID id(int slot) {
+        return new UUID(mostSigBits[slot], leastSigBits[slot]);
+    }
+
+    /**
+     * Returns the slot having the specified ID, or {@link SlotOrderTree#NONE} if there is no such slot.
+     */
+    int find(UUID id) {
+        long most = id.getMostSignificantBits();
+        long least = id.getLeastSignificantBits();
+        int[] table = this.table;
+        int mask = table.length - 1;
+        int index = hash(most, least) & mask;
+        for (int probes = 0; probes < table.length; probes++) {
+            int slot = table[index];
+            if (slot == EMPTY) {
+                break;
+            }
+            if (mostSigBits[slot] == most && leastSigBits[slot] == least) {
+                return slot;
+            }
+            index = (index + 1) & mask;
+        }
+        return SlotOrderTree.NONE;
+    }
+
+    /**
+     * Adds a slot with the specified ID, which must not be taken by another slot.
+     */
+    void add(int slot, UUID id) {
+        mostSigBits[slot] = id.getMostSignificantBits();
+        leastSigBits[slot] = id.getLeastSignificantBits();
+        if (2 * (count + 1) > table.length) {
+            rehash(2 * table.length);
+        }
+        table[indexOf(EMPTY, mostSigBits[slot], leastSigBits[slot])] = slot;
+        count++;
+    }
+
+    void remove(int slot) {
+        int[] table = this.table;
+        int mask = table.length - 1;
+        int index = indexOf(slot, mostSigBits[slot], leastSigBits[slot]);
+        table[index] = EMPTY;
+        count--;
+
+        // Moves back following slots which can't be found anymore past the emptied index
+        for (int next = (index + 1) & mask; table[next] != EMPTY; next = (next + 1) & mask) {
+            int home = hash(mostSigBits[table[next]], leastSigBits[table[next]]) & mask;
+            if (((next - home) & mask) >= ((next - index) & mask)) {
+                table[index] = table[next];
+                table[next] = EMPTY;
+                index = next;
+            }
+        }
+    }
+
+    /**
+     * Moves a slot of the table to another, free slot.
+     */
+    void move(int from, int to) {
+        table[indexOf(from, mostSigBits[from], leastSigBits[from])] = to;
+        mostSigBits[to] = mostSigBits[from];
+        leastSigBits[to] = leastSigBits[from];
+    }
+
+    /**
+     * Returns the index of the table holding the specified slot, or the index a slot with the specified ID is to be
+     * added at if {@link #EMPTY} is specified.
+     */
+    private int indexOf(int slot, long most, long least) {
+        int mask = table.length - 1;
+        int index = hash(most, least) & mask;
+        while (table[index] != slot) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void rehash(int size) {
+        int[] previous = table;
+        table = newTable(size);
+        for (int slot : previous) {
+            if (slot != EMPTY) {
+                table[indexOf(EMPTY, mostSigBits[slot], leastSigBits[slot])] = slot;
+            }
+        }
+    }
+
+    private static int[] newTable(int capacity) {
+        int size = Math.max(MIN_TABLE_SIZE, Integer.highestOneBit(Math.max(1, 2 * capacity - 1)) << 1);
+        int[] table = new int[size];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+
+    /**
+     * Mixes all bits of an ID, since time-ordered IDs differ little in their leading bits.
+     */
+    private static int hash(long most, long least) {
+        long hash = (most ^ least) * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ hash >>> 32);
+    }
+}
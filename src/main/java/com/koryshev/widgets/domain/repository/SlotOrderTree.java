@@ -0,0 +1,378 @@
+package com.koryshev.widgets.domain.repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+
+/**
+ * An AVL tree ordering slots by their z-indexes, augmented with subtree sizes so that slots can be found by their
+ * position in z-order in logarithmic time.
+ * <p>
+ * Unlike {@link OrderStatisticTree} it allocates no node objects: slots are the nodes, and the key, the children,
+ * the subtree size and the height of every slot are kept in primitive arrays indexed by slot.
+ * <p>
+ * The tree is not thread-safe. Reads racing with modifications may return inconsistent results or throw
+ * {@link ConcurrentModificationException} or {@link IndexOutOfBoundsException}, but they always terminate, so they can
+ * be validated and retried by the caller.
+ *
+ * @author Ivan Koryshev
+ */
+class SlotOrderTree {
+
+    static final int NONE = -1;
+
+    /**
+     * The limit of traversal depth. AVL trees holding up to {@link Integer#MAX_VALUE} slots are lower, so it can
+     * only be exceeded by a read racing with a modification.
+     */
+    private static final int MAX_HEIGHT = 64;
+
+    private int[] keys;
+    private int[] left;
+    private int[] right;
+    private int[] sizes;
+    private byte[] heights;
+    private int root = NONE;
+
+    SlotOrderTree(int capacity) {
+        keys = new int[capacity];
+        left = new int[capacity];
+        right = new int[capacity];
+        sizes = new int[capacity];
+        heights = new byte[capacity];
+    }
+
+    void ensureCapacity(int capacity) {
+        if (capacity > keys.length) {
+            keys = Arrays.copyOf(keys, capacity);
+            left = Arrays.copyOf(left, capacity);
+            right = Arrays.copyOf(right, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            heights = Arrays.copyOf(heights, capacity);
+        }
+    }
+
+    int size() {
+        return size(root);
+    }
+
+    void clear() {
+        root = NONE;
+    }
+
+    int key(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     * Returns the slot having the specified key, or {@link #NONE} if there is no such slot.
+     */
+    int find(int key) {
+        int[] keys = this.keys;
+        int node = root;
+        for (int depth = 0; node != NONE && keys[node] != key; depth++) {
+            checkDepth(depth);
+            node = key < keys[node] ? left[node] : right[node];
+        }
+        return node;
+    }
+
+    /**
+     * Adds a slot with the specified key, which must not be taken by another slot.
+     */
+    void insert(int slot, int key) {
+        keys[slot] = key;
+        root = attach(root, slot);
+    }
+
+    void remove(int slot) {
+        root = delete(root, keys[slot]);
+    }
+
+    /**
+     * Changes the key of a slot without moving it in the tree. The new key must keep the order of all slots.
+     */
+    void setKeyInPlace(int slot, int key) {
+        keys[slot] = key;
+    }
+
+    /**
+     * Moves a slot of the tree to another, free slot.
+     */
+    void move(int from, int to) {
+        int key = keys[from];
+        int parent = NONE;
+        int node = root;
+        while (node != from) {
+            parent = node;
+            node = key < keys[node] ? left[node] : right[node];
+        }
+
+        keys[to] = key;
+        left[to] = left[from];
+        right[to] = right[from];
+        sizes[to] = sizes[from];
+        heights[to] = heights[from];
+        if (parent == NONE) {
+            root = to;
+        } else if (left[parent] == from) {
+            left[parent] = to;
+        } else {
+            right[parent] = to;
+        }
+    }
+
+    /**
+     * Replaces all slots with the specified ones, building a balanced tree at once in linear time.
+     *
+     * @param slots the slots ordered by their keys, with the keys already set
+     * @param count the number of slots
+     * @throws IllegalArgumentException if the keys are not strictly ascending
+     */
+    void load(int[] slots, int count) {
+        for (int i = 1; i < count; i++) {
+            if (keys[slots[i - 1]] >= keys[slots[i]]) {
+                throw new IllegalArgumentException("Keys are not strictly ascending at position " + i);
+            }
+        }
+        root = build(slots, 0, count);
+    }
+
+    /**
+     * Returns the slot having the greatest key, or {@link #NONE} if the tree is empty.
+     */
+    int last() {
+        int node = root;
+        if (node == NONE) {
+            return NONE;
+        }
+        for (int depth = 0; right[node] != NONE; depth++) {
+            checkDepth(depth);
+            node = right[node];
+        }
+        return node;
+    }
+
+    /**
+     * Returns the slot having the greatest key strictly less than the specified one, or {@link #NONE} if there is no
+     * such slot.
+     */
+    int lower(int key) {
+        int result = NONE;
+        int node = root;
+        for (int depth = 0; node != NONE; depth++) {
+            checkDepth(depth);
+            if (keys[node] < key) {
+                result = node;
+                node = right[node];
+            } else {
+                node = left[node];
+            }
+        }
+        return result;
+    }
+
+    List<Integer> keys() {
+        List<Integer> result = new ArrayList<>(size());
+        Cursor cursor = cursorFromIndex(0);
+        for (int slot = cursor.next(); slot != NONE; slot = cursor.next()) {
+            result.add(keys[slot]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a cursor over slots in key order starting at the specified position.
+     */
+    Cursor cursorFromIndex(int index) {
+        Cursor cursor = new Cursor();
+        int node = root;
+        for (int depth = 0; node != NONE; depth++) {
+            checkDepth(depth);
+            int leftSize = size(left[node]);
+            if (index < leftSize) {
+                cursor.push(node);
+                node = left[node];
+            } else if (index == leftSize) {
+                cursor.push(node);
+                break;
+            } else {
+                index -= leftSize + 1;
+                node = right[node];
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Returns a cursor over slots in key order starting at the least key greater than or equal to the specified one.
+     */
+    Cursor cursorFromKey(int key) {
+        Cursor cursor = new Cursor();
+        int node = root;
+        for (int depth = 0; node != NONE; depth++) {
+            checkDepth(depth);
+            if (key <= keys[node]) {
+                cursor.push(node);
+                node = left[node];
+            } else {
+                node = right[node];
+            }
+        }
+        return cursor;
+    }
+
+    private static void checkDepth(int depth) {
+        if (depth > MAX_HEIGHT) {
+            throw new ConcurrentModificationException();
+        }
+    }
+
+    /**
+     * Builds a subtree of slots in the specified range, rooted at the middle one, so that heights of subtrees of
+     * every slot differ by one at most.
+     */
+    private int build(int[] slots, int from, int to) {
+        if (from >= to) {
+            return NONE;
+        }
+        int middle = (from + to) >>> 1;
+        int node = slots[middle];
+        left[node] = build(slots, from, middle);
+        right[node] = build(slots, middle + 1, to);
+        update(node);
+        return node;
+    }
+
+    private int attach(int node, int slot) {
+        if (node == NONE) {
+            left[slot] = NONE;
+            right[slot] = NONE;
+            update(slot);
+            return slot;
+        }
+        if (keys[slot] < keys[node]) {
+            left[node] = attach(left[node], slot);
+        } else {
+            right[node] = attach(right[node], slot);
+        }
+        return balance(node);
+    }
+
+    private int delete(int node, int key) {
+        if (key < keys[node]) {
+            left[node] = delete(left[node], key);
+        } else if (key > keys[node]) {
+            right[node] = delete(right[node], key);
+        } else {
+            if (left[node] == NONE) {
+                return right[node];
+            }
+            if (right[node] == NONE) {
+                return left[node];
+            }
+            int successor = right[node];
+            while (left[successor] != NONE) {
+                successor = left[successor];
+            }
+            right[successor] = deleteMin(right[node]);
+            left[successor] = left[node];
+            node = successor;
+        }
+        return balance(node);
+    }
+
+    private int deleteMin(int node) {
+        if (left[node] == NONE) {
+            return right[node];
+        }
+        left[node] = deleteMin(left[node]);
+        return balance(node);
+    }
+
+    private int balance(int node) {
+        update(node);
+        int balance = height(left[node]) - height(right[node]);
+        if (balance > 1) {
+            if (height(left[left[node]]) < height(right[left[node]])) {
+                left[node] = rotateLeft(left[node]);
+            }
+            return rotateRight(node);
+        }
+        if (balance < -1) {
+            if (height(right[right[node]]) < height(left[right[node]])) {
+                right[node] = rotateRight(right[node]);
+            }
+            return rotateLeft(node);
+        }
+        return node;
+    }
+
+    private int rotateRight(int node) {
+        int pivot = left[node];
+        left[node] = right[pivot];
+        right[pivot] = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private int rotateLeft(int node) {
+        int pivot = right[node];
+        right[node] = left[pivot];
+        left[pivot] = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private void update(int node) {
+        heights[node] = (byte) (1 + Math.max(height(left[node]), height(right[node])));
+        sizes[node] = 1 + size(left[node]) + size(right[node]);
+    }
+
+    private int height(int node) {
+        return node == NONE ? 0 : heights[node];
+    }
+
+    private int size(int node) {
+        return node == NONE ? 0 : sizes[node];
+    }
+
+    /**
+     * Iterates over slots in key order, keeping the path of slots which are yet to be visited together with their
+     * right subtrees.
+     */
+    final class Cursor {
+
+        private final int[] path = new int[MAX_HEIGHT + 1];
+        private int depth;
+        private int remaining = size() + 1;
+
+        /**
+         * Returns the next slot, or {@link #NONE} if there are no more slots.
+         */
+        int next() {
+            if (depth == 0) {
+                return NONE;
+            }
+            // The tree can't return more slots than it holds, so a cycle made by a racing modification is detected
+            if (--remaining == 0) {
+                throw new ConcurrentModificationException();
+            }
+            int node = path[--depth];
+            for (int next = right[node]; next != NONE; next = left[next]) {
+                push(next);
+            }
+            return node;
+        }
+
+        private void push(int node) {
+            if (depth == path.length) {
+                throw new ConcurrentModificationException();
+            }
+            path[depth++] = node;
+        }
+    }
+}
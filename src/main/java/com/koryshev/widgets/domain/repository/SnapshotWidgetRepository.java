@@ -0,0 +1,408 @@
+package com.koryshev.widgets.domain.repository;
+
+import com.koryshev.widgets.domain.model.Widget;
+import com.koryshev.widgets.util.WidgetUtil;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * An in-memory repository for accessing {@link Widget}, keeping all widgets in an immutable {@link Snapshot}.
+ * <p>
+ * Besides z-order, the snapshot keeps widgets ordered by their left edges, so that widgets inside a rectangle are found
+ * among the ones whose left edges are within it instead of scanning all widgets.
+ * <p>
+ * Reads never lock: they use the snapshot current at the moment they start. Every modification creates a new
+ * snapshot sharing unchanged parts with the previous one, and publishes it atomically. Modifications made inside
+ * {@link #write(Supplier)} are published all at once.
+ * <p>
+ * Stored widgets are never exposed: they are copied when saved and when returned.
+ *
+ * @author Ivan Koryshev
+ */
+@Profile("in-memory-snapshot")
+@Repository
+public class SnapshotWidgetRepository implements WidgetRepository {
+
+    private static final int Z_ORDER_SCAN_FACTOR = 8;
+    private static final Comparator<Widget> Z_ORDER = Comparator.comparing(Widget::getZ);
+
+    private final AtomicReference<Snapshot> current = new AtomicReference<>(Snapshot.EMPTY);
+    private final ThreadLocal<Snapshot> working = new ThreadLocal<>();
+
+    /**
+     * Performs an operation against a private version of the repository and publishes all of its modifications at
+     * once. If another modification has been published meanwhile, the operation is repeated against the new version.
+     * Nested calls join the outer operation.
+     *
+     * @param operation the operation to perform
+     * @param <T>       the type of the result
+     * @return the result of the operation
+     */
+    public <T> T write(Supplier<T> operation) {
+        if (working.get() != null) {
+            return operation.get();
+        }
+
+        try {
+            while (true) {
+                Snapshot base = current.get();
+                working.set(base);
+                T result = operation.get();
+                if (current.compareAndSet(base, working.get())) {
+                    return result;
+                }
+            }
+        } finally {
+            working.remove();
+        }
+    }
+
+    @Override
+    public Widget save(Widget widget) {
+        if (widget.getId() == null) {
+            UUID id = UUID.randomUUID();
+            Instant createdDate = Instant.now();
+            widget.setId(id);
+            widget.setCreatedDate(createdDate);
+        }
+
+        widget.setLastModifiedDate(Instant.now());
+        widget.calculateEdges();
+
+        Widget stored = widget.toBuilder().build();
+        modify(snapshot -> snapshot.put(stored));
+        return widget;
+    }
+
+    @Override
+    public void deleteById(UUID id) {
+        modify(snapshot -> snapshot.remove(id));
+    }
+
+    @Override
+    public void deleteAll() {
+        modify(snapshot -> Snapshot.EMPTY);
+    }
+
+    @Override
+    public Optional<Widget> findById(UUID widgetId) {
+        return Optional.ofNullable(snapshot().byId.get(widgetId)).map(SnapshotWidgetRepository::copy);
+    }
+
+    @Override
+    public Optional<Widget> findByZ(Integer z) {
+        return Optional.ofNullable(snapshot().byZ.get(z)).map(SnapshotWidgetRepository::copy);
+    }
+
+    @Override
+    public Optional<Integer> findMaxZ() {
+        return Optional.ofNullable(snapshot().byZ.lastKey());
+    }
+
+    @Override
+    public Optional<Integer> findMaxZLessThan(Integer z) {
+        return Optional.ofNullable(snapshot().byZ.lowerKey(z));
+    }
+
+    @Override
+    public List<Integer> findAllZ() {
+        return snapshot().byZ.keys();
+    }
+
+    @Override
+    public Page<Widget> findAll(Pageable pageable) {
+        Snapshot snapshot = snapshot();
+        int total = snapshot.byZ.size();
+        if (pageable.getOffset() > total) {
+            return Page.empty(pageable);
+        }
+
+        List<Widget> content = snapshot.byZ.values((int) pageable.getOffset(), pageable.getPageSize()).stream()
+                .map(SnapshotWidgetRepository::copy)
+                .collect(toList());
+        return new PageImpl<>(content, pageable, total);
+    }
+
+    /**
+     * Passes all widgets of the current snapshot to an action ordered by z-index. Widgets are copied one at a time,
+     * and modifications published meanwhile are not seen.
+     *
+     * @param action the action to perform on every widget
+     */
+    public void forEachOrderByZAsc(Consumer<Widget> action) {
+        Iterator<Map.Entry<Integer, Widget>> iterator = snapshot().byZ.iteratorFromIndex(0);
+        while (iterator.hasNext()) {
+            action.accept(copy(iterator.next().getValue()));
+        }
+    }
+
+    @Override
+    public void shiftZ(Integer z) {
+        updateZ(z, z + 1);
+    }
+
+    @Override
+    public List<Widget> findAllByZGreaterThanOrderByZAsc(Integer z, Pageable pageable) {
+        List<Widget> widgets = new ArrayList<>(pageable.getPageSize());
+        if (z == Integer.MAX_VALUE) {
+            return widgets;
+        }
+        Iterator<Map.Entry<Integer, Widget>> iterator = snapshot().byZ.iteratorFromKey(z + 1);
+        while (iterator.hasNext() && widgets.size() < pageable.getPageSize()) {
+            widgets.add(copy(iterator.next().getValue()));
+        }
+        return widgets;
+    }
+
+    @Override
+    public int shiftZRun(Integer z) {
+        int[] shifted = new int[1];
+        modify(snapshot -> {
+            Instant lastModifiedDate = Instant.now();
+            List<Widget> run = new ArrayList<>();
+            Iterator<Map.Entry<Integer, Widget>> iterator = snapshot.byZ.iteratorFromKey(z);
+            while (iterator.hasNext()) {
+                Map.Entry<Integer, Widget> entry = iterator.next();
+                if (entry.getKey() != z + run.size()) {
+                    break;
+                }
+                run.add(entry.getValue());
+            }
+
+            // Moving from the top keeps z-indexes unique in every intermediate version
+            for (int i = run.size() - 1; i >= 0; i--) {
+                Widget widget = run.get(i);
+                snapshot = snapshot.put(widget.toBuilder()
+                        .z(widget.getZ() + 1)
+                        .lastModifiedDate(lastModifiedDate)
+                        .build());
+            }
+            shifted[0] = run.size();
+            return snapshot;
+        });
+        return shifted[0];
+    }
+
+    @Override
+    public int shiftZRange(Integer from, Integer to, Integer offset) {
+        int[] shifted = new int[1];
+        modify(snapshot -> {
+            Instant lastModifiedDate = Instant.now();
+            List<Widget> range = new ArrayList<>();
+            Iterator<Map.Entry<Integer, Widget>> iterator = snapshot.byZ.iteratorFromKey(from);
+            while (iterator.hasNext()) {
+                Map.Entry<Integer, Widget> entry = iterator.next();
+                if (entry.getKey() > to) {
+                    break;
+                }
+                range.add(entry.getValue());
+            }
+
+            for (int i = range.size() - 1; i >= 0; i--) {
+                Widget widget = range.get(i);
+                snapshot = snapshot.put(widget.toBuilder()
+                        .z(widget.getZ() + offset)
+                        .lastModifiedDate(lastModifiedDate)
+                        .build());
+            }
+            shifted[0] = range.size();
+            return snapshot;
+        });
+        return shifted[0];
+    }
+
+    @Override
+    public void updateZ(Integer oldValue, Integer newValue) {
+        modify(snapshot -> {
+            Widget widget = snapshot.byZ.get(oldValue);
+            return snapshot.put(widget.toBuilder()
+                    .z(newValue)
+                    .lastModifiedDate(Instant.now())
+                    .build());
+        });
+    }
+
+    @Override
+    public List<Widget> findAllInRectangleOrderByZAsc(Integer x, Integer y, Integer width, Integer height) {
+        return searchByLeftEdge(snapshot(), x, y, width, height, Long.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<Widget> findAllInRectangleByZGreaterThanOrderByZAsc(
+            Integer x, Integer y, Integer width, Integer height, Integer z, Pageable pageable) {
+        int limit = pageable.getPageSize();
+        List<Widget> widgets = new ArrayList<>(limit);
+        if (z == Integer.MAX_VALUE || limit <= 0) {
+            return widgets;
+        }
+
+        // Walking up the z-order finds a page after scanning it if the rectangle covers a fair share of widgets,
+        // otherwise the widgets whose left edges are within the rectangle are searched for the rest
+        Snapshot snapshot = snapshot();
+        int remainingScans = limit * Z_ORDER_SCAN_FACTOR;
+        int lastZ = z;
+        Iterator<Map.Entry<Integer, Widget>> iterator = snapshot.byZ.iteratorFromKey(z + 1);
+        while (iterator.hasNext() && widgets.size() < limit) {
+            if (remainingScans-- == 0) {
+                widgets.addAll(searchByLeftEdge(snapshot, x, y, width, height, lastZ, limit - widgets.size()));
+                break;
+            }
+            Widget widget = iterator.next().getValue();
+            lastZ = widget.getZ();
+            if (WidgetUtil.rectangleContains(x, y, width, height, widget)) {
+                widgets.add(copy(widget));
+            }
+        }
+        return widgets;
+    }
+
+    /**
+     * Collects widgets inside the specified rectangle with z-indexes greater than the specified one among the widgets
+     * whose left edges are within the rectangle, and returns the first of them in z-order.
+     */
+    private static List<Widget> searchByLeftEdge(Snapshot snapshot, int x, int y, int width, int height,
+                                                 long afterZ, int limit) {
+        long left = (long) x - width / 2;
+        long right = left + width;
+        List<Widget> widgets = new ArrayList<>();
+        Iterator<Map.Entry<EdgeKey, Widget>> iterator = snapshot.byLeftEdge.iteratorFromKey(new EdgeKey(left, null));
+        while (iterator.hasNext()) {
+            Map.Entry<EdgeKey, Widget> entry = iterator.next();
+            if (entry.getKey().leftEdge > right) {
+                break;
+            }
+            Widget widget = entry.getValue();
+            if (widget.getZ() > afterZ && WidgetUtil.rectangleContains(x, y, width, height, widget)) {
+                widgets.add(widget);
+            }
+        }
+
+        widgets.sort(Z_ORDER);
+        return widgets.stream()
+                .limit(limit)
+                .map(SnapshotWidgetRepository::copy)
+                .collect(toList());
+    }
+
+    private Snapshot snapshot() {
+        Snapshot snapshot = working.get();
+        return snapshot != null ? snapshot : current.get();
+    }
+
+    private void modify(UnaryOperator<Snapshot> modification) {
+        Snapshot snapshot = working.get();
+        if (snapshot != null) {
+            working.set(modification.apply(snapshot));
+            return;
+        }
+
+        Snapshot base;
+        do {
+            base = current.get();
+        } while (!current.compareAndSet(base, modification.apply(base)));
+    }
+
+    private static Widget copy(Widget widget) {
+        return widget.toBuilder().build();
+    }
+
+    /**
+     * An immutable version of all widgets, indexed by ID, by z-index and by left edge.
+     */
+    private static final class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot(
+                PersistentSortedMap.empty(Comparator.naturalOrder()),
+                PersistentSortedMap.empty(Comparator.naturalOrder()),
+                PersistentSortedMap.empty(EdgeKey.ORDER));
+
+        final PersistentSortedMap<UUID, Widget> byId;
+        final PersistentSortedMap<Integer, Widget> byZ;
+        final PersistentSortedMap<EdgeKey, Widget> byLeftEdge;
+
+        Snapshot(PersistentSortedMap<UUID, Widget> byId, PersistentSortedMap<Integer, Widget> byZ,
+                 PersistentSortedMap<EdgeKey, Widget> byLeftEdge) {
+            this.byId = byId;
+            this.byZ = byZ;
+            this.byLeftEdge = byLeftEdge;
+        }
+
+        /**
+         * Returns a snapshot with the specified widget added or replacing the one with the same ID.
+         *
+         * @throws IllegalArgumentException if the z-index of the widget is taken by another widget
+         */
+        Snapshot put(Widget widget) {
+            Widget taken = byZ.get(widget.getZ());
+            if (taken != null && !taken.getId().equals(widget.getId())) {
+                throw new IllegalArgumentException("Z-index " + widget.getZ() + " is taken by widget " + taken.getId());
+            }
+
+            PersistentSortedMap<Integer, Widget> byZ = this.byZ;
+            PersistentSortedMap<EdgeKey, Widget> byLeftEdge = this.byLeftEdge;
+            Widget previous = byId.get(widget.getId());
+            if (previous != null && !previous.getZ().equals(widget.getZ())) {
+                Widget atPrevious = byZ.get(previous.getZ());
+                if (atPrevious != null && previous.getId().equals(atPrevious.getId())) {
+                    byZ = byZ.remove(previous.getZ());
+                }
+            }
+            if (previous != null && !previous.getLeftEdge().equals(widget.getLeftEdge())) {
+                byLeftEdge = byLeftEdge.remove(EdgeKey.of(previous));
+            }
+            return new Snapshot(byId.put(widget.getId(), widget), byZ.put(widget.getZ(), widget),
+                    byLeftEdge.put(EdgeKey.of(widget), widget));
+        }
+
+        /**
+         * Returns a snapshot without the widget with the specified ID.
+         */
+        Snapshot remove(UUID widgetId) {
+            Widget widget = byId.get(widgetId);
+            if (widget == null) {
+                return this;
+            }
+            return new Snapshot(byId.remove(widgetId), byZ.remove(widget.getZ()),
+                    byLeftEdge.remove(EdgeKey.of(widget)));
+        }
+    }
+
+    /**
+     * The left edge of a widget, made unique by the widget ID. A key without an ID precedes all keys with the same edge.
+     */
+    private static final class EdgeKey {
+
+        static final Comparator<EdgeKey> ORDER = Comparator.<EdgeKey>comparingLong(key -> key.leftEdge)
+                .thenComparing(key -> key.id, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+        final long leftEdge;
+        final UUID id;
+
+        EdgeKey(long leftEdge, UUID id) {
+            this.leftEdge = leftEdge;
+            this.id = id;
+        }
+
+        static EdgeKey of(Widget widget) {
+            return new EdgeKey(widget.getLeftEdge(), widget.getId());
+        }
+    }
+}
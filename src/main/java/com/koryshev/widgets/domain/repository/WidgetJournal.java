@@ -0,0 +1,266 @@
+package com.koryshev.widgets.domain.repository;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * An append-only journal kept in numbered segment files of a fixed size. The current segment is mapped into memory,
+ * so appending a record is a memory copy.
+ * <p>
+ * A record consists of the payload length, the CRC32C checksum of the payload and the payload itself. A zero length
+ * marks the end of a segment. A record failing the checksum marks the end of the journal, since only the last record
+ * can be written partially when the process stops.
+ * <p>
+ * Appending doesn't make records durable. {@link #sync()} forces all records appended so far to disk, and callers
+ * waiting for it concurrently share a single force, so the cost of forcing is spread over all of them.
+ * <p>
+ * Records must be appended by a single thread at a time, while syncing is thread-safe.
+ *
+ * @author Ivan Koryshev
+ */
+@Slf4j
+class WidgetJournal implements Closeable {
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final ReentrantLock syncLock = new ReentrantLock();
+
+    private long segmentNumber;
+    private volatile MappedByteBuffer segment;
+    private volatile long appended;
+    private volatile long durable;
+
+    WidgetJournal(Path directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Replays the records of all segments starting with the specified one and opens the journal for appending after
+     * the last valid record. Older segments are deleted, and a partially written record at the end is discarded.
+     *
+     * @param firstSegment the number of the first segment to replay
+     * @param handler      the handler of record payloads
+     * @return the number of replayed records
+     * @throws IOException           if reading the journal fails
+     * @throws IllegalStateException if a segment is missing or a record before the last segment is corrupt
+     */
+    long recover(long firstSegment, Consumer<ByteBuffer> handler) throws IOException {
+        long replayed = 0;
+        MappedByteBuffer last = null;
+        long expectedNumber = firstSegment;
+        for (long number : listSegments()) {
+            if (number < firstSegment) {
+                Files.delete(segmentPath(number));
+                continue;
+            }
+            if (number != expectedNumber) {
+                throw new IllegalStateException("Journal segment " + expectedNumber + " is missing");
+            }
+            if (last != null && last.remaining() >= HEADER_SIZE && last.getInt(last.position()) != 0) {
+                throw new IllegalStateException(
+                        "Journal segment " + (number - 1) + " is corrupt at offset " + last.position());
+            }
+
+            last = map(number, false);
+            replayed += replay(last, handler);
+            expectedNumber++;
+        }
+
+        if (last == null) {
+            segmentNumber = firstSegment;
+            segment = map(firstSegment, true);
+            syncDirectory(directory);
+        } else {
+            segmentNumber = expectedNumber - 1;
+            segment = last;
+            discardTail(last);
+        }
+        return replayed;
+    }
+
+    /**
+     * Appends a record, starting a new segment if the current one can't fit it.
+     *
+     * @param payload the payload of the record, read from its position to its limit
+     */
+    void append(ByteBuffer payload) {
+        int length = payload.remaining();
+        if (segment.remaining() < HEADER_SIZE + length) {
+            rotate();
+        }
+
+        MappedByteBuffer buffer = segment;
+        buffer.putInt(length);
+        buffer.putInt(checksum(payload));
+        buffer.put(payload);
+        appended += HEADER_SIZE + length;
+    }
+
+    /**
+     * Starts a new segment, forcing the current one to disk. Records appended afterwards go to the new segment.
+     *
+     * @return the number of the new segment
+     */
+    long rotate() {
+        try {
+            MappedByteBuffer next = map(segmentNumber + 1, true);
+            syncDirectory(directory);
+            segment.force();
+            segmentNumber++;
+            segment = next;
+            log.info("Started journal segment {}", segmentNumber);
+            return segmentNumber;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Waits until all records appended so far are forced to disk. Only one caller forces the journal at a time,
+     * and it covers records appended by the callers waiting meanwhile.
+     */
+    void sync() {
+        long target = appended;
+        if (durable >= target) {
+            return;
+        }
+
+        // A lock rather than a monitor, so that a virtual thread forcing the journal doesn't pin its carrier thread
+        syncLock.lock();
+        try {
+            if (durable >= target) {
+                return;
+            }
+
+            // Segments are forced before they're replaced, so it's enough to force the current one
+            long position = appended;
+            segment.force();
+            durable = position;
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the segments preceding the specified one.
+     *
+     * @param number the number of the first segment to keep
+     * @throws IOException if deleting a segment fails
+     */
+    void deleteSegmentsBefore(long number) throws IOException {
+        for (long segment : listSegments()) {
+            if (segment < number) {
+                Files.delete(segmentPath(segment));
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (segment != null) {
+            sync();
+        }
+    }
+
+    /**
+     * Forces the entries of a directory to disk, so that files created or renamed in it survive a crash.
+     *
+     * @param directory the directory
+     * @throws IOException if forcing fails
+     */
+    static void syncDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    private static long replay(MappedByteBuffer buffer, Consumer<ByteBuffer> handler) {
+        long replayed = 0;
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int start = buffer.position();
+            int length = buffer.getInt(start);
+            if (length <= 0 || length > buffer.remaining() - HEADER_SIZE) {
+                break;
+            }
+
+            ByteBuffer payload = buffer.duplicate();
+            payload.position(start + HEADER_SIZE).limit(start + HEADER_SIZE + length);
+            if (buffer.getInt(start + Integer.BYTES) != checksum(payload)) {
+                break;
+            }
+            handler.accept(payload.slice());
+            buffer.position(start + HEADER_SIZE + length);
+            replayed++;
+        }
+        return replayed;
+    }
+
+    /**
+     * Zeroes the rest of the last segment, so that remains of a partially written record can't be mistaken for
+     * records appended later.
+     */
+    private static void discardTail(MappedByteBuffer buffer) {
+        int position = buffer.position();
+        if (buffer.remaining() >= HEADER_SIZE && buffer.getInt(position) != 0) {
+            log.warn("Discarding a partially written journal record at offset {}", position);
+        }
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 0);
+        }
+        buffer.position(position);
+        buffer.force();
+    }
+
+    private static int checksum(ByteBuffer payload) {
+        CRC32C checksum = new CRC32C();
+        checksum.update(payload.duplicate());
+        return (int) checksum.getValue();
+    }
+
+    private MappedByteBuffer map(long number, boolean create) throws IOException {
+        StandardOpenOption[] options = create
+                ? new StandardOpenOption[]{StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE_NEW}
+                : new StandardOpenOption[]{StandardOpenOption.READ, StandardOpenOption.WRITE};
+        try (FileChannel channel = FileChannel.open(segmentPath(number), options)) {
+            long size = create ? segmentSize : channel.size();
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private List<Long> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(
+                            name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .collect(toList());
+        }
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+}
@@ -2,6 +2,7 @@ package com.koryshev.widgets.domain.repository;
 
 import com.koryshev.widgets.domain.model.Widget;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
 
 import java.util.List;
@@ -27,11 +28,82 @@ public interface WidgetRepository {
 
     Optional<Integer> findMaxZ();
 
+    Optional<Integer> findMaxZLessThan(Integer z);
+
+    List<Integer> findAllZ();
+
     Page<Widget> findAll(Pageable pageable);
 
+    List<Widget> findAllByZGreaterThanOrderByZAsc(Integer z, Pageable pageable);
+
     void shiftZ(Integer z);
 
+    /**
+     * Shifts upwards the contiguous run of taken z-indexes starting at the specified z-index.
+     *
+     * @param z the z-index the run starts at
+     * @return the number of shifted widgets
+     */
+    int shiftZRun(Integer z);
+
+    /**
+     * Shifts upwards z-indexes of all widgets within the specified range. The z-indexes the widgets are shifted to
+     * must not be taken by widgets outside of the range.
+     *
+     * @param from   the lowest z-index of the range
+     * @param to     the highest z-index of the range
+     * @param offset the positive number to add to z-indexes
+     * @return the number of shifted widgets
+     */
+    int shiftZRange(Integer from, Integer to, Integer offset);
+
     void updateZ(Integer oldValue, Integer newValue);
 
-    List<Widget> findAllByWidthLessThanEqualAndHeightLessThanEqualOrderByZAsc(Integer width, Integer height);
+    /**
+     * Returns widgets that fit entirely into a rectangle ordered by z-index.
+     *
+     * @param x      the x coordinate of the rectangle center
+     * @param y      the y coordinate of the rectangle center
+     * @param width  the rectangle width
+     * @param height the rectangle height
+     * @return the widgets list
+     */
+    List<Widget> findAllInRectangleOrderByZAsc(Integer x, Integer y, Integer width, Integer height);
+
+    /**
+     * Returns a page of widgets that fit entirely into a rectangle ordered by z-index.
+     *
+     * @param x        the x coordinate of the rectangle center
+     * @param y        the y coordinate of the rectangle center
+     * @param width    the rectangle width
+     * @param height   the rectangle height
+     * @param pageable the pageable to request a paged result
+     * @return the widgets page
+     */
+    default Page<Widget> findAllInRectangle(Integer x, Integer y, Integer width, Integer height, Pageable pageable) {
+        List<Widget> widgets = findAllInRectangleOrderByZAsc(x, y, width, height);
+        int total = widgets.size();
+        if (pageable.getOffset() >= total) {
+            return new PageImpl<>(List.of(), pageable, total);
+        }
+
+        int from = (int) pageable.getOffset();
+        int to = (int) Math.min(total, pageable.getOffset() + pageable.getPageSize());
+        return new PageImpl<>(widgets.subList(from, to), pageable, total);
+    }
+
+    /**
+     * Returns widgets that fit entirely into a rectangle and have a z-index greater than the specified one,
+     * ordered by z-index.
+     *
+     * @param x        the x coordinate of the rectangle center
+     * @param y        the y coordinate of the rectangle center
+     * @param width    the rectangle width
+     * @param height   the rectangle height
+     * @param z        the z-index to return widgets after
+     * @param pageable the pageable limiting the number of widgets
+     * @return the widgets list
+     */
+    List<Widget> findAllInRectangleByZGreaterThanOrderByZAsc(
+            Integer x, Integer y, Integer width, Integer height, Integer z, Pageable pageable);
 }
@@ -0,0 +1,243 @@
+package com.koryshev.widgets.domain.repository;
+
+import com.koryshev.widgets.domain.model.Widget;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32C;
+
+/**
+ * A copy of all widgets ordered by z-index, kept in primitive columns, which can be written to and read from a file.
+ * <p>
+ * The file starts with a header of the format magic number, the format version and the number of widgets. It's
+ * followed by the columns: 16-byte IDs, x and y coordinates, z-indexes, widths and heights as 4-byte integers,
+ * creation and modification dates as 8-byte epoch milliseconds. The file ends with the CRC32C checksum of everything
+ * before it.
+ *
+ * @author Ivan Koryshev
+ */
+final class WidgetSnapshot {
+
+    private static final int MAGIC = 0x57534e50;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 3 * Integer.BYTES;
+    private static final int WIDGET_SIZE = 2 * Long.BYTES + 5 * Integer.BYTES + 2 * Long.BYTES;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final long[] ids;
+    private final int[] x;
+    private final int[] y;
+    private final int[] z;
+    private final int[] width;
+    private final int[] height;
+    private final long[] createdDates;
+    private final long[] lastModifiedDates;
+    private int size;
+
+    private WidgetSnapshot(int capacity) {
+        ids = new long[2 * capacity];
+        x = new int[capacity];
+        y = new int[capacity];
+        z = new int[capacity];
+        width = new int[capacity];
+        height = new int[capacity];
+        createdDates = new long[capacity];
+        lastModifiedDates = new long[capacity];
+    }
+
+    /**
+     * Copies all widgets of a repository. Only primitive values are copied, so that callers blocking modifications
+     * meanwhile are blocked for a short time.
+     *
+     * @param repository the repository to copy
+     * @return the snapshot
+     */
+    static WidgetSnapshot of(InMemoryWidgetRepository repository) {
+        WidgetSnapshot snapshot = new WidgetSnapshot(repository.count());
+        repository.forEachOrderByZAsc(snapshot::add);
+        return snapshot;
+    }
+
+    /**
+     * Reads a snapshot from a file after verifying its checksum.
+     *
+     * @param file the file to read
+     * @return the snapshot
+     * @throws IOException if reading fails or the file is corrupt
+     */
+    static WidgetSnapshot read(Path file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        int contentSize = buffer.capacity() - Integer.BYTES;
+        if (contentSize < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("File " + file + " is not a snapshot");
+        }
+        int version = buffer.getInt(Integer.BYTES);
+        if (version != VERSION) {
+            throw new IOException("Snapshot " + file + " has unsupported version " + version);
+        }
+        CRC32C checksum = new CRC32C();
+        checksum.update(buffer.duplicate().limit(contentSize));
+        int count = buffer.getInt(2 * Integer.BYTES);
+        if (buffer.getInt(contentSize) != (int) checksum.getValue()
+                || contentSize != HEADER_SIZE + (long) count * WIDGET_SIZE) {
+            throw new IOException("Snapshot " + file + " is corrupt");
+        }
+
+        WidgetSnapshot snapshot = new WidgetSnapshot(count);
+        buffer.position(HEADER_SIZE);
+        snapshot.readColumns(buffer, count);
+        return snapshot;
+    }
+
+    /**
+     * Writes the snapshot to a file and forces it to disk.
+     *
+     * @param file the file to write
+     * @throws IOException if writing fails
+     */
+    void write(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ColumnWriter writer = new ColumnWriter(channel);
+            writer.buffer.putInt(MAGIC).putInt(VERSION).putInt(size);
+            writer.writeLongs(ids, 2 * size);
+            writer.writeInts(x, size);
+            writer.writeInts(y, size);
+            writer.writeInts(z, size);
+            writer.writeInts(width, size);
+            writer.writeInts(height, size);
+            writer.writeLongs(createdDates, size);
+            writer.writeLongs(lastModifiedDates, size);
+            writer.finish();
+            channel.force(true);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Creates widgets from the snapshot.
+     *
+     * @return the widgets ordered by z-index
+     */
+    List<Widget> toWidgets() {
+        List<Widget> widgets = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            widgets.add(Widget.builder()
+                    .id(new UUID(ids[2 * i], ids[2 * i + 1]))
+                    .x(x[i])
+                    .y(y[i])
+                    .z(z[i])
+                    .width(width[i])
+                    .height(height[i])
+                    .createdDate(Instant.ofEpochMilli(createdDates[i]))
+                    .lastModifiedDate(Instant.ofEpochMilli(lastModifiedDates[i]))
+                    .build());
+        }
+        return widgets;
+    }
+
+    private void add(Widget widget) {
+        ids[2 * size] = widget.getId().getMostSignificantBits();
+        ids[2 * size + 1] = widget.getId().getLeastSignificantBits();
+        x[size] = widget.getX();
+        y[size] = widget.getY();
+        z[size] = widget.getZ();
+        width[size] = widget.getWidth();
+        height[size] = widget.getHeight();
+        createdDates[size] = widget.getCreatedDate().toEpochMilli();
+        lastModifiedDates[size] = widget.getLastModifiedDate().toEpochMilli();
+        size++;
+    }
+
+    private void readColumns(ByteBuffer buffer, int count) {
+        buffer.asLongBuffer().get(ids, 0, 2 * count);
+        buffer.position(buffer.position() + 2 * count * Long.BYTES);
+        for (int[] column : new int[][]{x, y, z, width, height}) {
+            buffer.asIntBuffer().get(column, 0, count);
+            buffer.position(buffer.position() + count * Integer.BYTES);
+        }
+        for (long[] column : new long[][]{createdDates, lastModifiedDates}) {
+            buffer.asLongBuffer().get(column, 0, count);
+            buffer.position(buffer.position() + count * Long.BYTES);
+        }
+        size = count;
+    }
+
+    /**
+     * Writes columns to a channel through a buffer, calculating the checksum of everything written.
+     */
+    private static final class ColumnWriter {
+
+        final FileChannel channel;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        final CRC32C checksum = new CRC32C();
+
+        ColumnWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void writeInts(int[] column, int length) throws IOException {
+            for (int offset = 0; offset < length; ) {
+                int count = Math.min(length - offset, buffer.remaining() / Integer.BYTES);
+                if (count == 0) {
+                    flush();
+                    continue;
+                }
+                buffer.asIntBuffer().put(column, offset, count);
+                buffer.position(buffer.position() + count * Integer.BYTES);
+                offset += count;
+            }
+        }
+
+        void writeLongs(long[] column, int length) throws IOException {
+            for (int offset = 0; offset < length; ) {
+                int count = Math.min(length - offset, buffer.remaining() / Long.BYTES);
+                if (count == 0) {
+                    flush();
+                    continue;
+                }
+                buffer.asLongBuffer().put(column, offset, count);
+                buffer.position(buffer.position() + count * Long.BYTES);
+                offset += count;
+            }
+        }
+
+        /**
+         * Writes the buffered content followed by its checksum.
+         */
+        void finish() throws IOException {
+            flush();
+            buffer.putInt((int) checksum.getValue());
+            buffer.flip();
+            write();
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            checksum.update(buffer.duplicate());
+            write();
+        }
+
+        private void write() throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
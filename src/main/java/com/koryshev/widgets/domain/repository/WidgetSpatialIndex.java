@@ -0,0 +1,470 @@
+package com.koryshev.widgets.domain.repository;
+
+import com.koryshev.widgets.domain.model.Widget;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * An R-tree indexing {@link Widget} bounds, used to find widgets inside a rectangle without scanning all of them.
+ * <p>
+ * A widget is indexed by its left, right and top edges together with its height, derived from the center
+ * coordinates the same way the filtering API does.
+ * <p>
+ * The index is not thread-safe. Searches racing with modifications may return inconsistent results or throw
+ * {@link ConcurrentModificationException}, but they always terminate, so they can be validated and retried by the
+ * caller.
+ *
+ * @author Ivan Koryshev
+ */
+class WidgetSpatialIndex {
+
+    private static final int MAX_ENTRIES = 16;
+    private static final int MIN_ENTRIES = 6;
+
+    private static final Comparator<Widget> Z_ORDER = Comparator.comparing(Widget::getZ);
+
+    private Map<UUID, Entry> entries = new HashMap<>();
+    private Node root = new Node(true);
+
+    /**
+     * Adds a widget to the index or re-indexes it if its bounds have changed.
+     *
+     * @param widget the widget to index
+     */
+    void put(Widget widget) {
+        Entry entry = entries.get(widget.getId());
+        if (entry != null) {
+            if (entry.hasBoundsOf(widget)) {
+                entry.widget = widget;
+                return;
+            }
+            delete(entry);
+        }
+
+        entry = new Entry(widget);
+        entries.put(widget.getId(), entry);
+        insert(entry);
+    }
+
+    /**
+     * Replaces all widgets in the index with the specified ones, packing them into nodes with the Sort-Tile-Recursive
+     * algorithm: boxes are sorted by their centers along the x axis and cut into vertical slices, then every slice is
+     * sorted along the y axis and cut into nodes. Nodes of every level are packed the same way up to the root.
+     *
+     * @param widgets the widgets to index
+     */
+    void load(List<Widget> widgets) {
+        entries = new HashMap<>(widgets.size() * 4 / 3 + 1);
+        List<Box> boxes = new ArrayList<>(widgets.size());
+        for (Widget widget : widgets) {
+            Entry entry = new Entry(widget);
+            entries.put(widget.getId(), entry);
+            boxes.add(entry);
+        }
+
+        boolean leaf = true;
+        while (boxes.size() > 1 || leaf) {
+            boxes = pack(boxes, leaf);
+            leaf = false;
+        }
+        root = boxes.isEmpty() ? new Node(true) : (Node) boxes.get(0);
+        root.parent = null;
+    }
+
+    /**
+     * Removes a widget from the index.
+     *
+     * @param widgetId the widget ID to remove
+     */
+    void remove(UUID widgetId) {
+        Entry entry = entries.remove(widgetId);
+        if (entry != null) {
+            delete(entry);
+        }
+    }
+
+    void clear() {
+        entries.clear();
+        root = new Node(true);
+    }
+
+    /**
+     * Returns widgets inside the specified rectangle ordered by z-index.
+     *
+     * @param left   the left edge of the rectangle
+     * @param right  the right edge of the rectangle
+     * @param top    the top edge of the rectangle
+     * @param height the height of the rectangle
+     * @return the widgets list
+     */
+    List<Widget> search(long left, long right, long top, long height) {
+        List<Widget> result = new ArrayList<>();
+        search(left, right, top, height, result::add);
+        result.sort(Z_ORDER);
+        return result;
+    }
+
+    /**
+     * Returns widgets inside the specified rectangle having a z-index greater than the specified one, ordered by
+     * z-index and limited to the specified number. Every widget inside the rectangle is visited, so callers walk
+     * the z-order instead while a page is likely to be found nearby.
+     *
+     * @param left   the left edge of the rectangle
+     * @param right  the right edge of the rectangle
+     * @param top    the top edge of the rectangle
+     * @param height the height of the rectangle
+     * @param z      the z-index to return widgets after
+     * @param limit  the maximum number of widgets to return
+     * @return the widgets list
+     */
+    List<Widget> search(long left, long right, long top, long height, int z, int limit) {
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+
+        // Keep the lowest widgets found so far in a heap with the highest one on top
+        PriorityQueue<Widget> lowest = new PriorityQueue<>(limit, Z_ORDER.reversed());
+        search(left, right, top, height, widget -> {
+            if (widget.getZ() <= z) {
+                return;
+            }
+            if (lowest.size() < limit) {
+                lowest.add(widget);
+            } else if (widget.getZ() < lowest.peek().getZ()) {
+                lowest.poll();
+                lowest.add(widget);
+            }
+        });
+
+        List<Widget> result = new ArrayList<>(lowest);
+        result.sort(Z_ORDER);
+        return result;
+    }
+
+    private void search(long left, long right, long top, long height, Consumer<Widget> consumer) {
+        // The tree can't have more nodes than twice the number of entries
+        int remainingNodes = 2 * entries.size() + 1;
+        Deque<Node> nodes = new ArrayDeque<>();
+        nodes.push(root);
+
+        while (!nodes.isEmpty()) {
+            if (remainingNodes-- == 0) {
+                throw new ConcurrentModificationException();
+            }
+            Node node = nodes.pop();
+            for (Box child : node.children) {
+                if (child.maxX < left || child.minX > right || child.minY > top) {
+                    continue;
+                }
+                if (node.leaf) {
+                    Entry entry = (Entry) child;
+                    if (entry.minX >= left && entry.maxX <= right && entry.maxY <= top && entry.height <= height) {
+                        consumer.accept(entry.widget);
+                    }
+                } else {
+                    nodes.push((Node) child);
+                }
+            }
+        }
+    }
+
+    private void insert(Entry entry) {
+        Node leaf = root;
+        while (!leaf.leaf) {
+            leaf = chooseSubtree(leaf, entry);
+        }
+        leaf.add(entry);
+
+        Node sibling = leaf.children.size() > MAX_ENTRIES ? split(leaf) : null;
+        Node node = leaf;
+        while (node != root) {
+            Node parent = node.parent;
+            if (sibling != null) {
+                parent.add(sibling);
+                sibling = parent.children.size() > MAX_ENTRIES ? split(parent) : null;
+            }
+            parent.recalculate();
+            node = parent;
+        }
+
+        if (sibling != null) {
+            Node newRoot = new Node(false);
+            newRoot.add(root);
+            newRoot.add(sibling);
+            root = newRoot;
+        }
+    }
+
+    private void delete(Entry entry) {
+        Node node = entry.parent;
+        node.children.remove(entry);
+
+        // Condense the tree, collecting entries of underflowing nodes for reinsertion
+        List<Entry> orphans = new ArrayList<>();
+        while (node != root) {
+            Node parent = node.parent;
+            if (node.children.size() < MIN_ENTRIES) {
+                parent.children.remove(node);
+                collectEntries(node, orphans);
+            } else {
+                node.recalculate();
+            }
+            node = parent;
+        }
+        root.recalculate();
+
+        while (!root.leaf && root.children.size() == 1) {
+            root = (Node) root.children.get(0);
+            root.parent = null;
+        }
+        if (!root.leaf && root.children.isEmpty()) {
+            root = new Node(true);
+        }
+
+        for (Entry orphan : orphans) {
+            insert(orphan);
+        }
+    }
+
+    private static List<Box> pack(List<Box> boxes, boolean leaf) {
+        int nodeCount = (boxes.size() + MAX_ENTRIES - 1) / MAX_ENTRIES;
+        int sliceCount = (int) Math.ceil(Math.sqrt(nodeCount));
+        List<Box> nodes = new ArrayList<>(nodeCount);
+
+        sortByCenter(boxes, true);
+        for (List<Box> slice : partition(boxes, sliceCount)) {
+            sortByCenter(slice, false);
+            for (List<Box> group : partition(slice, (slice.size() + MAX_ENTRIES - 1) / MAX_ENTRIES)) {
+                Node node = new Node(leaf);
+                group.forEach(node::add);
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Sorts boxes by their centers along an axis. Every center is packed with the position of its box into a single
+     * primitive key, which sorts several times faster than a comparator of boxes.
+     */
+    private static void sortByCenter(List<Box> boxes, boolean xAxis) {
+        long[] keys = new long[boxes.size()];
+        for (int i = 0; i < keys.length; i++) {
+            Box box = boxes.get(i);
+            long center = xAxis ? ((long) box.minX + box.maxX) >> 1 : ((long) box.minY + box.maxY) >> 1;
+            keys[i] = center << 32 | i;
+        }
+        Arrays.sort(keys);
+
+        Box[] sorted = new Box[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            sorted[i] = boxes.get((int) keys[i]);
+        }
+        for (int i = 0; i < sorted.length; i++) {
+            boxes.set(i, sorted[i]);
+        }
+    }
+
+    /**
+     * Cuts a list into the specified number of consecutive parts differing in size by one at most.
+     */
+    private static List<List<Box>> partition(List<Box> boxes, int parts) {
+        List<List<Box>> result = new ArrayList<>(parts);
+        for (int i = 0; i < parts; i++) {
+            result.add(boxes.subList(
+                    (int) ((long) boxes.size() * i / parts), (int) ((long) boxes.size() * (i + 1) / parts)));
+        }
+        return result;
+    }
+
+    private static void collectEntries(Node node, List<Entry> result) {
+        for (Box child : node.children) {
+            if (node.leaf) {
+                result.add((Entry) child);
+            } else {
+                collectEntries((Node) child, result);
+            }
+        }
+    }
+
+    private static Node chooseSubtree(Node node, Box box) {
+        Node best = null;
+        long bestEnlargement = Long.MAX_VALUE;
+        long bestArea = Long.MAX_VALUE;
+
+        for (Box child : node.children) {
+            long area = child.area();
+            long enlargement = child.unionArea(box) - area;
+            if (enlargement < bestEnlargement || (enlargement == bestEnlargement && area < bestArea)) {
+                best = (Node) child;
+                bestEnlargement = enlargement;
+                bestArea = area;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Splits an overflowing node using the quadratic split algorithm.
+     *
+     * @param node the node to split, keeps the first group
+     * @return the new sibling node containing the second group
+     */
+    private static Node split(Node node) {
+        List<Box> boxes = new ArrayList<>(node.children);
+        node.children.clear();
+        Node sibling = new Node(node.leaf);
+
+        // Pick the pair of boxes that would waste the most area if grouped together
+        int firstSeed = 0;
+        int secondSeed = 1;
+        long worstWaste = Long.MIN_VALUE;
+        for (int i = 0; i < boxes.size(); i++) {
+            for (int j = i + 1; j < boxes.size(); j++) {
+                Box first = boxes.get(i);
+                Box second = boxes.get(j);
+                long waste = first.unionArea(second) - first.area() - second.area();
+                if (waste > worstWaste) {
+                    worstWaste = waste;
+                    firstSeed = i;
+                    secondSeed = j;
+                }
+            }
+        }
+        Box secondBox = boxes.remove(secondSeed);
+        Box firstBox = boxes.remove(firstSeed);
+        node.add(firstBox);
+        sibling.add(secondBox);
+
+        while (!boxes.isEmpty()) {
+            if (node.children.size() + boxes.size() == MIN_ENTRIES) {
+                boxes.forEach(node::add);
+                break;
+            }
+            if (sibling.children.size() + boxes.size() == MIN_ENTRIES) {
+                boxes.forEach(sibling::add);
+                break;
+            }
+
+            // Pick the box with the strongest preference for one of the groups
+            int next = 0;
+            long maxDifference = Long.MIN_VALUE;
+            for (int i = 0; i < boxes.size(); i++) {
+                Box box = boxes.get(i);
+                long difference = Math.abs((node.unionArea(box) - node.area())
+                        - (sibling.unionArea(box) - sibling.area()));
+                if (difference > maxDifference) {
+                    maxDifference = difference;
+                    next = i;
+                }
+            }
+
+            Box box = boxes.remove(next);
+            long nodeEnlargement = node.unionArea(box) - node.area();
+            long siblingEnlargement = sibling.unionArea(box) - sibling.area();
+            if (nodeEnlargement < siblingEnlargement
+                    || (nodeEnlargement == siblingEnlargement && node.area() < sibling.area())
+                    || (nodeEnlargement == siblingEnlargement && node.area() == sibling.area()
+                    && node.children.size() <= sibling.children.size())) {
+                node.add(box);
+            } else {
+                sibling.add(box);
+            }
+        }
+        return sibling;
+    }
+
+    private abstract static class Box {
+
+        long minX;
+        long minY;
+        long maxX;
+        long maxY;
+        Node parent;
+
+        long area() {
+            return (maxX - minX) * (maxY - minY);
+        }
+
+        long unionArea(Box box) {
+            return (Math.max(maxX, box.maxX) - Math.min(minX, box.minX))
+                    * (Math.max(maxY, box.maxY) - Math.min(minY, box.minY));
+        }
+    }
+
+    private static final class Entry extends Box {
+
+        Widget widget;
+        final long height;
+
+        Entry(Widget widget) {
+            this.widget = widget;
+            this.height = widget.getHeight();
+            this.minX = (long) widget.getX() - widget.getWidth() / 2;
+            this.maxX = minX + widget.getWidth();
+            this.maxY = (long) widget.getY() + widget.getHeight() / 2;
+            this.minY = maxY - height;
+        }
+
+        boolean hasBoundsOf(Widget widget) {
+            return minX == (long) widget.getX() - widget.getWidth() / 2
+                    && maxX - minX == widget.getWidth()
+                    && maxY == (long) widget.getY() + widget.getHeight() / 2
+                    && height == widget.getHeight();
+        }
+    }
+
+    private static final class Node extends Box {
+
+        final boolean leaf;
+        final List<Box> children = new ArrayList<>(MAX_ENTRIES + 1);
+
+        Node(boolean leaf) {
+            this.leaf = leaf;
+        }
+
+        void add(Box box) {
+            if (children.isEmpty()) {
+                minX = box.minX;
+                minY = box.minY;
+                maxX = box.maxX;
+                maxY = box.maxY;
+            } else {
+                minX = Math.min(minX, box.minX);
+                minY = Math.min(minY, box.minY);
+                maxX = Math.max(maxX, box.maxX);
+                maxY = Math.max(maxY, box.maxY);
+            }
+            children.add(box);
+            box.parent = this;
+        }
+
+        void recalculate() {
+            if (children.isEmpty()) {
+                return;
+            }
+            Box first = children.get(0);
+            minX = first.minX;
+            minY = first.minY;
+            maxX = first.maxX;
+            maxY = first.maxY;
+            for (Box child : children) {
+                minX = Math.min(minX, child.minX);
+                minY = Math.min(minY, child.minY);
+                maxX = Math.max(maxX, child.maxX);
+                maxY = Math.max(maxY, child.maxY);
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.koryshev.widgets.dto;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.validation.Valid;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A DTO for creating, updating and deleting widgets at once.
+ *
+ * @author Ivan Koryshev
+ */
+@Getter
+@Setter
+@Builder
+public class WidgetBatchRequestDto {
+
+    @Valid
+    private List<WidgetRequestDto> create;
+
+    @Valid
+    private List<WidgetBatchUpdateDto> update;
+
+    private List<UUID> delete;
+}
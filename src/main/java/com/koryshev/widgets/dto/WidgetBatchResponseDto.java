@@ -0,0 +1,22 @@
+package com.koryshev.widgets.dto;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * A DTO representing widgets created and updated by a batch.
+ *
+ * @author Ivan Koryshev
+ */
+@Getter
+@Setter
+@Builder
+public class WidgetBatchResponseDto {
+
+    private List<WidgetResponseDto> created;
+
+    private List<WidgetResponseDto> updated;
+}
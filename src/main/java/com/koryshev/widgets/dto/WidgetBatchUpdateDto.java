@@ -0,0 +1,27 @@
+package com.koryshev.widgets.dto;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+import java.util.UUID;
+
+/**
+ * A DTO for updating a widget as a part of a batch.
+ *
+ * @author Ivan Koryshev
+ */
+@Getter
+@Setter
+@Builder
+public class WidgetBatchUpdateDto {
+
+    @NotNull
+    private UUID id;
+
+    @NotNull
+    @Valid
+    private WidgetRequestDto widget;
+}
@@ -0,0 +1,23 @@
+package com.koryshev.widgets.dto;
+
+import com.koryshev.widgets.service.WidgetChangeType;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.UUID;
+
+/**
+ * A DTO representing a change of a widget inside a viewport.
+ *
+ * @author Ivan Koryshev
+ */
+@Getter
+@Setter
+public class WidgetChangeDto {
+
+    private WidgetChangeType type;
+
+    private UUID id;
+
+    private WidgetResponseDto widget;
+}
@@ -0,0 +1,18 @@
+package com.koryshev.widgets.dto;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * A DTO representing a line of an imported file that has been rejected.
+ *
+ * @author Ivan Koryshev
+ */
+@Getter
+@Setter
+public class WidgetImportErrorDto {
+
+    private long line;
+
+    private String message;
+}
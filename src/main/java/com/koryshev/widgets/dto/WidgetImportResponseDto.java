@@ -0,0 +1,26 @@
+package com.koryshev.widgets.dto;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * A DTO representing the outcome of an import of widgets.
+ *
+ * @author Ivan Koryshev
+ */
+@Getter
+@Setter
+public class WidgetImportResponseDto {
+
+    private long lines;
+
+    private long chunks;
+
+    private long imported;
+
+    private long rejected;
+
+    private List<WidgetImportErrorDto> errors;
+}
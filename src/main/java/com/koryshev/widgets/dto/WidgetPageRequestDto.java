@@ -1,5 +1,6 @@
 package com.koryshev.widgets.dto;
 
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.Setter;
@@ -7,13 +8,14 @@ import lombok.Setter;
 import javax.validation.constraints.NotNull;
 
 /**
- * A DTO for filtering widgets.
+ * A DTO for filtering widgets, read from a request body or bound from the query parameters of a request.
  *
  * @author Ivan Koryshev
  */
 @Getter
 @Setter
 @Builder
+@AllArgsConstructor
 public class WidgetPageRequestDto {
 
     @NotNull
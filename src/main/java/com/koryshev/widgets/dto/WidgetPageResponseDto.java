@@ -23,4 +23,6 @@ public class WidgetPageResponseDto {
     private Integer size;
 
     private List<WidgetResponseDto> content;
+
+    private String nextCursor;
 }
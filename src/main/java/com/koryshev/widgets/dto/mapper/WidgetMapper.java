@@ -1,9 +1,14 @@
 package com.koryshev.widgets.dto.mapper;
 
 import com.koryshev.widgets.domain.model.Widget;
+import com.koryshev.widgets.dto.WidgetChangeDto;
+import com.koryshev.widgets.dto.WidgetImportResponseDto;
 import com.koryshev.widgets.dto.WidgetRequestDto;
 import com.koryshev.widgets.dto.WidgetResponseDto;
+import com.koryshev.widgets.service.WidgetChange;
+import com.koryshev.widgets.service.WidgetImportResult;
 import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
 
 import java.util.List;
 
@@ -15,9 +20,17 @@ import java.util.List;
 @Mapper(componentModel = "spring")
 public interface WidgetMapper {
 
+    @Mapping(target = "leftEdge", ignore = true)
+    @Mapping(target = "rightEdge", ignore = true)
+    @Mapping(target = "topEdge", ignore = true)
     Widget fromWidgetRequestDto(WidgetRequestDto dto);
 
     WidgetResponseDto toWidgetResponseDto(Widget widget);
 
     List<WidgetResponseDto> toWidgetResponseDto(List<Widget> widgets);
+
+    WidgetImportResponseDto toWidgetImportResponseDto(WidgetImportResult result);
+
+    @Mapping(target = "id", source = "widgetId")
+    WidgetChangeDto toWidgetChangeDto(WidgetChange change);
 }
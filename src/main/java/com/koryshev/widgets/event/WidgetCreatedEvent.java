@@ -0,0 +1,17 @@
+package com.koryshev.widgets.event;
+
+import com.koryshev.widgets.domain.model.Widget;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * A widget has been created.
+ *
+ * @author Ivan Koryshev
+ */
+@Getter
+@RequiredArgsConstructor
+public class WidgetCreatedEvent extends WidgetEvent {
+
+    private final Widget widget;
+}
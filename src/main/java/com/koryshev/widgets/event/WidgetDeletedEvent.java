@@ -0,0 +1,17 @@
+package com.koryshev.widgets.event;
+
+import com.koryshev.widgets.domain.model.Widget;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * A widget has been deleted.
+ *
+ * @author Ivan Koryshev
+ */
+@Getter
+@RequiredArgsConstructor
+public class WidgetDeletedEvent extends WidgetEvent {
+
+    private final Widget widget;
+}
@@ -0,0 +1,12 @@
+package com.koryshev.widgets.event;
+
+/**
+ * A change of widgets, published once the change is made.
+ * <p>
+ * Events published within a transaction describe changes that are not visible to others until the transaction
+ * is committed, so they should be handled after commit.
+ *
+ * @author Ivan Koryshev
+ */
+public abstract class WidgetEvent {
+}
@@ -0,0 +1,18 @@
+package com.koryshev.widgets.event;
+
+import com.koryshev.widgets.domain.model.Widget;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * A widget has been updated, possibly moving to another z-index.
+ *
+ * @author Ivan Koryshev
+ */
+@Getter
+@RequiredArgsConstructor
+public class WidgetUpdatedEvent extends WidgetEvent {
+
+    private final Widget previous;
+    private final Widget widget;
+}
@@ -0,0 +1,9 @@
+package com.koryshev.widgets.event;
+
+/**
+ * Z-indexes of any widgets may have changed, keeping their order.
+ *
+ * @author Ivan Koryshev
+ */
+public class WidgetsReorderedEvent extends WidgetEvent {
+}
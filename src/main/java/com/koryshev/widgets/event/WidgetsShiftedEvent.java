@@ -0,0 +1,26 @@
+package com.koryshev.widgets.event;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * All widgets having z-indexes within a range have been shifted upwards by the same offset.
+ *
+ * @author Ivan Koryshev
+ */
+@Getter
+@RequiredArgsConstructor
+public class WidgetsShiftedEvent extends WidgetEvent {
+
+    /**
+     * The lowest z-index of the range before shifting.
+     */
+    private final int from;
+
+    /**
+     * The highest z-index of the range before shifting.
+     */
+    private final int to;
+
+    private final int offset;
+}
@@ -0,0 +1,17 @@
+package com.koryshev.widgets.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when a batch of widget changes contradicts itself.
+ *
+ * @author Ivan Koryshev
+ */
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class InvalidBatchException extends RuntimeException {
+
+    public InvalidBatchException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,17 @@
+package com.koryshev.widgets.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when a pagination cursor can't be decoded.
+ *
+ * @author Ivan Koryshev
+ */
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class InvalidCursorException extends RuntimeException {
+
+    public InvalidCursorException() {
+        super("Invalid cursor");
+    }
+}
@@ -0,0 +1,17 @@
+package com.koryshev.widgets.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when a file of widgets to import can't be read at all.
+ *
+ * @author Ivan Koryshev
+ */
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class InvalidImportException extends RuntimeException {
+
+    public InvalidImportException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,17 @@
+package com.koryshev.widgets.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when a request can't be accepted, since too many requests are waiting to be performed.
+ *
+ * @author Ivan Koryshev
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class ServiceBusyException extends RuntimeException {
+
+    public ServiceBusyException() {
+        super("Service is busy");
+    }
+}
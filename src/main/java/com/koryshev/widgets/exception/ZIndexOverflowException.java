@@ -0,0 +1,17 @@
+package com.koryshev.widgets.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when widgets can't be placed on top, since no z-indexes are left above the largest one.
+ *
+ * @author Ivan Koryshev
+ */
+@ResponseStatus(HttpStatus.CONFLICT)
+public class ZIndexOverflowException extends RuntimeException {
+
+    public ZIndexOverflowException(long top) {
+        super("No z-index left above " + top);
+    }
+}
@@ -1,84 +1,189 @@
 package com.koryshev.widgets.service;
 
+import com.koryshev.widgets.config.WidgetProperties;
 import com.koryshev.widgets.domain.model.Widget;
 import com.koryshev.widgets.domain.repository.WidgetRepository;
-import com.koryshev.widgets.dto.WidgetPageRequestDto;
+import com.koryshev.widgets.dto.WidgetBatchRequestDto;
 import com.koryshev.widgets.dto.WidgetRequestDto;
 import com.koryshev.widgets.dto.mapper.WidgetMapper;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Profile;
-import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
+import reactor.core.scheduler.Schedulers;
 
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /**
  * Manages {@link Widget} entries using an in-memory implementation of @{link {@link WidgetRepository}}.
+ * It serves both {@code InMemoryWidgetRepository} and {@code CompactWidgetRepository}.
+ * <p>
+ * Modifications are serialized by a write lock, since almost every one of them may cascade through the z-order.
+ * Reads don't lock: they run optimistically and are only retried under a read lock if a modification has happened
+ * concurrently, so they neither block each other nor queue behind waiting writers.
  *
  * @author Ivan Koryshev
  */
 @Slf4j
-@Profile("in-memory")
+@Profile({"in-memory", "in-memory-compact"})
 @Service
 public class InMemoryWidgetService extends WidgetService {
 
-    private final ReadWriteLock lock = new ReentrantReadWriteLock(true);
+    private final StampedLock lock = new StampedLock();
+    private final WidgetMetrics widgetMetrics;
+    private final WidgetTracer widgetTracer;
 
-    public InMemoryWidgetService(WidgetMapper widgetMapper, WidgetRepository widgetRepository) {
+    public InMemoryWidgetService(WidgetMapper widgetMapper, WidgetRepository widgetRepository,
+                           WidgetProperties widgetProperties, WidgetRebalancer widgetRebalancer,
+                           WidgetCache widgetCache, WidgetFilterCache widgetFilterCache,
+                           WidgetMetrics widgetMetrics, WidgetTracer widgetTracer,
+                           ApplicationEventPublisher eventPublisher) {
         super();
         super.setWidgetMapper(widgetMapper);
         super.setWidgetRepository(widgetRepository);
+        super.setWidgetProperties(widgetProperties);
+        super.setWidgetRebalancer(widgetRebalancer);
+        super.setWidgetCache(widgetCache);
+        super.setWidgetFilterCache(widgetFilterCache);
+        super.setEventPublisher(eventPublisher);
+        super.setWidgetMetrics(widgetMetrics);
+        super.setWidgetTracer(widgetTracer);
+        this.widgetMetrics = widgetMetrics;
+        this.widgetTracer = widgetTracer;
     }
 
     @Override
     public Widget create(WidgetRequestDto dto) {
-        try {
-            lock.writeLock().lock();
-            return super.create(dto);
-        } finally {
-            lock.writeLock().unlock();
-        }
+        return write(WidgetMetrics.CREATE, () -> super.create(dto));
     }
 
     @Override
     public Widget update(UUID widgetId, WidgetRequestDto dto) {
-        try {
-            lock.writeLock().lock();
-            return super.update(widgetId, dto);
-        } finally {
-            lock.writeLock().unlock();
-        }
+        return write(WidgetMetrics.UPDATE, () -> super.update(widgetId, dto));
     }
 
     @Override
     public void delete(UUID widgetId) {
-        try {
-            lock.writeLock().lock();
+        write(WidgetMetrics.DELETE, () -> {
             super.delete(widgetId);
-        } finally {
-            lock.writeLock().unlock();
-        }
+            return null;
+        });
     }
 
     @Override
-    public Widget findOne(UUID widgetId) {
-        try {
-            lock.readLock().lock();
-            return super.findOne(widgetId);
-        } finally {
-            lock.readLock().unlock();
-        }
+    public WidgetBatchResult applyBatch(WidgetBatchRequestDto dto) {
+        return write(WidgetMetrics.APPLY_BATCH, () -> super.applyBatch(dto));
+    }
+
+    @Override
+    public void rebalance() {
+        write(WidgetMetrics.REBALANCE, () -> {
+            super.rebalance();
+            return null;
+        });
     }
 
+    /**
+     * Reads never block on threads which must not block: {@link WouldBlockException} is thrown instead of waiting for
+     * the read lock.
+     */
     @Override
-    public Page<Widget> findAll(Integer page, Integer size, WidgetPageRequestDto dto) {
+    public boolean isBlockingRead() {
+        return false;
+    }
+
+    /**
+     * Performs a read operation without locking and validates that no modification has happened meanwhile,
+     * otherwise repeats it under a read lock.
+     * <p>
+     * A read racing with a modification may see the repository torn: widgets with some fields changed, maps and trees
+     * halfway through rebalancing. The repository only guarantees that such reads terminate, either with a result or
+     * with a {@link RuntimeException}, such as {@link java.util.ConcurrentModificationException} thrown by a bounded
+     * tree traversal or {@link NullPointerException} thrown by a node removed meanwhile. Both are discarded unless
+     * validated. Widgets read are copied before validating, so that a validated result can't be changed by
+     * a modification made after it.
+     *
+     * @throws WouldBlockException if the read can't be validated on a thread which must not block
+     *
+     * @param operation the read operation
+     * @param <T>       the type of the result
+     * @return the result of the operation
+     */
+    @Override
+    protected <T> T read(Supplier<T> operation) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0L) {
+            try {
+                T result = detachAll(operation.get());
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                if (lock.validate(stamp)) {
+                    throw e;
+                }
+            }
+        }
+
+        widgetMetrics.recordOptimisticReadFailure();
+        if (Schedulers.isInNonBlockingThread()) {
+            throw new WouldBlockException();
+        }
+        long started = System.nanoTime();
+        stamp = lock.readLock();
+        long waited = System.nanoTime() - started;
+        widgetMetrics.recordLockWait(WidgetMetrics.READ_LOCK, waited);
+        widgetTracer.record(WidgetTracer.Stage.LOCK, waited);
         try {
-            lock.readLock().lock();
-            return super.findAll(page, size, dto);
+            return detachAll(operation.get());
         } finally {
-            lock.readLock().unlock();
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Performs a modification under the write lock. The trace of the operation is started before waiting for
+     * the lock, so that the wait counts towards the duration of the operation.
+     */
+    private <T> T write(String operation, Supplier<T> modification) {
+        return widgetTracer.trace(operation, () -> {
+            long started = System.nanoTime();
+            long stamp = lock.writeLock();
+            long waited = System.nanoTime() - started;
+            widgetMetrics.recordLockWait(WidgetMetrics.WRITE_LOCK, waited);
+            widgetTracer.record(WidgetTracer.Stage.LOCK, waited);
+            try {
+                return modification.get();
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        });
+    }
+
+    /**
+     * Copies widgets read from the repository, which holds the widgets themselves, whether a single one or a page,
+     * slice or list of them.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T detachAll(T result) {
+        if (result instanceof Widget) {
+            return (T) copy((Widget) result);
+        }
+        if (result instanceof Optional) {
+            return (T) ((Optional<Widget>) result).map(WidgetService::copy);
+        }
+        if (result instanceof Slice) {
+            return (T) ((Slice<Widget>) result).map(WidgetService::copy);
+        }
+        if (result instanceof List) {
+            return (T) ((List<Widget>) result).stream().map(WidgetService::copy).collect(Collectors.toList());
         }
+        return result;
     }
 }
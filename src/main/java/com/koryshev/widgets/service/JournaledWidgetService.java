@@ -0,0 +1,72 @@
+package com.koryshev.widgets.service;
+
+import com.koryshev.widgets.config.WidgetProperties;
+import com.koryshev.widgets.domain.model.Widget;
+import com.koryshev.widgets.domain.repository.JournaledWidgetRepository;
+import com.koryshev.widgets.dto.WidgetBatchRequestDto;
+import com.koryshev.widgets.dto.WidgetRequestDto;
+import com.koryshev.widgets.dto.mapper.WidgetMapper;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import java.util.UUID;
+
+/**
+ * Manages {@link Widget} entries the same way as {@link InMemoryWidgetService}, persisting them with
+ * {@link JournaledWidgetRepository}.
+ * <p>
+ * A modification returns once it's durable. The journal is synced after the write lock is released, so that
+ * modifications made meanwhile by other threads are synced together with it.
+ *
+ * @author Ivan Koryshev
+ */
+@Profile("journal")
+@Service
+public class JournaledWidgetService extends InMemoryWidgetService {
+
+    private final JournaledWidgetRepository widgetRepository;
+
+    public JournaledWidgetService(WidgetMapper widgetMapper, JournaledWidgetRepository widgetRepository,
+                                  WidgetProperties widgetProperties, WidgetRebalancer widgetRebalancer,
+                                  WidgetCache widgetCache, WidgetFilterCache widgetFilterCache,
+                                  WidgetMetrics widgetMetrics, WidgetTracer widgetTracer,
+                                  ApplicationEventPublisher eventPublisher) {
+        super(widgetMapper, widgetRepository, widgetProperties, widgetRebalancer, widgetCache, widgetFilterCache,
+                widgetMetrics, widgetTracer, eventPublisher);
+        this.widgetRepository = widgetRepository;
+    }
+
+    @Override
+    public Widget create(WidgetRequestDto dto) {
+        Widget widget = super.create(dto);
+        widgetRepository.sync();
+        return widget;
+    }
+
+    @Override
+    public Widget update(UUID widgetId, WidgetRequestDto dto) {
+        Widget widget = super.update(widgetId, dto);
+        widgetRepository.sync();
+        return widget;
+    }
+
+    @Override
+    public void delete(UUID widgetId) {
+        super.delete(widgetId);
+        widgetRepository.sync();
+    }
+
+    @Override
+    public WidgetBatchResult applyBatch(WidgetBatchRequestDto dto) {
+        WidgetBatchResult result = super.applyBatch(dto);
+        widgetRepository.sync();
+        return result;
+    }
+
+    @Override
+    public void rebalance() {
+        super.rebalance();
+        widgetRepository.sync();
+    }
+}
@@ -1,31 +1,62 @@
 package com.koryshev.widgets.service;
 
+import com.koryshev.widgets.config.WidgetProperties;
 import com.koryshev.widgets.domain.model.Widget;
+import com.koryshev.widgets.domain.repository.JpaWidgetRepository;
 import com.koryshev.widgets.domain.repository.WidgetRepository;
+import com.koryshev.widgets.dto.WidgetBatchRequestDto;
 import com.koryshev.widgets.dto.WidgetPageRequestDto;
 import com.koryshev.widgets.dto.WidgetRequestDto;
 import com.koryshev.widgets.dto.mapper.WidgetMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Profile;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.EntityManager;
+import java.util.Iterator;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * Manages {@link Widget} entries using a JPA implementation of @{link {@link WidgetRepository}}.
  *
  * @author Ivan Koryshev
  */
+@Slf4j
 @Profile("jpa")
 @Service
 @Transactional
 public class JpaWidgetService extends WidgetService {
 
-    public JpaWidgetService(WidgetMapper widgetMapper, WidgetRepository widgetRepository) {
+    private final JpaWidgetRepository widgetRepository;
+    private final EntityManager entityManager;
+    private final int jdbcBatchSize;
+
+    public JpaWidgetService(WidgetMapper widgetMapper, JpaWidgetRepository widgetRepository,
+                           WidgetProperties widgetProperties, WidgetRebalancer widgetRebalancer,
+                           WidgetCache widgetCache, WidgetFilterCache widgetFilterCache,
+                           WidgetMetrics widgetMetrics, WidgetTracer widgetTracer,
+                           ApplicationEventPublisher eventPublisher, EntityManager entityManager,
+                           @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:0}") int jdbcBatchSize) {
         super();
         super.setWidgetMapper(widgetMapper);
         super.setWidgetRepository(widgetRepository);
+        super.setWidgetProperties(widgetProperties);
+        super.setWidgetRebalancer(widgetRebalancer);
+        super.setWidgetCache(widgetCache);
+        super.setWidgetFilterCache(widgetFilterCache);
+        super.setEventPublisher(eventPublisher);
+        super.setWidgetMetrics(widgetMetrics);
+        super.setWidgetTracer(widgetTracer);
+        this.widgetRepository = widgetRepository;
+        this.entityManager = entityManager;
+        this.jdbcBatchSize = jdbcBatchSize;
     }
 
     @Override
@@ -43,6 +74,11 @@ public class JpaWidgetService extends WidgetService {
         super.delete(widgetId);
     }
 
+    @Override
+    public WidgetBatchResult applyBatch(WidgetBatchRequestDto dto) {
+        return super.applyBatch(dto);
+    }
+
     @Override
     public Widget findOne(UUID widgetId) {
         return super.findOne(widgetId);
@@ -52,4 +88,56 @@ public class JpaWidgetService extends WidgetService {
     public Page<Widget> findAll(Integer page, Integer size, WidgetPageRequestDto dto) {
         return super.findAll(page, size, dto);
     }
+
+    @Override
+    public Slice<Widget> findAllAfter(Integer z, Integer size, WidgetPageRequestDto dto) {
+        return super.findAllAfter(z, size, dto);
+    }
+
+    /**
+     * Scrolls through all widgets in a read-only transaction. Every widget is detached before it's passed on,
+     * so that the persistence context doesn't grow with the number of widgets.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public void exportAll(Consumer<Widget> action) {
+        log.info("Exporting all widgets");
+        long exported = 0;
+        try (Stream<Widget> widgets = widgetRepository.streamAllOrderByZAsc()) {
+            Iterator<Widget> iterator = widgets.iterator();
+            while (iterator.hasNext()) {
+                Widget widget = iterator.next();
+                entityManager.detach(widget);
+                action.accept(widget);
+                exported++;
+            }
+        }
+        log.info("Exported {} widgets", exported);
+    }
+
+    /**
+     * Writes created widgets out every time they fill a JDBC batch, and detaches them, so that flushing doesn't have
+     * to check a growing number of managed widgets for changes.
+     */
+    @Override
+    protected void afterBulkSave(int saved) {
+        if (jdbcBatchSize > 0 && saved % jdbcBatchSize == 0) {
+            entityManager.flush();
+            entityManager.clear();
+        }
+    }
+
+    /**
+     * Returns the entity itself, since it's detached once the transaction ends, and gets its audited dates only when
+     * the transaction is flushed.
+     */
+    @Override
+    protected Widget detach(Widget widget) {
+        return widget;
+    }
+
+    @Override
+    public void rebalance() {
+        super.rebalance();
+    }
 }
@@ -0,0 +1,150 @@
+package com.koryshev.widgets.service;
+
+import com.koryshev.widgets.config.WidgetProperties;
+import com.koryshev.widgets.domain.model.Widget;
+import com.koryshev.widgets.domain.repository.SnapshotWidgetRepository;
+import com.koryshev.widgets.dto.WidgetBatchRequestDto;
+import com.koryshev.widgets.dto.WidgetRequestDto;
+import com.koryshev.widgets.dto.mapper.WidgetMapper;
+import com.koryshev.widgets.event.WidgetEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Manages {@link Widget} entries using {@link SnapshotWidgetRepository}.
+ * <p>
+ * Reads are served from the current snapshot of the repository without any locking. Every modification is performed
+ * against a private version of the repository and published at once, so readers never see it half done. Modifications
+ * are serialized by a lock, so that they don't have to be repeated because of each other. Events are published after
+ * the modification is.
+ *
+ * @author Ivan Koryshev
+ */
+@Slf4j
+@Profile("in-memory-snapshot")
+@Service
+public class SnapshotWidgetService extends WidgetService {
+
+    private final Lock lock = new ReentrantLock();
+    private final SnapshotWidgetRepository widgetRepository;
+    private final List<WidgetEvent> pendingEvents = new ArrayList<>();
+    private final WidgetMetrics widgetMetrics;
+    private final WidgetTracer widgetTracer;
+
+    public SnapshotWidgetService(WidgetMapper widgetMapper, SnapshotWidgetRepository widgetRepository,
+                                 WidgetProperties widgetProperties, WidgetRebalancer widgetRebalancer,
+                                 WidgetCache widgetCache, WidgetFilterCache widgetFilterCache,
+                                 WidgetMetrics widgetMetrics, WidgetTracer widgetTracer,
+                                 ApplicationEventPublisher eventPublisher) {
+        super();
+        super.setWidgetMapper(widgetMapper);
+        super.setWidgetRepository(widgetRepository);
+        super.setWidgetProperties(widgetProperties);
+        super.setWidgetRebalancer(widgetRebalancer);
+        super.setWidgetCache(widgetCache);
+        super.setWidgetFilterCache(widgetFilterCache);
+        super.setEventPublisher(eventPublisher);
+        super.setWidgetMetrics(widgetMetrics);
+        super.setWidgetTracer(widgetTracer);
+        this.widgetMetrics = widgetMetrics;
+        this.widgetTracer = widgetTracer;
+        this.widgetRepository = widgetRepository;
+    }
+
+    @Override
+    public Widget create(WidgetRequestDto dto) {
+        return write(WidgetMetrics.CREATE, () -> super.create(dto));
+    }
+
+    @Override
+    public Widget update(UUID widgetId, WidgetRequestDto dto) {
+        return write(WidgetMetrics.UPDATE, () -> super.update(widgetId, dto));
+    }
+
+    @Override
+    public void delete(UUID widgetId) {
+        write(WidgetMetrics.DELETE, () -> {
+            super.delete(widgetId);
+            return null;
+        });
+    }
+
+    @Override
+    public WidgetBatchResult applyBatch(WidgetBatchRequestDto dto) {
+        return write(WidgetMetrics.APPLY_BATCH, () -> super.applyBatch(dto));
+    }
+
+    @Override
+    public void rebalance() {
+        write(WidgetMetrics.REBALANCE, () -> {
+            super.rebalance();
+            return null;
+        });
+    }
+
+    /**
+     * Reads never block, since they are served from the current snapshot.
+     */
+    @Override
+    public boolean isBlockingRead() {
+        return false;
+    }
+
+    /**
+     * Exports the snapshot current at the moment the export starts, so concurrent modifications are never seen.
+     */
+    @Override
+    public void exportAll(Consumer<Widget> action) {
+        log.info("Exporting all widgets of the current snapshot");
+        widgetRepository.forEachOrderByZAsc(action);
+    }
+
+    /**
+     * Keeps events until the modification is published, since readers don't see it before.
+     */
+    @Override
+    protected void publish(WidgetEvent event) {
+        pendingEvents.add(event);
+    }
+
+    /**
+     * Performs a modification under the lock and publishes its events once it's visible to readers, still holding
+     * the lock so that events of different modifications are not mixed up. Events of attempts repeated by
+     * the repository are discarded. The trace of the operation is started before waiting for the lock, so that
+     * the wait counts towards the duration of the operation.
+     */
+    private <T> T write(String operation, Supplier<T> modification) {
+        return widgetTracer.trace(operation, () -> writeLocked(modification));
+    }
+
+    private <T> T writeLocked(Supplier<T> modification) {
+        long started = System.nanoTime();
+        lock.lock();
+        long waited = System.nanoTime() - started;
+        widgetMetrics.recordLockWait(WidgetMetrics.WRITE_LOCK, waited);
+        widgetTracer.record(WidgetTracer.Stage.LOCK, waited);
+        try {
+            T result = widgetRepository.write(() -> {
+                pendingEvents.clear();
+                return modification.get();
+            });
+            List<WidgetEvent> events = new ArrayList<>(pendingEvents);
+            pendingEvents.clear();
+            events.forEach(super::publish);
+            return result;
+        } finally {
+            pendingEvents.clear();
+            lock.unlock();
+        }
+    }
+}
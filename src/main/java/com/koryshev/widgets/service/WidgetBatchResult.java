@@ -0,0 +1,21 @@
+package com.koryshev.widgets.service;
+
+import com.koryshev.widgets.domain.model.Widget;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Widgets created and updated by a batch, in the order they were requested.
+ *
+ * @author Ivan Koryshev
+ */
+@Getter
+@RequiredArgsConstructor
+public class WidgetBatchResult {
+
+    private final List<Widget> created;
+
+    private final List<Widget> updated;
+}
@@ -0,0 +1,212 @@
+package com.koryshev.widgets.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheWriter;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.koryshev.widgets.config.WidgetProperties;
+import com.koryshev.widgets.domain.model.Widget;
+import com.koryshev.widgets.event.WidgetDeletedEvent;
+import com.koryshev.widgets.event.WidgetUpdatedEvent;
+import com.koryshev.widgets.event.WidgetsReorderedEvent;
+import com.koryshev.widgets.event.WidgetsShiftedEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * A bounded cache of widgets read by ID, enabled by {@code widgets.cache.enabled}.
+ * <p>
+ * Cached widgets are invalidated by change events after the change is committed, including every widget moved by
+ * a shift of z-indexes. To find those, z-indexes of cached widgets are indexed as well. A widget read before a change
+ * and cached after its invalidation would stay stale, so every invalidation advances a generation and widgets read
+ * in an earlier generation are not cached. Checking the generation and caching are atomic with respect to
+ * invalidations.
+ * <p>
+ * Widgets are copied when cached and when returned, so callers are free to modify them.
+ *
+ * @author Ivan Koryshev
+ */
+@Slf4j
+@Component
+public class WidgetCache {
+
+    private static final String CACHE_NAME = "widgets";
+
+    private final Cache<UUID, Widget> cache;
+    private final NavigableSet<CachedZ> cachedZ = new ConcurrentSkipListSet<>();
+    private final ReadWriteLock invalidationLock = new ReentrantReadWriteLock();
+    private volatile long generation;
+
+    public WidgetCache(WidgetProperties widgetProperties, ObjectProvider<MeterRegistry> meterRegistry) {
+        WidgetProperties.Cache properties = widgetProperties.getCache();
+        if (!properties.isEnabled()) {
+            cache = null;
+            return;
+        }
+
+        // The writer is called atomically with changes of an entry, so the index of z-indexes never misses one
+        cache = Caffeine.newBuilder()
+                .maximumSize(properties.getMaximumSize())
+                .recordStats()
+                .writer(new CacheWriter<UUID, Widget>() {
+                    @Override
+                    public void write(UUID widgetId, Widget widget) {
+                        cachedZ.add(new CachedZ(widget.getZ(), widgetId));
+                    }
+
+                    @Override
+                    public void delete(UUID widgetId, Widget widget, RemovalCause cause) {
+                        if (widget != null) {
+                            cachedZ.remove(new CachedZ(widget.getZ(), widgetId));
+                        }
+                    }
+                })
+                .build();
+        meterRegistry.ifAvailable(registry -> CaffeineCacheMetrics.monitor(registry, cache, CACHE_NAME));
+        log.info("Caching up to {} widgets", properties.getMaximumSize());
+    }
+
+    /**
+     * Returns a cached widget, or reads and caches it.
+     *
+     * @param widgetId the widget ID to return
+     * @param reader   the function reading the widget if it's not cached
+     * @return the widget, if exists
+     */
+    public Optional<Widget> get(UUID widgetId, Function<UUID, Optional<Widget>> reader) {
+        if (cache == null) {
+            return reader.apply(widgetId);
+        }
+
+        Widget cached = cache.getIfPresent(widgetId);
+        if (cached != null) {
+            return Optional.of(copy(cached));
+        }
+
+        long readGeneration = generation;
+        Optional<Widget> widget = reader.apply(widgetId);
+        widget.ifPresent(value -> {
+            invalidationLock.readLock().lock();
+            try {
+                if (generation == readGeneration) {
+                    cache.asMap().putIfAbsent(widgetId, copy(value));
+                }
+            } finally {
+                invalidationLock.readLock().unlock();
+            }
+        });
+        return widget;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUpdated(WidgetUpdatedEvent event) {
+        invalidate(event.getWidget().getId());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDeleted(WidgetDeletedEvent event) {
+        invalidate(event.getWidget().getId());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onShifted(WidgetsShiftedEvent event) {
+        if (cache == null) {
+            return;
+        }
+
+        List<UUID> shiftedIds = new ArrayList<>();
+        invalidate(() -> {
+            cachedZ.subSet(CachedZ.lowest(event.getFrom()), true, CachedZ.highest(event.getTo()), true)
+                    .forEach(entry -> shiftedIds.add(entry.widgetId));
+            cache.invalidateAll(shiftedIds);
+        });
+        log.debug("Invalidated {} cached widgets shifted from z-indexes {} to {}", shiftedIds.size(),
+                event.getFrom(), event.getTo());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onReordered(WidgetsReorderedEvent event) {
+        if (cache == null) {
+            return;
+        }
+
+        invalidate(cache::invalidateAll);
+    }
+
+    private void invalidate(UUID widgetId) {
+        if (cache == null) {
+            return;
+        }
+
+        invalidate(() -> cache.invalidate(widgetId));
+    }
+
+    private void invalidate(Runnable invalidation) {
+        invalidationLock.writeLock().lock();
+        try {
+            generation++;
+            invalidation.run();
+        } finally {
+            invalidationLock.writeLock().unlock();
+        }
+    }
+
+    private static Widget copy(Widget widget) {
+        return widget.toBuilder().build();
+    }
+
+    /**
+     * A z-index of a cached widget, ordered by z-index and then by ID.
+     */
+    private static final class CachedZ implements Comparable<CachedZ> {
+
+        private static final UUID MIN_ID = new UUID(Long.MIN_VALUE, Long.MIN_VALUE);
+        private static final UUID MAX_ID = new UUID(Long.MAX_VALUE, Long.MAX_VALUE);
+
+        final int z;
+        final UUID widgetId;
+
+        CachedZ(int z, UUID widgetId) {
+            this.z = z;
+            this.widgetId = widgetId;
+        }
+
+        static CachedZ lowest(int z) {
+            return new CachedZ(z, MIN_ID);
+        }
+
+        static CachedZ highest(int z) {
+            return new CachedZ(z, MAX_ID);
+        }
+
+        @Override
+        public int compareTo(CachedZ other) {
+            int comparison = Integer.compare(z, other.z);
+            return comparison != 0 ? comparison : widgetId.compareTo(other.widgetId);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof CachedZ && compareTo((CachedZ) other) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * z + widgetId.hashCode();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.koryshev.widgets.service;
+
+import com.koryshev.widgets.domain.model.Widget;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.UUID;
+
+/**
+ * A change of a widget inside a viewport.
+ *
+ * @author Ivan Koryshev
+ */
+@Getter
+@RequiredArgsConstructor
+public class WidgetChange {
+
+    private final WidgetChangeType type;
+
+    private final UUID widgetId;
+
+    /**
+     * The widget after the change, or {@code null} if it has left the viewport or has been deleted.
+     */
+    private final Widget widget;
+}
@@ -0,0 +1,376 @@
+package com.koryshev.widgets.service;
+
+import com.koryshev.widgets.config.WidgetProperties;
+import com.koryshev.widgets.domain.model.Widget;
+import com.koryshev.widgets.dto.WidgetPageRequestDto;
+import com.koryshev.widgets.event.WidgetCreatedEvent;
+import com.koryshev.widgets.event.WidgetDeletedEvent;
+import com.koryshev.widgets.event.WidgetEvent;
+import com.koryshev.widgets.event.WidgetUpdatedEvent;
+import com.koryshev.widgets.event.WidgetsReorderedEvent;
+import com.koryshev.widgets.event.WidgetsShiftedEvent;
+import com.koryshev.widgets.exception.ServiceBusyException;
+import com.koryshev.widgets.util.WidgetUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.data.domain.Slice;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams changes of widgets inside viewports to their subscribers, so that clients don't have to filter widgets
+ * again and again to find out what has changed.
+ * <p>
+ * A subscriber first receives the widgets inside its viewport as {@link WidgetChangeType#ENTERED}, then a change
+ * for every widget created, updated or deleted inside the viewport, entering or leaving it, and moved to another
+ * z-index by a shift of other widgets. Every subscription keeps the widgets inside its viewport indexed by z-index,
+ * so a shift announced as a range of z-indexes is turned into a change of every widget inside the viewport it moved.
+ * <p>
+ * Changes are received from change events after the change is committed, and handed off to a single dispatcher
+ * thread, so that making a change doesn't take longer the more subscriptions there are. The dispatcher applies
+ * changes to subscriptions in the order they were made, and all state of subscriptions is confined to it. Subscriptions
+ * are registered by the dispatcher too, so a new subscription only receives changes not dispatched yet, which reading
+ * its viewport may miss. The widgets inside a viewport are read in the background while changes are held back. Changes of single widgets carry the whole widget, so they're
+ * replayed over what's been read, whether it's seen them or not. A shift or rebalancing while reading can't be
+ * replayed this way, so the viewport is read again. Rebalancing reads every viewport again, sending the
+ * difference.
+ * <p>
+ * Changes waiting to be sent to a slow subscriber are bounded, and the subscription ends with an error when they
+ * overflow. Every subscription ends after a timeout, after which the client is expected to subscribe again.
+ *
+ * @author Ivan Koryshev
+ */
+@Slf4j
+@Component
+public class WidgetChangeFeed implements Closeable {
+
+    private static final int LOAD_CHUNK_SIZE = 1000;
+    private static final int MAX_LOAD_ATTEMPTS = 10;
+
+    private final ObjectProvider<WidgetService> widgetService;
+    private final TaskExecutor taskExecutor;
+    private final int bufferSize;
+    private final Duration timeout;
+    private final Set<Subscription> subscriptions = new HashSet<>();
+    private final ExecutorService dispatcher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "widget-changes");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public WidgetChangeFeed(ObjectProvider<WidgetService> widgetService, TaskExecutor taskExecutor,
+                            WidgetProperties widgetProperties) {
+        this.widgetService = widgetService;
+        this.taskExecutor = taskExecutor;
+        this.bufferSize = widgetProperties.getSubscriptions().getBufferSize();
+        this.timeout = widgetProperties.getSubscriptions().getTimeout();
+    }
+
+    /**
+     * Subscribes to changes of widgets inside a viewport.
+     *
+     * @param dto the DTO containing the viewport rectangle
+     * @return the changes, starting with the widgets currently inside the viewport
+     */
+    public Flux<WidgetChange> subscribe(WidgetPageRequestDto dto) {
+        return Flux.<WidgetChange>create(sink -> {
+            Subscription subscription = new Subscription(dto, sink);
+            dispatcher.execute(() -> {
+                subscription.startLoading();
+                subscriptions.add(subscription);
+                log.debug("Subscribed to changes, {} subscriptions", subscriptions.size());
+                load(subscription, 1);
+            });
+            sink.onDispose(() -> dispatcher.execute(() -> {
+                subscriptions.remove(subscription);
+                log.debug("Ended subscription, {} left", subscriptions.size());
+            }));
+        }).onBackpressureBuffer(bufferSize).take(timeout);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCreated(WidgetCreatedEvent event) {
+        dispatch(event);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUpdated(WidgetUpdatedEvent event) {
+        dispatch(event);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDeleted(WidgetDeletedEvent event) {
+        dispatch(event);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onShifted(WidgetsShiftedEvent event) {
+        dispatch(event);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onReordered(WidgetsReorderedEvent event) {
+        dispatcher.execute(() -> subscriptions.forEach(subscription -> {
+            if (subscription.startLoading()) {
+                load(subscription, 1);
+            }
+        }));
+    }
+
+    /**
+     * Stops dispatching changes once the changes already handed off have been applied.
+     */
+    @Override
+    public void close() {
+        dispatcher.shutdown();
+        try {
+            dispatcher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void dispatch(WidgetEvent event) {
+        dispatcher.execute(() -> subscriptions.forEach(subscription -> subscription.apply(event)));
+    }
+
+    /**
+     * Reads the widgets inside the viewport of a subscription in the background, since reading may block, and hands
+     * them off to the dispatcher, reading them again if they may miss a shift.
+     */
+    private void load(Subscription subscription, int attempt) {
+        taskExecutor.execute(() -> {
+            List<Widget> widgets;
+            try {
+                widgets = read(subscription.viewport);
+            } catch (RuntimeException e) {
+                subscription.sink.error(e);
+                return;
+            }
+
+            dispatcher.execute(() -> {
+                if (subscription.finishLoading(widgets)) {
+                    return;
+                }
+                log.debug("Widgets shifted while reading a viewport, attempt {}", attempt);
+                if (attempt == MAX_LOAD_ATTEMPTS) {
+                    subscription.sink.error(new ServiceBusyException());
+                } else {
+                    load(subscription, attempt + 1);
+                }
+            });
+        });
+    }
+
+    /**
+     * Reads the widgets inside a viewport, copying them, since repositories may keep changing the widgets they return.
+     */
+    private List<Widget> read(WidgetPageRequestDto viewport) {
+        WidgetService service = widgetService.getObject();
+        List<Widget> widgets = new ArrayList<>();
+        Slice<Widget> slice = service.findAll(0, LOAD_CHUNK_SIZE, viewport);
+        while (true) {
+            slice.forEach(widget -> widgets.add(widget.toBuilder().build()));
+            if (!slice.hasNext() || widgets.isEmpty()) {
+                return widgets;
+            }
+            slice = service.findAllAfter(widgets.get(widgets.size() - 1).getZ(), LOAD_CHUNK_SIZE, viewport);
+        }
+    }
+
+    /**
+     * A subscriber's viewport along with the widgets inside it, as last sent to the subscriber. Only the dispatcher
+     * accesses it, so it needs no locking.
+     */
+    private static final class Subscription {
+
+        final WidgetPageRequestDto viewport;
+        final FluxSink<WidgetChange> sink;
+        final int x;
+        final int y;
+        final int width;
+        final int height;
+
+        final Map<UUID, Widget> widgets = new HashMap<>();
+        final NavigableMap<Integer, UUID> widgetIdsByZ = new TreeMap<>();
+
+        /**
+         * Changes held back while the viewport is being read, or {@code null} if it's not.
+         */
+        List<WidgetEvent> pending;
+
+        /**
+         * Whether widgets have been shifted or rebalanced while the viewport was being read.
+         */
+        boolean stale;
+
+        Subscription(WidgetPageRequestDto viewport, FluxSink<WidgetChange> sink) {
+            this.viewport = viewport;
+            this.sink = sink;
+            // Find center, width and height for the specified rectangle
+            x = (viewport.getXBottomLeft() + viewport.getXTopRight()) / 2;
+            y = (viewport.getYBottomLeft() + viewport.getYTopRight()) / 2;
+            width = viewport.getXTopRight() - viewport.getXBottomLeft();
+            height = viewport.getYTopRight() - viewport.getYBottomLeft();
+        }
+
+        /**
+         * Starts holding back changes until the viewport is read.
+         *
+         * @return {@code false} if the viewport is already being read
+         */
+        boolean startLoading() {
+            if (pending != null) {
+                stale = true;
+                return false;
+            }
+            pending = new ArrayList<>();
+            stale = false;
+            return true;
+        }
+
+        /**
+         * Replaces the widgets inside the viewport with the ones read, replaying the changes held back, and sends
+         * the difference.
+         *
+         * @return {@code false} if the widgets read may miss a shift, so the viewport must be read again
+         */
+        boolean finishLoading(List<Widget> read) {
+            if (stale) {
+                stale = false;
+                pending.clear();
+                return false;
+            }
+
+            Map<UUID, Widget> sent = new HashMap<>(widgets);
+            widgets.clear();
+            widgetIdsByZ.clear();
+            read.forEach(this::put);
+            pending.forEach(event -> apply(event, false));
+            pending = null;
+
+            widgets.values().stream()
+                    .sorted(Comparator.comparing(Widget::getZ))
+                    .forEach(widget -> {
+                        Widget previous = sent.remove(widget.getId());
+                        if (previous == null) {
+                            emit(WidgetChangeType.ENTERED, widget);
+                        } else if (!previous.equals(widget)) {
+                            emit(isShift(previous, widget) ? WidgetChangeType.SHIFTED : WidgetChangeType.UPDATED,
+                                    widget);
+                        }
+                    });
+            sent.keySet().forEach(widgetId -> emit(WidgetChangeType.LEFT, widgetId, null));
+            return true;
+        }
+
+        void apply(WidgetEvent event) {
+            if (pending == null) {
+                apply(event, true);
+            } else if (event instanceof WidgetsShiftedEvent) {
+                stale = true;
+            } else {
+                pending.add(event);
+            }
+        }
+
+        private void apply(WidgetEvent event, boolean emit) {
+            if (event instanceof WidgetCreatedEvent) {
+                Widget widget = ((WidgetCreatedEvent) event).getWidget();
+                if (contains(widget)) {
+                    put(widget);
+                    if (emit) {
+                        emit(WidgetChangeType.CREATED, widget);
+                    }
+                }
+            } else if (event instanceof WidgetUpdatedEvent) {
+                Widget widget = ((WidgetUpdatedEvent) event).getWidget();
+                boolean wasInside = remove(widget.getId());
+                if (contains(widget)) {
+                    put(widget);
+                    if (emit) {
+                        emit(wasInside ? WidgetChangeType.UPDATED : WidgetChangeType.ENTERED, widget);
+                    }
+                } else if (wasInside && emit) {
+                    emit(WidgetChangeType.LEFT, widget.getId(), null);
+                }
+            } else if (event instanceof WidgetDeletedEvent) {
+                UUID widgetId = ((WidgetDeletedEvent) event).getWidget().getId();
+                if (remove(widgetId) && emit) {
+                    emit(WidgetChangeType.DELETED, widgetId, null);
+                }
+            } else if (event instanceof WidgetsShiftedEvent) {
+                WidgetsShiftedEvent shift = (WidgetsShiftedEvent) event;
+                // The range is cleared before putting shifted widgets back, since they may land within it
+                NavigableMap<Integer, UUID> range = widgetIdsByZ.subMap(shift.getFrom(), true, shift.getTo(), true);
+                List<UUID> shiftedIds = new ArrayList<>(range.values());
+                range.clear();
+                for (UUID widgetId : shiftedIds) {
+                    Widget widget = widgets.get(widgetId);
+                    Widget shifted = widget.toBuilder().z(widget.getZ() + shift.getOffset()).build();
+                    put(shifted);
+                    if (emit) {
+                        emit(WidgetChangeType.SHIFTED, shifted);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Checks if a widget has only been moved to another z-index, which also updates its modification date.
+         */
+        private static boolean isShift(Widget previous, Widget widget) {
+            return !Objects.equals(previous.getZ(), widget.getZ()) && previous.toBuilder()
+                    .z(widget.getZ())
+                    .lastModifiedDate(widget.getLastModifiedDate())
+                    .build()
+                    .equals(widget);
+        }
+
+        private boolean contains(Widget widget) {
+            return WidgetUtil.rectangleContains(x, y, width, height, widget);
+        }
+
+        private void put(Widget widget) {
+            widgets.put(widget.getId(), widget);
+            widgetIdsByZ.put(widget.getZ(), widget.getId());
+        }
+
+        private boolean remove(UUID widgetId) {
+            Widget widget = widgets.remove(widgetId);
+            if (widget == null) {
+                return false;
+            }
+            widgetIdsByZ.remove(widget.getZ(), widgetId);
+            return true;
+        }
+
+        private void emit(WidgetChangeType type, Widget widget) {
+            emit(type, widget.getId(), widget);
+        }
+
+        private void emit(WidgetChangeType type, UUID widgetId, Widget widget) {
+            sink.next(new WidgetChange(type, widgetId, widget));
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.koryshev.widgets.service;
+
+/**
+ * Kinds of changes of widgets inside a viewport sent to its subscribers.
+ *
+ * @author Ivan Koryshev
+ */
+public enum WidgetChangeType {
+
+    /**
+     * A widget has been created inside the viewport.
+     */
+    CREATED,
+
+    /**
+     * A widget has entered the viewport, either moved inside or present when subscribing.
+     */
+    ENTERED,
+
+    /**
+     * A widget inside the viewport has been updated and stayed inside.
+     */
+    UPDATED,
+
+    /**
+     * A widget inside the viewport has been moved to another z-index by a shift of other widgets or by rebalancing.
+     */
+    SHIFTED,
+
+    /**
+     * A widget has been moved outside the viewport.
+     */
+    LEFT,
+
+    /**
+     * A widget inside the viewport has been deleted.
+     */
+    DELETED
+}
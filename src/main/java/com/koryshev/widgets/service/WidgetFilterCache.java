@@ -0,0 +1,255 @@
+package com.koryshev.widgets.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.ConcurrentStatsCounter;
+import com.github.benmanes.caffeine.cache.stats.StatsCounter;
+import com.koryshev.widgets.config.WidgetProperties;
+import com.koryshev.widgets.domain.model.Widget;
+import com.koryshev.widgets.event.WidgetCreatedEvent;
+import com.koryshev.widgets.event.WidgetDeletedEvent;
+import com.koryshev.widgets.event.WidgetUpdatedEvent;
+import com.koryshev.widgets.event.WidgetsReorderedEvent;
+import com.koryshev.widgets.event.WidgetsShiftedEvent;
+import com.koryshev.widgets.util.WidgetUtil;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * A bounded cache of pages and slices of widgets filtered by a rectangle, enabled by
+ * {@code widgets.filter-cache.enabled}. Entries are keyed by the rectangle, normalized to its center, width and height
+ * the same way repositories do, and by the requested page or z-index to continue after.
+ * <p>
+ * Entries are invalidated lazily by change events after the change is committed. Every change advances a store-wide
+ * version and is recorded in a bounded log of recent changes, which is all a change costs, so it doesn't hold up
+ * reads however many entries are cached. Every entry keeps the version it was read at, and a cached entry is checked
+ * against the changes made since then when it's requested. It's dropped if any of them may affect it, or if some of
+ * them have already left the log. A created, updated or deleted widget affects the rectangles containing it before or
+ * after the change, while a shift keeps the order of widgets and only affects entries returning shifted widgets or
+ * slices whose z-index to continue after the shifted widgets pass.
+ * <p>
+ * Widgets are copied when cached and when returned, so callers are free to modify them.
+ *
+ * @author Ivan Koryshev
+ */
+@Slf4j
+@Component
+public class WidgetFilterCache {
+
+    private static final String CACHE_NAME = "widgetFilters";
+    /**
+     * The number of recent changes remembered, entries older than all of them are dropped when requested.
+     */
+    private static final int CHANGE_LOG_SIZE = 256;
+
+    private final Cache<Key, Entry> cache;
+    private final StatsCounter stats = new ConcurrentStatsCounter();
+    private final AtomicReferenceArray<Change> changes = new AtomicReferenceArray<>(CHANGE_LOG_SIZE);
+    private volatile long version;
+
+    public WidgetFilterCache(WidgetProperties widgetProperties, ObjectProvider<MeterRegistry> meterRegistry) {
+        WidgetProperties.FilterCache properties = widgetProperties.getFilterCache();
+        if (!properties.isEnabled()) {
+            cache = null;
+            return;
+        }
+
+        cache = Caffeine.newBuilder()
+                .maximumSize(properties.getMaximumSize())
+                .recordStats(() -> stats)
+                .build();
+        meterRegistry.ifAvailable(registry -> CaffeineCacheMetrics.monitor(registry, cache, CACHE_NAME));
+        log.info("Caching up to {} filtered pages", properties.getMaximumSize());
+    }
+
+    /**
+     * Returns a cached page of widgets inside a rectangle, or reads and caches it.
+     *
+     * @param x        the x coordinate of the rectangle center
+     * @param y        the y coordinate of the rectangle center
+     * @param width    the rectangle width
+     * @param height   the rectangle height
+     * @param pageable the requested page
+     * @param reader   the function reading the page if it's not cached
+     * @return the page of widgets
+     */
+    public Page<Widget> getPage(int x, int y, int width, int height, Pageable pageable,
+                                Supplier<Page<Widget>> reader) {
+        Key key = new Key(x, y, width, height, null, pageable.getPageNumber(), pageable.getPageSize());
+        return (Page<Widget>) get(key, reader);
+    }
+
+    /**
+     * Returns a cached slice of widgets inside a rectangle following a z-index, or reads and caches it.
+     *
+     * @param x      the x coordinate of the rectangle center
+     * @param y      the y coordinate of the rectangle center
+     * @param width  the rectangle width
+     * @param height the rectangle height
+     * @param z      the z-index of the last widget returned previously
+     * @param size   the maximum number of widgets to return
+     * @param reader the function reading the slice if it's not cached
+     * @return the slice of widgets
+     */
+    public Slice<Widget> getSliceAfter(int x, int y, int width, int height, int z, int size,
+                                       Supplier<Slice<Widget>> reader) {
+        return get(new Key(x, y, width, height, z, 0, size), reader);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCreated(WidgetCreatedEvent event) {
+        Widget widget = event.getWidget();
+        record((key, slice) -> key.contains(widget));
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUpdated(WidgetUpdatedEvent event) {
+        Widget previous = event.getPrevious();
+        Widget widget = event.getWidget();
+        record((key, slice) -> key.contains(previous) || key.contains(widget));
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDeleted(WidgetDeletedEvent event) {
+        Widget widget = event.getWidget();
+        record((key, slice) -> key.contains(widget));
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onShifted(WidgetsShiftedEvent event) {
+        int from = event.getFrom();
+        int to = event.getTo();
+        int shiftedTo = to + event.getOffset();
+        record((key, slice) -> key.afterZ != null && from <= key.afterZ && key.afterZ < shiftedTo
+                || slice.getContent().stream().anyMatch(widget -> from <= widget.getZ() && widget.getZ() <= to));
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onReordered(WidgetsReorderedEvent event) {
+        record((key, slice) -> true);
+    }
+
+    private Slice<Widget> get(Key key, Supplier<? extends Slice<Widget>> reader) {
+        if (cache == null) {
+            return reader.get();
+        }
+
+        // Entries are looked up quietly, so that the ones dropped as invalid count as misses rather than hits
+        Entry cached = cache.policy().getIfPresentQuietly(key);
+        if (cached != null) {
+            long current = version;
+            if (isValid(key, cached, current)) {
+                stats.recordHits(1);
+                if (cached.version != current) {
+                    // Changes checked once don't have to be checked again
+                    cache.asMap().replace(key, cached, new Entry(cached.slice, current));
+                }
+                return copy(cached.slice);
+            }
+            cache.asMap().remove(key, cached);
+        }
+        stats.recordMisses(1);
+
+        // Changes made while reading are checked once the entry is requested, since the read might have missed them
+        long readVersion = version;
+        Slice<Widget> slice = reader.get();
+        cache.asMap().putIfAbsent(key, new Entry(copy(slice), readVersion));
+        return slice;
+    }
+
+    /**
+     * Checks that none of the changes made since an entry was read, up to the specified version, affect it. Changes
+     * are read without locking, so the check fails if the log has wrapped around meanwhile.
+     */
+    private boolean isValid(Key key, Entry entry, long current) {
+        if (current - entry.version >= CHANGE_LOG_SIZE) {
+            return false;
+        }
+        for (long changeVersion = entry.version; changeVersion < current; changeVersion++) {
+            if (changes.get(slot(changeVersion)).affects(key, entry.slice)) {
+                return false;
+            }
+        }
+        return version - entry.version < CHANGE_LOG_SIZE;
+    }
+
+    /**
+     * Records a change in the log before advancing the version, so that the change is visible to anyone seeing the
+     * new version.
+     */
+    private synchronized void record(Change change) {
+        if (cache == null) {
+            return;
+        }
+
+        changes.set(slot(version), change);
+        version++;
+    }
+
+    private static int slot(long version) {
+        return (int) (version % CHANGE_LOG_SIZE);
+    }
+
+    private static Slice<Widget> copy(Slice<Widget> slice) {
+        List<Widget> content = slice.getContent().stream()
+                .map(widget -> widget.toBuilder().build())
+                .collect(toList());
+        if (slice instanceof Page) {
+            return new PageImpl<>(content, slice.getPageable(), ((Page<Widget>) slice).getTotalElements());
+        }
+        return new SliceImpl<>(content, slice.getPageable(), slice.hasNext());
+    }
+
+    @FunctionalInterface
+    private interface Change {
+
+        boolean affects(Key key, Slice<Widget> slice);
+    }
+
+    /**
+     * A cached page or slice with the version it was read at.
+     */
+    @RequiredArgsConstructor
+    private static final class Entry {
+
+        final Slice<Widget> slice;
+        final long version;
+    }
+
+    /**
+     * A normalized rectangle with the requested page, or the z-index to continue after and the size of a slice.
+     */
+    @EqualsAndHashCode
+    @RequiredArgsConstructor
+    private static final class Key {
+
+        final int x;
+        final int y;
+        final int width;
+        final int height;
+        final Integer afterZ;
+        final int page;
+        final int size;
+
+        boolean contains(Widget widget) {
+            return WidgetUtil.rectangleContains(x, y, width, height, widget);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.koryshev.widgets.service;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * A line of an imported file that has been rejected, and the reason why.
+ *
+ * @author Ivan Koryshev
+ */
+@Getter
+@RequiredArgsConstructor
+public class WidgetImportError {
+
+    private final long line;
+
+    private final String message;
+}
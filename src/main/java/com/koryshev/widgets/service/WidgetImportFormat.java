@@ -0,0 +1,20 @@
+package com.koryshev.widgets.service;
+
+/**
+ * Formats of files widgets can be imported from.
+ *
+ * @author Ivan Koryshev
+ */
+public enum WidgetImportFormat {
+
+    /**
+     * Newline-delimited JSON, one widget per line, the same as in requests creating widgets.
+     */
+    NDJSON,
+
+    /**
+     * Comma-separated values with a header naming the columns {@code x}, {@code y}, {@code z}, {@code width} and
+     * {@code height} in any order. The {@code z} column and its values may be omitted.
+     */
+    CSV
+}
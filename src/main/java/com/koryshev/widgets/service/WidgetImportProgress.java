@@ -0,0 +1,22 @@
+package com.koryshev.widgets.service;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * The progress of an import after a chunk of widgets has been created.
+ *
+ * @author Ivan Koryshev
+ */
+@Getter
+@RequiredArgsConstructor
+public class WidgetImportProgress {
+
+    private final long lines;
+
+    private final long chunks;
+
+    private final long imported;
+
+    private final long rejected;
+}
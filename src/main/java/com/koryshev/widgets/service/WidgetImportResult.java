@@ -0,0 +1,26 @@
+package com.koryshev.widgets.service;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.List;
+
+/**
+ * The numbers of lines read, chunks created, imported and rejected widgets, and errors of the first rejected lines.
+ *
+ * @author Ivan Koryshev
+ */
+@Getter
+@RequiredArgsConstructor
+public class WidgetImportResult {
+
+    private final long lines;
+
+    private final long chunks;
+
+    private final long imported;
+
+    private final long rejected;
+
+    private final List<WidgetImportError> errors;
+}
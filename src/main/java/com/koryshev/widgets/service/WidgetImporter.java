@@ -0,0 +1,232 @@
+package com.koryshev.widgets.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.koryshev.widgets.config.WidgetProperties;
+import com.koryshev.widgets.dto.WidgetBatchRequestDto;
+import com.koryshev.widgets.dto.WidgetRequestDto;
+import com.koryshev.widgets.exception.InvalidImportException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static java.util.stream.Collectors.joining;
+
+/**
+ * Imports widgets from a file read line by line, so that files of any size can be imported.
+ * <p>
+ * Every line is validated the same way as a request creating a widget. Valid widgets are created in chunks, each
+ * of them applied as a batch: a widget with a z-index gets exactly that z-index, pushing existing widgets upwards,
+ * and widgets without a z-index are placed on top of all of them. That's the same as creating the widgets one by one
+ * only while their z-indexes increase and precede widgets placed on top, so a chunk ends early once a widget with
+ * a z-index doesn't follow them: a repeated or lower z-index, for example, places the later widget below the earlier
+ * one. Invalid lines are skipped and reported, and chunks created before a failure stay created.
+ * <p>
+ * Progress is passed on after every chunk, and the final counts are returned with the result.
+ *
+ * @author Ivan Koryshev
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class WidgetImporter {
+
+    private static final List<String> CSV_COLUMNS = List.of("x", "y", "z", "width", "height");
+
+    private final WidgetService widgetService;
+
+    private final WidgetProperties widgetProperties;
+
+    private final ObjectMapper objectMapper;
+
+    private final Validator validator;
+
+    /**
+     * Imports widgets from a file.
+     *
+     * @param reader the reader of the file
+     * @param format the format of the file
+     * @return the numbers of lines read, chunks created, imported and rejected widgets, and the first errors
+     * @throws IOException            if reading the file fails
+     * @throws InvalidImportException if the file has no valid CSV header
+     */
+    public WidgetImportResult importWidgets(BufferedReader reader, WidgetImportFormat format) throws IOException {
+        return importWidgets(reader, format, progress -> {
+        });
+    }
+
+    /**
+     * Imports widgets from a file, passing on the progress after every chunk created.
+     *
+     * @param reader   the reader of the file
+     * @param format   the format of the file
+     * @param listener the listener of the progress
+     * @return the numbers of lines read, chunks created, imported and rejected widgets, and the first errors
+     * @throws IOException            if reading the file fails
+     * @throws InvalidImportException if the file has no valid CSV header
+     */
+    public WidgetImportResult importWidgets(BufferedReader reader, WidgetImportFormat format,
+                                            Consumer<WidgetImportProgress> listener) throws IOException {
+        WidgetProperties.BulkImport properties = widgetProperties.getBulkImport();
+        log.info("Importing widgets from {}, chunks of {}", format, properties.getChunkSize());
+
+        LineParser parser = format == WidgetImportFormat.CSV ? csvParser(reader.readLine()) : this::parseJson;
+        long lineNumber = format == WidgetImportFormat.CSV ? 1 : 0;
+        long chunks = 0;
+        long imported = 0;
+        long rejected = 0;
+        List<WidgetImportError> errors = new ArrayList<>();
+        List<WidgetRequestDto> chunk = new ArrayList<>(properties.getChunkSize());
+        // The largest z-index in the chunk, and whether the chunk places any widget on top
+        Integer chunkMaxZ = null;
+        boolean chunkPlacesOnTop = false;
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+
+            WidgetRequestDto dto;
+            try {
+                dto = parser.parse(line);
+                validate(dto);
+            } catch (InvalidLineException e) {
+                rejected++;
+                if (errors.size() < properties.getMaxErrors()) {
+                    errors.add(new WidgetImportError(lineNumber, e.getMessage()));
+                }
+                continue;
+            }
+
+            Integer z = dto.getZ();
+            if (chunk.size() == properties.getChunkSize()
+                    || z != null && (chunkPlacesOnTop || chunkMaxZ != null && z <= chunkMaxZ)) {
+                imported += create(chunk);
+                chunks++;
+                chunkMaxZ = null;
+                chunkPlacesOnTop = false;
+                log.info("Imported {} widgets, read {} lines, rejected {}", imported, lineNumber, rejected);
+                listener.accept(new WidgetImportProgress(lineNumber, chunks, imported, rejected));
+            }
+            chunk.add(dto);
+            if (z == null) {
+                chunkPlacesOnTop = true;
+            } else {
+                chunkMaxZ = z;
+            }
+        }
+        if (!chunk.isEmpty()) {
+            imported += create(chunk);
+            chunks++;
+            listener.accept(new WidgetImportProgress(lineNumber, chunks, imported, rejected));
+        }
+
+        log.info("Imported {} widgets in {} chunks from {} lines, rejected {}", imported, chunks, lineNumber, rejected);
+        return new WidgetImportResult(lineNumber, chunks, imported, rejected, errors);
+    }
+
+    private int create(List<WidgetRequestDto> chunk) {
+        int created = widgetService.applyBatch(WidgetBatchRequestDto.builder().create(chunk).build())
+                .getCreated().size();
+        chunk.clear();
+        return created;
+    }
+
+    private WidgetRequestDto parseJson(String line) {
+        try {
+            return objectMapper.readValue(line, WidgetRequestDto.class);
+        } catch (JsonProcessingException e) {
+            throw new InvalidLineException("Invalid JSON: " + e.getOriginalMessage());
+        }
+    }
+
+    /**
+     * Creates a parser of CSV lines with columns in the order specified by the header.
+     */
+    private LineParser csvParser(String header) {
+        if (header == null) {
+            throw new InvalidImportException("CSV header is missing");
+        }
+
+        Map<String, Integer> indexes = new HashMap<>();
+        String[] columns = header.split(",", -1);
+        for (int i = 0; i < columns.length; i++) {
+            String column = columns[i].trim();
+            if (!CSV_COLUMNS.contains(column) || indexes.put(column, i) != null) {
+                throw new InvalidImportException("Unexpected CSV column '" + column + "'");
+            }
+        }
+        for (String column : CSV_COLUMNS) {
+            if (!column.equals("z") && !indexes.containsKey(column)) {
+                throw new InvalidImportException("CSV column '" + column + "' is missing");
+            }
+        }
+
+        return line -> {
+            String[] values = line.split(",", -1);
+            if (values.length != columns.length) {
+                throw new InvalidLineException("Expected " + columns.length + " values, found " + values.length);
+            }
+            return WidgetRequestDto.builder()
+                    .x(parseInteger(values, indexes, "x"))
+                    .y(parseInteger(values, indexes, "y"))
+                    .z(parseInteger(values, indexes, "z"))
+                    .width(parseInteger(values, indexes, "width"))
+                    .height(parseInteger(values, indexes, "height"))
+                    .build();
+        };
+    }
+
+    private static Integer parseInteger(String[] values, Map<String, Integer> indexes, String column) {
+        Integer index = indexes.get(column);
+        String value = index != null ? values[index].trim() : "";
+        if (value.isEmpty()) {
+            return null;
+        }
+
+        try {
+            return Integer.valueOf(value);
+        } catch (NumberFormatException e) {
+            throw new InvalidLineException("Invalid " + column + " '" + value + "'");
+        }
+    }
+
+    private void validate(WidgetRequestDto dto) {
+        Set<ConstraintViolation<WidgetRequestDto>> violations = validator.validate(dto);
+        if (!violations.isEmpty()) {
+            throw new InvalidLineException(violations.stream()
+                    .map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+                    .sorted()
+                    .collect(joining(", ")));
+        }
+    }
+
+    @FunctionalInterface
+    private interface LineParser {
+
+        WidgetRequestDto parse(String line);
+    }
+
+    /**
+     * Thrown when a single line can't be imported.
+     */
+    private static final class InvalidLineException extends RuntimeException {
+
+        InvalidLineException(String message) {
+            super(message, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.koryshev.widgets.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Records metrics of widget operations, exposed by the {@code metrics} actuator endpoint:
+ * <ul>
+ * <li>{@code widgets.operations}, the latency of every service operation tagged by the operation and the exception
+ * thrown, if any;</li>
+ * <li>{@code widgets.shift.cascade}, the number of widgets shifted upwards to free a z-index;</li>
+ * <li>{@code widgets.filter.candidates} and {@code widgets.filter.returned}, the number of widgets inside
+ * a rectangle and the number of them returned in a page;</li>
+ * <li>{@code widgets.lock.wait}, the time spent waiting for the lock serializing modifications, tagged by the lock
+ * mode, and {@code widgets.lock.optimistic.failures}, the number of optimistic reads repeated under the lock.</li>
+ * </ul>
+ * Operations are timed inside locks and transactions of the service, so waiting for a lock is only recorded by
+ * {@code widgets.lock.wait}. Timers and summaries publish percentiles and histograms, so that rare slow operations and
+ * cascade storms are visible. Timers of successful operations and of lock modes are registered upfront, so that
+ * recording them doesn't look them up in the registry.
+ *
+ * @author Ivan Koryshev
+ */
+@Component
+public class WidgetMetrics {
+
+    static final String CREATE = "create";
+    static final String UPDATE = "update";
+    static final String DELETE = "delete";
+    static final String APPLY_BATCH = "applyBatch";
+    static final String REBALANCE = "rebalance";
+    static final String FIND_ONE = "findOne";
+    static final String FIND_ALL = "findAll";
+    static final String FIND_ALL_FILTERED = "findAllFiltered";
+    static final String FIND_ALL_AFTER = "findAllAfter";
+    static final String FIND_ALL_AFTER_FILTERED = "findAllAfterFiltered";
+
+    static final String READ_LOCK = "read";
+    static final String WRITE_LOCK = "write";
+
+    private static final String NO_EXCEPTION = "None";
+    private static final double[] PERCENTILES = {0.5, 0.95, 0.99};
+    private static final List<String> OPERATIONS = List.of(CREATE, UPDATE, DELETE, APPLY_BATCH, REBALANCE, FIND_ONE,
+            FIND_ALL, FIND_ALL_FILTERED, FIND_ALL_AFTER, FIND_ALL_AFTER_FILTERED);
+
+    private final MeterRegistry registry;
+    private final DistributionSummary shiftCascade;
+    private final DistributionSummary filterCandidates;
+    private final DistributionSummary filterReturned;
+    private final Map<String, Timer> operationTimers = new HashMap<>();
+    private final Map<String, Timer> lockWaitTimers = new HashMap<>();
+    private final Counter optimisticReadFailures;
+
+    public WidgetMetrics(ObjectProvider<MeterRegistry> meterRegistry) {
+        registry = meterRegistry.getIfAvailable(SimpleMeterRegistry::new);
+        shiftCascade = summary("widgets.shift.cascade", "Widgets shifted upwards to free a z-index");
+        filterCandidates = summary("widgets.filter.candidates", "Widgets inside a filtered rectangle");
+        filterReturned = summary("widgets.filter.returned", "Widgets returned in a page of a filtered rectangle");
+        OPERATIONS.forEach(operation -> operationTimers.put(operation, operationTimer(operation, NO_EXCEPTION)));
+        List.of(READ_LOCK, WRITE_LOCK).forEach(mode -> lockWaitTimers.put(mode, lockWaitTimer(mode)));
+        optimisticReadFailures = registry.counter("widgets.lock.optimistic.failures");
+    }
+
+    /**
+     * Performs an operation and records its latency.
+     *
+     * @param operation the name of the operation
+     * @param action    the operation
+     * @param <T>       the type of the result
+     * @return the result of the operation
+     */
+    <T> T time(String operation, Supplier<T> action) {
+        long started = System.nanoTime();
+        String exception = NO_EXCEPTION;
+        try {
+            return action.get();
+        } catch (RuntimeException e) {
+            exception = e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            // Timers tagged by an exception are only looked up when an operation fails
+            Timer timer = exception.equals(NO_EXCEPTION) ? operationTimers.get(operation) : null;
+            if (timer == null) {
+                timer = operationTimer(operation, exception);
+            }
+            timer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    void recordShift(int shifted) {
+        shiftCascade.record(shifted);
+    }
+
+    void recordFilter(long candidates, int returned) {
+        filterCandidates.record(candidates);
+        filterReturned.record(returned);
+    }
+
+    void recordLockWait(String mode, long nanos) {
+        lockWaitTimers.get(mode).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordOptimisticReadFailure() {
+        optimisticReadFailures.increment();
+    }
+
+    private Timer operationTimer(String operation, String exception) {
+        return Timer.builder("widgets.operations")
+                .description("Latency of widget service operations")
+                .tag("operation", operation)
+                .tag("exception", exception)
+                .publishPercentiles(PERCENTILES)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private Timer lockWaitTimer(String mode) {
+        return Timer.builder("widgets.lock.wait")
+                .description("Time spent waiting for the lock serializing widget modifications")
+                .tag("mode", mode)
+                .publishPercentiles(PERCENTILES)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private DistributionSummary summary(String name, String description) {
+        return DistributionSummary.builder(name)
+                .description(description)
+                .baseUnit("widgets")
+                .publishPercentiles(PERCENTILES)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+}
@@ -0,0 +1,62 @@
+package com.koryshev.widgets.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Rebalances z-indexes of widgets in the background when a gap between neighbours runs out.
+ *
+ * @author Ivan Koryshev
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class WidgetRebalancer {
+
+    private final TaskExecutor taskExecutor;
+
+    private final ObjectProvider<WidgetService> widgetService;
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * Schedules rebalancing unless it is already pending.
+     * <p>
+     * If called within a transaction, rebalancing is scheduled after the transaction is committed, so that it sees
+     * the change that used up the gap.
+     */
+    public void schedule() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    submit();
+                }
+            });
+        } else {
+            submit();
+        }
+    }
+
+    private void submit() {
+        if (scheduled.compareAndSet(false, true)) {
+            taskExecutor.execute(this::rebalance);
+        }
+    }
+
+    private void rebalance() {
+        scheduled.set(false);
+        try {
+            widgetService.getObject().rebalance();
+        } catch (RuntimeException e) {
+            log.error("Failed to rebalance z-indexes", e);
+        }
+    }
+}
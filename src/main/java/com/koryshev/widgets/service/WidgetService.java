@@ -1,29 +1,52 @@
 package com.koryshev.widgets.service;
 
+import com.koryshev.widgets.config.WidgetProperties;
 import com.koryshev.widgets.domain.model.Widget;
 import com.koryshev.widgets.domain.repository.WidgetRepository;
+import com.koryshev.widgets.dto.WidgetBatchRequestDto;
+import com.koryshev.widgets.dto.WidgetBatchUpdateDto;
 import com.koryshev.widgets.dto.WidgetPageRequestDto;
 import com.koryshev.widgets.dto.WidgetRequestDto;
 import com.koryshev.widgets.dto.mapper.WidgetMapper;
+import com.koryshev.widgets.event.WidgetCreatedEvent;
+import com.koryshev.widgets.event.WidgetDeletedEvent;
+import com.koryshev.widgets.event.WidgetEvent;
+import com.koryshev.widgets.event.WidgetUpdatedEvent;
+import com.koryshev.widgets.event.WidgetsReorderedEvent;
+import com.koryshev.widgets.event.WidgetsShiftedEvent;
+import com.koryshev.widgets.exception.InvalidBatchException;
 import com.koryshev.widgets.exception.WidgetNotFoundException;
-import com.koryshev.widgets.util.WidgetUtil;
+import com.koryshev.widgets.exception.ZIndexOverflowException;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.data.domain.Sort;
 
-import java.awt.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
-
-import static java.util.stream.Collectors.toList;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * Manages {@link Widget} entries.
+ * <p>
+ * Every change is announced by a {@link WidgetEvent} once it's made. Modifications return copies of widgets, so that
+ * later modifications, such as rebalancing in the background, don't change widgets already returned.
  *
  * @author Ivan Koryshev
  */
@@ -31,33 +54,61 @@ import static java.util.stream.Collectors.toList;
 @NoArgsConstructor
 public class WidgetService {
 
+    private static final int SHIFT_PLAN_PAGE_SIZE = 1000;
+    private static final int EXPORT_CHUNK_SIZE = 1000;
+
     @Setter
     private WidgetMapper widgetMapper;
 
     @Setter
     private WidgetRepository widgetRepository;
 
+    @Setter
+    private WidgetProperties widgetProperties;
+
+    @Setter
+    private WidgetRebalancer widgetRebalancer;
+
+    @Setter
+    private WidgetCache widgetCache;
+
+    @Setter
+    private WidgetFilterCache widgetFilterCache;
+
+    @Setter
+    private ApplicationEventPublisher eventPublisher;
+
+    @Setter
+    private WidgetMetrics widgetMetrics;
+
+    @Setter
+    private WidgetTracer widgetTracer;
+
     /**
      * Creates a new widget from data specified in a DTO.
      *
      * @param dto the DTO containing widget details
      * @return the created widget
+     * @throws ZIndexOverflowException if the widget is placed on top, but the largest z-index is taken
      */
     public Widget create(WidgetRequestDto dto) {
-        log.info("Creating widget, z-index {}", dto.getZ());
-        Widget widget = widgetMapper.fromWidgetRequestDto(dto);
+        return perform(WidgetMetrics.CREATE, () -> {
+            widgetTracer.info(log, "Creating widget, z-index {}", dto.getZ());
+            Widget widget = widgetMapper.fromWidgetRequestDto(dto);
 
-        if (widget.getZ() == null) {
-            Integer z = widgetRepository.findMaxZ().orElse(0) + 1;
-            log.info("Z-index for new widget is not specified, setting value automatically to {}", z);
-            widget.setZ(z);
-        } else {
-            shift(dto.getZ());
-        }
+            if (widget.getZ() == null) {
+                Integer z = nextZ();
+                widgetTracer.info(log, "Z-index for new widget is not specified, setting value automatically to {}", z);
+                widget.setZ(z);
+            } else {
+                widget.setZ(allocateZ(dto.getZ()));
+            }
 
-        widget = widgetRepository.save(widget);
-        log.info("Created widget {}", widget.getId());
-        return widget;
+            widget = save(widget);
+            publish(new WidgetCreatedEvent(copy(widget)));
+            widgetTracer.info(log, "Created widget {}", widget.getId());
+            return detach(widget);
+        });
     }
 
     /**
@@ -67,34 +118,42 @@ public class WidgetService {
      * @param dto      the DTO containing data to update
      * @return the updated widget
      * @throws WidgetNotFoundException if such widget doesn't exist
+     * @throws ZIndexOverflowException if the widget is placed on top, but the largest z-index is taken
      */
     public Widget update(UUID widgetId, WidgetRequestDto dto) {
-        log.info("Updating widget {}, z-index {}", widgetId, dto.getZ());
-        Widget widget = widgetRepository.findById(widgetId)
-                .orElseThrow(() -> {
-                    log.warn("Attempted to update widget {}, which was not found", widgetId);
-                    return new WidgetNotFoundException();
-                });
+        return perform(WidgetMetrics.UPDATE, () -> {
+            widgetTracer.info(log, "Updating widget {}, z-index {}", widgetId, dto.getZ());
+            Widget widget = findById(widgetId)
+                    .orElseThrow(() -> {
+                        widgetTracer.warn(log, "Attempted to update widget {}, which was not found", widgetId);
+                        return new WidgetNotFoundException();
+                    });
+            Widget previous = copy(widget);
 
-        if (dto.getZ() == null) {
-            Integer z = widgetRepository.findMaxZ().orElse(0) + 1;
-            log.info("Updating z-index for widget {}, setting value automatically to {}", widgetId, z);
-            dto.setZ(z);
-            widgetRepository.updateZ(widget.getZ(), dto.getZ());
-        } else if (!widget.getZ().equals(dto.getZ())) {
-            log.info("Updating z-index for widget {}, from {} to {}", widgetId, widget.getZ(), dto.getZ());
-            shift(dto.getZ());
-            widgetRepository.updateZ(widget.getZ(), dto.getZ());
-        }
+            if (dto.getZ() == null) {
+                Integer z = nextZ();
+                widgetTracer.info(log, "Updating z-index for widget {}, setting value automatically to {}",
+                        widgetId, z);
+                dto.setZ(z);
+                updateZ(widget.getZ(), dto.getZ());
+            } else if (!widget.getZ().equals(dto.getZ())) {
+                widgetTracer.info(log, "Updating z-index for widget {}, from {} to {}", widgetId, widget.getZ(),
+                        dto.getZ());
+                dto.setZ(allocateZ(dto.getZ()));
+                // Allocating may have shifted the widget itself, while repositories returning copies don't update it
+                updateZ(currentZ(widgetId), dto.getZ());
+            }
 
-        widget.setX(dto.getX());
-        widget.setY(dto.getY());
-        widget.setZ(dto.getZ());
-        widget.setWidth(dto.getWidth());
-        widget.setHeight(dto.getHeight());
-        widget = widgetRepository.save(widget);
-        log.info("Updated widget {}", widget.getId());
-        return widget;
+            widget.setX(dto.getX());
+            widget.setY(dto.getY());
+            widget.setZ(dto.getZ());
+            widget.setWidth(dto.getWidth());
+            widget.setHeight(dto.getHeight());
+            widget = save(widget);
+            publish(new WidgetUpdatedEvent(previous, copy(widget)));
+            widgetTracer.info(log, "Updated widget {}", widget.getId());
+            return detach(widget);
+        });
     }
 
     /**
@@ -104,14 +163,144 @@ public class WidgetService {
      * @throws WidgetNotFoundException if such widget doesn't exist
      */
     public void delete(UUID widgetId) {
-        log.info("Deleting widget {}", widgetId);
-        widgetRepository.findById(widgetId)
-                .orElseThrow(() -> {
-                    log.warn("Attempted to delete widget {}, which was not found", widgetId);
-                    return new WidgetNotFoundException();
-                });
+        perform(WidgetMetrics.DELETE, () -> {
+            widgetTracer.info(log, "Deleting widget {}", widgetId);
+            Widget widget = findById(widgetId)
+                    .orElseThrow(() -> {
+                        widgetTracer.warn(log, "Attempted to delete widget {}, which was not found", widgetId);
+                        return new WidgetNotFoundException();
+                    });
 
-        widgetRepository.deleteById(widgetId);
+            deleteById(widgetId);
+            publish(new WidgetDeletedEvent(copy(widget)));
+        });
+    }
+
+    /**
+     * Creates, updates and deletes widgets specified in a DTO at once.
+     * <p>
+     * Deletions are applied first. Widgets with a z-index specified get exactly that z-index, and other widgets
+     * taking these z-indexes are shifted upwards as little as possible, keeping their order. Widgets without
+     * a z-index are placed on top of all others, created ones first, in the order they are specified. The shifts
+     * are calculated once for the whole batch and applied to contiguous ranges of widgets.
+     *
+     * @param dto the DTO containing widget changes
+     * @return the created and updated widgets
+     * @throws WidgetNotFoundException if a widget to update or delete doesn't exist
+     * @throws InvalidBatchException   if a widget is referenced or a z-index is specified more than once
+     * @throws ZIndexOverflowException if too few z-indexes are left on top for widgets placed there
+     */
+    public WidgetBatchResult applyBatch(WidgetBatchRequestDto dto) {
+        return perform(WidgetMetrics.APPLY_BATCH, () -> {
+            List<WidgetRequestDto> creates = dto.getCreate() != null ? dto.getCreate() : List.of();
+            List<WidgetBatchUpdateDto> updates = dto.getUpdate() != null ? dto.getUpdate() : List.of();
+            List<UUID> deletes = dto.getDelete() != null ? dto.getDelete() : List.of();
+            widgetTracer.info(log, "Applying batch of {} creates, {} updates and {} deletes", creates.size(),
+                    updates.size(), deletes.size());
+
+            // Validate the whole batch before changing anything
+            Set<UUID> referencedIds = new HashSet<>();
+            Map<UUID, Widget> updatedWidgets = new LinkedHashMap<>();
+            for (WidgetBatchUpdateDto update : updates) {
+                checkReferencedOnce(referencedIds, update.getId());
+                updatedWidgets.put(update.getId(), findExisting(update.getId()));
+            }
+            List<Widget> deletedWidgets = new ArrayList<>(deletes.size());
+            for (UUID widgetId : deletes) {
+                checkReferencedOnce(referencedIds, widgetId);
+                deletedWidgets.add(copy(findExisting(widgetId)));
+            }
+            NavigableSet<Integer> fixedZ = new TreeSet<>();
+            creates.forEach(create -> checkSpecifiedOnce(fixedZ, create.getZ()));
+            updates.forEach(update -> checkSpecifiedOnce(fixedZ, update.getWidget().getZ()));
+
+            for (Widget widget : deletedWidgets) {
+                deleteById(widget.getId());
+                publish(new WidgetDeletedEvent(widget));
+            }
+
+            List<ZShift> shifts = planShifts(fixedZ, updatedWidgets.keySet());
+            widgetTracer.info(log, "Planned {} shifts of existing widgets", shifts.size());
+
+            // Widgets without a z-index go on top of everything else
+            int top = widgetRepository.findMaxZ().orElse(0);
+            if (!fixedZ.isEmpty()) {
+                top = Math.max(top, fixedZ.last());
+            }
+            if (!shifts.isEmpty()) {
+                ZShift lastShift = shifts.get(shifts.size() - 1);
+                top = Math.max(top, lastShift.to + lastShift.offset);
+            }
+            // Updated widgets are moved above widgets placed on top, so their temporary z-indexes must fit too
+            int placedOnTop = (int) (creates.stream().filter(create -> create.getZ() == null).count()
+                    + updates.stream().filter(update -> update.getWidget().getZ() == null).count());
+            int step = topStep((long) top + updatedWidgets.size(), placedOnTop);
+            List<Integer> createZ = new ArrayList<>(creates.size());
+            for (WidgetRequestDto create : creates) {
+                if (create.getZ() == null) {
+                    top += step;
+                    createZ.add(top);
+                } else {
+                    createZ.add(create.getZ());
+                }
+            }
+            Map<UUID, Integer> updateZ = new HashMap<>();
+            for (WidgetBatchUpdateDto update : updates) {
+                if (update.getWidget().getZ() == null) {
+                    top += step;
+                    updateZ.put(update.getId(), top);
+                } else {
+                    updateZ.put(update.getId(), update.getWidget().getZ());
+                }
+            }
+
+            // Updated widgets are moved out of the way above all final z-indexes, so that shifts can take their places
+            Map<UUID, Integer> temporaryZ = new HashMap<>();
+            Map<UUID, Widget> previousWidgets = new HashMap<>();
+            for (Widget widget : updatedWidgets.values()) {
+                previousWidgets.put(widget.getId(), copy(widget));
+                temporaryZ.put(widget.getId(), ++top);
+                updateZ(widget.getZ(), top);
+            }
+
+            // Ranges are shifted from the top, so that every range is shifted to z-indexes already freed
+            for (int i = shifts.size() - 1; i >= 0; i--) {
+                ZShift shift = shifts.get(i);
+                widgetTracer.stage(WidgetTracer.Stage.SHIFT,
+                        () -> widgetRepository.shiftZRange(shift.from, shift.to, shift.offset));
+                publish(new WidgetsShiftedEvent(shift.from, shift.to, shift.offset));
+            }
+
+            List<Widget> updated = new ArrayList<>(updates.size());
+            for (WidgetBatchUpdateDto update : updates) {
+                Widget widget = updatedWidgets.get(update.getId());
+                Integer z = updateZ.get(update.getId());
+                updateZ(temporaryZ.get(update.getId()), z);
+
+                WidgetRequestDto widgetDto = update.getWidget();
+                widget.setX(widgetDto.getX());
+                widget.setY(widgetDto.getY());
+                widget.setZ(z);
+                widget.setWidth(widgetDto.getWidth());
+                widget.setHeight(widgetDto.getHeight());
+                widget = save(widget);
+                publish(new WidgetUpdatedEvent(previousWidgets.get(widget.getId()), copy(widget)));
+                updated.add(detach(widget));
+            }
+
+            List<Widget> created = new ArrayList<>(creates.size());
+            for (int i = 0; i < creates.size(); i++) {
+                Widget widget = widgetMapper.fromWidgetRequestDto(creates.get(i));
+                widget.setZ(createZ.get(i));
+                widget = save(widget);
+                publish(new WidgetCreatedEvent(copy(widget)));
+                created.add(detach(widget));
+                afterBulkSave(created.size());
+            }
+
+            widgetTracer.info(log, "Applied batch, created {} and updated {} widgets", created.size(), updated.size());
+            return new WidgetBatchResult(created, updated);
+        });
     }
 
     /**
@@ -122,14 +311,17 @@ public class WidgetService {
      * @throws WidgetNotFoundException if such widget doesn't exist
      */
     public Widget findOne(UUID widgetId) {
-        log.info("Getting widget {}", widgetId);
-        Widget widget = widgetRepository.findById(widgetId)
-                .orElseThrow(() -> {
-                    log.warn("Attempted to get widget {}, which was not found", widgetId);
-                    return new WidgetNotFoundException();
-                });
-        log.info("Returning widget {}", widgetId);
-        return widget;
+        return perform(WidgetMetrics.FIND_ONE, () -> {
+            widgetTracer.info(log, "Getting widget {}", widgetId);
+            Widget widget = widgetCache.get(widgetId, id -> widgetTracer.stage(WidgetTracer.Stage.LOOKUP,
+                    () -> read(() -> widgetRepository.findById(id))))
+                    .orElseThrow(() -> {
+                        widgetTracer.warn(log, "Attempted to get widget {}, which was not found", widgetId);
+                        return new WidgetNotFoundException();
+                    });
+            widgetTracer.info(log, "Returning widget {}", widgetId);
+            return widget;
+        });
     }
 
     /**
@@ -138,59 +330,103 @@ public class WidgetService {
      * @return the widgets list
      */
     public Page<Widget> findAll(Integer page, Integer size, WidgetPageRequestDto dto) {
-        log.info("Getting all widgets, page {}, size {}", page, size);
-        Pageable pageable = PageRequest.of(page, size, Sort.Direction.ASC, "z");
+        return perform(dto == null ? WidgetMetrics.FIND_ALL : WidgetMetrics.FIND_ALL_FILTERED, () -> {
+            widgetTracer.info(log, "Getting all widgets, page {}, size {}", page, size);
+            Pageable pageable = PageRequest.of(page, size, Sort.Direction.ASC, "z");
 
-        if (dto == null) {
-            return findAll(pageable);
-        }
+            if (dto == null) {
+                return findAll(pageable);
+            }
 
-        // Find center, width and height for the specified rectangle
-        Integer x = (dto.getXBottomLeft() + dto.getXTopRight()) / 2;
-        Integer y = (dto.getYBottomLeft() + dto.getYTopRight()) / 2;
-        Integer width = dto.getXTopRight() - dto.getXBottomLeft();
-        Integer height = dto.getYTopRight() - dto.getYBottomLeft();
-
-        // Filter widgets by width and height
-        List<Widget> widgets =
-                widgetRepository.findAllByWidthLessThanEqualAndHeightLessThanEqualOrderByZAsc(width, height);
-        if (widgets.isEmpty()) {
-            log.info("No matching widgets found, returning empty page");
-            return Page.empty(pageable);
-        }
-        log.info("Filtered {} widgets by width and height", widgets.size());
-
-        // Apply filtering
-        Rectangle rectangle = WidgetUtil.createRectangle(x, y, width, height);
-        List<Widget> filteredWidgets = widgets.stream()
-                .filter(widget -> {
-                    Rectangle widgetRectangle = WidgetUtil.createRectangle(
-                            widget.getX(), widget.getY(), widget.getWidth(), widget.getHeight());
-                    return WidgetUtil.rectangleContains(rectangle, widgetRectangle);
-                })
-                .collect(toList());
-        if (filteredWidgets.isEmpty()) {
-            log.info("No matching widgets found, returning empty page");
-            return Page.empty(pageable);
-        }
-        log.info("Filtered {} widgets for specified rectangle", filteredWidgets.size());
+            // Find center, width and height for the specified rectangle
+            Integer x = (dto.getXBottomLeft() + dto.getXTopRight()) / 2;
+            Integer y = (dto.getYBottomLeft() + dto.getYTopRight()) / 2;
+            Integer width = dto.getXTopRight() - dto.getXBottomLeft();
+            Integer height = dto.getYTopRight() - dto.getYBottomLeft();
 
-        // Apply pagination
-        int total = filteredWidgets.size();
-        int from = (int) pageable.getOffset();
-        int to = from + pageable.getPageSize();
+            // Apply filtering and pagination
+            Page<Widget> widgets = widgetFilterCache.getPage(x, y, width, height, pageable,
+                    () -> widgetTracer.stage(WidgetTracer.Stage.FILTER,
+                            () -> read(() -> widgetRepository.findAllInRectangle(x, y, width, height, pageable))));
+            widgetTracer.info(log, "Filtered {} widgets for specified rectangle, returning {} widgets",
+                    widgets.getTotalElements(), widgets.getNumberOfElements());
+            widgetMetrics.recordFilter(widgets.getTotalElements(), widgets.getNumberOfElements());
+            return widgets;
+        });
+    }
 
-        if (from > total) {
-            log.info("No matching widgets found, returning empty page");
-            return Page.empty(pageable);
-        }
-        if (to > total) {
-            to = total;
-        }
+    /**
+     * Returns a slice of widgets following the specified z-index, based on the specified filter.
+     *
+     * @param z    the z-index of the last widget returned previously
+     * @param size the maximum number of widgets to return
+     * @param dto  the DTO containing filter details, if any
+     * @return the widgets slice
+     */
+    public Slice<Widget> findAllAfter(Integer z, Integer size, WidgetPageRequestDto dto) {
+        String operation = dto == null ? WidgetMetrics.FIND_ALL_AFTER : WidgetMetrics.FIND_ALL_AFTER_FILTERED;
+        return perform(operation, () -> {
+            widgetTracer.info(log, "Getting all widgets after z-index {}, size {}", z, size);
+            // One extra widget is requested to find out if there is a next slice
+            Pageable pageable = PageRequest.of(0, size + 1);
+
+            Slice<Widget> widgets;
+            if (dto == null) {
+                widgets = widgetTracer.stage(WidgetTracer.Stage.PAGINATE, () -> read(() -> toSlice(
+                        widgetRepository.findAllByZGreaterThanOrderByZAsc(z, pageable), size)));
+            } else {
+                // Find center, width and height for the specified rectangle
+                Integer x = (dto.getXBottomLeft() + dto.getXTopRight()) / 2;
+                Integer y = (dto.getYBottomLeft() + dto.getYTopRight()) / 2;
+                Integer width = dto.getXTopRight() - dto.getXBottomLeft();
+                Integer height = dto.getYTopRight() - dto.getYBottomLeft();
+
+                widgets = widgetFilterCache.getSliceAfter(x, y, width, height, z, size,
+                        () -> widgetTracer.stage(WidgetTracer.Stage.FILTER, () -> read(() -> toSlice(
+                                widgetRepository.findAllInRectangleByZGreaterThanOrderByZAsc(
+                                        x, y, width, height, z, pageable),
+                                size))));
+            }
+
+            widgetTracer.info(log, "Returning {} widgets", widgets.getNumberOfElements());
+            return widgets;
+        });
+    }
+
+    /**
+     * Turns widgets read with one extra widget into a slice of the specified size.
+     */
+    private static Slice<Widget> toSlice(List<Widget> widgets, int size) {
+        boolean hasNext = widgets.size() > size;
+        List<Widget> content = hasNext ? widgets.subList(0, size) : widgets;
+        return new SliceImpl<>(content, PageRequest.of(0, size, Sort.Direction.ASC, "z"), hasNext);
+    }
+
+    /**
+     * Passes all widgets to an action ordered by z-index, without holding all of them in memory at once.
+     * <p>
+     * Widgets are read in chunks, every chunk is consistent on its own. A widget moved by a change made while exporting
+     * may be skipped or passed twice. Services able to read all widgets consistently without copying them override it.
+     *
+     * @param action the action to perform on every widget
+     */
+    public void exportAll(Consumer<Widget> action) {
+        widgetTracer.info(log, "Exporting all widgets");
+        List<Widget> widgets = read(() -> widgetRepository.findAll(
+                PageRequest.of(0, EXPORT_CHUNK_SIZE, Sort.Direction.ASC, "z")).getContent());
+        long exported = 0;
+        while (true) {
+            widgets.forEach(action);
+            exported += widgets.size();
+            if (widgets.size() < EXPORT_CHUNK_SIZE) {
+                break;
+            }
 
-        List<Widget> content = filteredWidgets.subList(from, to);
-        log.info("Returning {} widgets", content.size());
-        return new PageImpl<>(content, pageable, total);
+            Integer z = widgets.get(widgets.size() - 1).getZ();
+            widgets = read(() -> widgetRepository.findAllByZGreaterThanOrderByZAsc(
+                    z, PageRequest.of(0, EXPORT_CHUNK_SIZE)));
+        }
+        widgetTracer.info(log, "Exported {} widgets", exported);
     }
 
     /**
@@ -199,22 +435,311 @@ public class WidgetService {
      * @return the widgets list
      */
     private Page<Widget> findAll(Pageable pageable) {
-        Page<Widget> widgets = widgetRepository.findAll(pageable);
-        log.info("Returning {} widgets", widgets.getNumberOfElements());
+        Page<Widget> widgets = widgetTracer.stage(WidgetTracer.Stage.PAGINATE,
+                () -> read(() -> widgetRepository.findAll(pageable)));
+        widgetTracer.info(log, "Returning {} widgets", widgets.getNumberOfElements());
         return widgets;
     }
 
+    /**
+     * Spreads z-indexes of all widgets evenly, keeping their order.
+     */
+    public void rebalance() {
+        perform(WidgetMetrics.REBALANCE, () -> {
+            List<Integer> zIndexes = widgetRepository.findAllZ();
+            // The gap shrinks once the widgets don't fit below the largest z-index with the configured one
+            int gap = Math.min(widgetProperties.getSparseOrdering().getGap(),
+                    Integer.MAX_VALUE / Math.max(zIndexes.size(), 1));
+            widgetTracer.info(log, "Rebalancing z-indexes of {} widgets with gap {}", zIndexes.size(), gap);
+
+            // Widgets moving upwards are updated from the top and widgets moving downwards from the bottom,
+            // so that a new z-index is never taken by a widget that hasn't been moved yet
+            for (int i = zIndexes.size() - 1; i >= 0; i--) {
+                Integer z = (i + 1) * gap;
+                if (z > zIndexes.get(i)) {
+                    updateZ(zIndexes.get(i), z);
+                }
+            }
+            for (int i = 0; i < zIndexes.size(); i++) {
+                Integer z = (i + 1) * gap;
+                if (z < zIndexes.get(i)) {
+                    updateZ(zIndexes.get(i), z);
+                }
+            }
+            publish(new WidgetsReorderedEvent());
+            widgetTracer.info(log, "Rebalanced z-indexes of {} widgets", zIndexes.size());
+        });
+    }
+
+    /**
+     * Returns a z-index placing a widget on top of all existing ones.
+     *
+     * @return the z-index
+     * @throws ZIndexOverflowException if the largest z-index is taken
+     */
+    private Integer nextZ() {
+        int top = widgetRepository.findMaxZ().orElse(0);
+        return top + topStep(top, 1);
+    }
+
+    /**
+     * Returns the distance between z-indexes of widgets placed on top of the specified z-index.
+     * <p>
+     * In sparse ordering mode it is the gap, unless the gaps don't fit below the largest z-index. Then consecutive
+     * z-indexes are used and rebalancing is scheduled.
+     *
+     * @param top   the z-index to place widgets above
+     * @param count the number of widgets to place
+     * @return the distance between z-indexes
+     * @throws ZIndexOverflowException if there are fewer z-indexes left above than widgets to place
+     */
+    private int topStep(long top, int count) {
+        long left = Integer.MAX_VALUE - top;
+        WidgetProperties.SparseOrdering sparseOrdering = widgetProperties.getSparseOrdering();
+        if (sparseOrdering.isEnabled()) {
+            if ((long) sparseOrdering.getGap() * count <= left) {
+                return sparseOrdering.getGap();
+            }
+            widgetTracer.info(log, "No room left for gaps above z-index {}, scheduling rebalancing", top);
+            widgetRebalancer.schedule();
+        }
+        if (count > left) {
+            throw new ZIndexOverflowException(top);
+        }
+        return 1;
+    }
+
+    /**
+     * Returns a z-index placing a widget right below the one currently having the specified z-index.
+     * <p>
+     * In sparse ordering mode a free z-index from the gap below is used, if there is one. Otherwise existing widgets
+     * are shifted upwards and the specified z-index is returned.
+     *
+     * @param z the z-index specified in the request
+     * @return the z-index
+     */
+    private Integer allocateZ(Integer z) {
+        if (widgetProperties.getSparseOrdering().isEnabled()) {
+            if (widgetRepository.findByZ(z).isEmpty()) {
+                return z;
+            }
+
+            int gap = widgetProperties.getSparseOrdering().getGap();
+            long below = widgetRepository.findMaxZLessThan(z)
+                    .map(Long::valueOf)
+                    .orElse(z - 2L * gap);
+            if (z - below > 1) {
+                Integer freeZ = Math.toIntExact(below + (z - below) / 2);
+                widgetTracer.info(log, "Z-index {} is taken, using free z-index {} below it", z, freeZ);
+                return freeZ;
+            }
+
+            widgetTracer.info(log, "No free z-index left below {}, scheduling rebalancing", z);
+            widgetRebalancer.schedule();
+        }
+
+        shift(z);
+        return z;
+    }
+
     /**
      * Shifts existing widgets upwards, if needed.
      *
      * @param z the z-index specified in the request
      */
     private void shift(Integer z) {
-        widgetRepository.findByZ(z)
-                .ifPresentOrElse(foundWidget -> {
-                    shift(z + 1);
-                    log.info("Shifting upwards existing widget with z-index {}", z);
-                    widgetRepository.shiftZ(z);
-                }, () -> log.info("No widgets found with z-index {}", z));
+        int shifted = widgetTracer.stage(WidgetTracer.Stage.SHIFT, () -> widgetRepository.shiftZRun(z));
+        widgetMetrics.recordShift(shifted);
+        if (shifted > 0) {
+            publish(new WidgetsShiftedEvent(z, z + shifted - 1, 1));
+            widgetTracer.info(log, "Shifted upwards {} existing widgets starting from z-index {}", shifted, z);
+        } else {
+            widgetTracer.info(log, "No widgets found with z-index {}", z);
+        }
+    }
+
+    /**
+     * Finds the smallest upward shifts of existing widgets freeing the specified z-indexes while keeping the order
+     * of widgets. Widgets shifted by the same offset one after another are grouped into a single range.
+     *
+     * @param fixedZ      the z-indexes to free
+     * @param excludedIds the IDs of widgets which are going to leave their z-indexes
+     * @return the shifts ordered by z-index
+     */
+    private List<ZShift> planShifts(NavigableSet<Integer> fixedZ, Set<UUID> excludedIds) {
+        List<ZShift> shifts = new ArrayList<>();
+        if (fixedZ.isEmpty()) {
+            return shifts;
+        }
+
+        // The lowest z-index the next widget may take without passing the previous one
+        long floor = Long.MIN_VALUE;
+        ZShift shift = null;
+        Integer cursor = fixedZ.first() - 1;
+        while (true) {
+            Pageable pageable = PageRequest.of(0, SHIFT_PLAN_PAGE_SIZE);
+            Integer after = cursor;
+            List<Widget> widgets = widgetTracer.stage(WidgetTracer.Stage.LOOKUP,
+                    () -> widgetRepository.findAllByZGreaterThanOrderByZAsc(after, pageable));
+            for (Widget widget : widgets) {
+                int z = widget.getZ();
+                if (excludedIds.contains(widget.getId())) {
+                    continue;
+                }
+
+                int target = (int) Math.max(z, floor);
+                while (fixedZ.contains(target)) {
+                    target++;
+                }
+
+                if (target == z) {
+                    if (z > fixedZ.last()) {
+                        return shifts;
+                    }
+                    shift = null;
+                } else if (shift != null && shift.offset == target - z) {
+                    shift.to = z;
+                } else {
+                    shift = new ZShift(z, target - z);
+                    shifts.add(shift);
+                }
+                floor = target + 1L;
+            }
+
+            if (widgets.size() < SHIFT_PLAN_PAGE_SIZE) {
+                return shifts;
+            }
+            cursor = widgets.get(widgets.size() - 1).getZ();
+        }
+    }
+
+    /**
+     * Performs a read operation against the repository. Services guarding the repository override it to read
+     * consistently with modifications, so that inconsistent results are never cached.
+     *
+     * @param operation the read operation
+     * @param <T>       the type of the result
+     * @return the result of the operation
+     */
+    protected <T> T read(Supplier<T> operation) {
+        return operation.get();
+    }
+
+    /**
+     * Returns whether reads may block the calling thread, waiting for I/O or for modifications. Reads of services
+     * returning {@code false} may be performed on threads which must never block, such as event loops.
+     *
+     * @return whether reads may block
+     */
+    public boolean isBlockingRead() {
+        return true;
+    }
+
+    /**
+     * Called after every widget created by a batch with the number of widgets created so far. Services writing changes
+     * lazily override it to write them in batches of their own.
+     *
+     * @param saved the number of widgets created by the batch so far
+     */
+    protected void afterBulkSave(int saved) {
+    }
+
+    /**
+     * Detaches a modified widget from the repository before it's returned, so that later modifications don't change
+     * it. Services whose widgets are detached once their transaction ends override it to return them as they are.
+     *
+     * @param widget the modified widget
+     * @return a widget that the repository no longer changes
+     */
+    protected Widget detach(Widget widget) {
+        return copy(widget);
+    }
+
+    /**
+     * Publishes an event announcing a change that has just been made.
+     *
+     * @param event the event to publish
+     */
+    protected void publish(WidgetEvent event) {
+        eventPublisher.publishEvent(event);
+    }
+
+    /**
+     * Performs a public operation, timing it and tracing it as a whole.
+     */
+    private <T> T perform(String operation, Supplier<T> action) {
+        return widgetMetrics.time(operation, () -> widgetTracer.trace(operation, action));
+    }
+
+    private void perform(String operation, Runnable action) {
+        perform(operation, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    private Optional<Widget> findById(UUID widgetId) {
+        return widgetTracer.stage(WidgetTracer.Stage.LOOKUP, () -> widgetRepository.findById(widgetId));
+    }
+
+    private Integer currentZ(UUID widgetId) {
+        return findById(widgetId).map(Widget::getZ).orElseThrow(WidgetNotFoundException::new);
+    }
+
+    private Widget save(Widget widget) {
+        return widgetTracer.stage(WidgetTracer.Stage.SAVE, () -> widgetRepository.save(widget));
+    }
+
+    private void updateZ(Integer z, Integer newZ) {
+        widgetTracer.stage(WidgetTracer.Stage.SAVE, () -> widgetRepository.updateZ(z, newZ));
+    }
+
+    private void deleteById(UUID widgetId) {
+        widgetTracer.stage(WidgetTracer.Stage.SAVE, () -> widgetRepository.deleteById(widgetId));
+    }
+
+    private Widget findExisting(UUID widgetId) {
+        return findById(widgetId)
+                .orElseThrow(() -> {
+                    widgetTracer.warn(log, "Attempted to change widget {} in a batch, which was not found", widgetId);
+                    return new WidgetNotFoundException();
+                });
+    }
+
+    /**
+     * Copies a widget for an event. Edges are recalculated, since entities only update them when flushed.
+     */
+    static Widget copy(Widget widget) {
+        Widget copy = widget.toBuilder().build();
+        copy.calculateEdges();
+        return copy;
+    }
+
+    private static void checkReferencedOnce(Set<UUID> referencedIds, UUID widgetId) {
+        if (!referencedIds.add(widgetId)) {
+            throw new InvalidBatchException("Widget " + widgetId + " is referenced more than once");
+        }
+    }
+
+    private static void checkSpecifiedOnce(Set<Integer> fixedZ, Integer z) {
+        if (z != null && !fixedZ.add(z)) {
+            throw new InvalidBatchException("Z-index " + z + " is specified more than once");
+        }
+    }
+
+    /**
+     * A range of widgets to shift upwards by the same offset.
+     */
+    private static final class ZShift {
+
+        final int from;
+        int to;
+        final int offset;
+
+        ZShift(int from, int offset) {
+            this.from = from;
+            this.to = from;
+            this.offset = offset;
+        }
     }
 }
@@ -0,0 +1,217 @@
+package com.koryshev.widgets.service;
+
+import com.koryshev.widgets.config.WidgetProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.helpers.MessageFormatter;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Traces widget operations, enabled by {@code widgets.tracing.enabled}.
+ * <p>
+ * When enabled, log lines of an operation are not written one by one. Instead, every operation writes at most one
+ * structured event to the {@code widgets.trace} logger, holding its outcome, its duration and the time spent in every
+ * {@link Stage}. Events of a sample of operations are written at INFO level. Operations which are slow or fail write
+ * a WARN event, also carrying all log lines of the operation. Other operations write nothing.
+ * <p>
+ * When disabled, log lines are written immediately and nothing is timed.
+ *
+ * @author Ivan Koryshev
+ */
+@Component
+public class WidgetTracer {
+
+    private static final Logger traceLog = LoggerFactory.getLogger("widgets.trace");
+    private static final Stage[] STAGES = Stage.values();
+
+    private final boolean enabled;
+    private final double sampleRate;
+    private final long slowThresholdNanos;
+    private final ThreadLocal<Trace> currentTrace = new ThreadLocal<>();
+
+    public WidgetTracer(WidgetProperties widgetProperties) {
+        WidgetProperties.Tracing properties = widgetProperties.getTracing();
+        enabled = properties.isEnabled();
+        sampleRate = properties.getSampleRate();
+        slowThresholdNanos = properties.getSlowThreshold().toNanos();
+    }
+
+    /**
+     * A stage of an operation timed separately.
+     */
+    enum Stage {
+        LOCK, LOOKUP, SHIFT, SAVE, FILTER, PAGINATE
+    }
+
+    /**
+     * Performs an operation within a trace. An operation performed within another one is traced as part of it.
+     *
+     * @param operation the name of the operation
+     * @param action    the operation
+     * @param <T>       the type of the result
+     * @return the result of the operation
+     */
+    <T> T trace(String operation, Supplier<T> action) {
+        if (!enabled || currentTrace.get() != null) {
+            return action.get();
+        }
+
+        Trace trace = new Trace(operation);
+        currentTrace.set(trace);
+        String outcome = "success";
+        try {
+            return action.get();
+        } catch (RuntimeException e) {
+            outcome = e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            currentTrace.remove();
+            trace.finish(outcome);
+        }
+    }
+
+    /**
+     * Performs a stage of the current operation, timing it if the operation is traced.
+     *
+     * @param stage  the stage
+     * @param action the stage of the operation
+     * @param <T>    the type of the result
+     * @return the result of the stage
+     */
+    <T> T stage(Stage stage, Supplier<T> action) {
+        Trace trace = enabled ? currentTrace.get() : null;
+        if (trace == null) {
+            return action.get();
+        }
+
+        long started = System.nanoTime();
+        try {
+            return action.get();
+        } finally {
+            trace.stageNanos[stage.ordinal()] += System.nanoTime() - started;
+        }
+    }
+
+    /**
+     * Adds the time spent in a stage of the current operation, if the operation is traced. Used for stages timed by
+     * the caller anyway.
+     *
+     * @param stage the stage
+     * @param nanos the time spent in nanoseconds
+     */
+    void record(Stage stage, long nanos) {
+        Trace trace = enabled ? currentTrace.get() : null;
+        if (trace != null) {
+            trace.stageNanos[stage.ordinal()] += nanos;
+        }
+    }
+
+    /**
+     * Performs a stage of the current operation returning nothing, timing it if the operation is traced.
+     *
+     * @param stage  the stage
+     * @param action the stage of the operation
+     */
+    void stage(Stage stage, Runnable action) {
+        stage(stage, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Logs an INFO line of the current operation, or keeps it in the trace if the operation is traced.
+     */
+    void info(Logger log, String format, Object... args) {
+        Trace trace = enabled ? currentTrace.get() : null;
+        if (trace != null) {
+            trace.details.add(new Detail(format, args));
+        } else {
+            log.info(format, args);
+        }
+    }
+
+    /**
+     * Logs a WARN line of the current operation, or keeps it in the trace if the operation is traced.
+     */
+    void warn(Logger log, String format, Object... args) {
+        Trace trace = enabled ? currentTrace.get() : null;
+        if (trace != null) {
+            trace.details.add(new Detail(format, args));
+        } else {
+            log.warn(format, args);
+        }
+    }
+
+    /**
+     * An operation being traced. Log lines are kept unformatted, since most of them are never written.
+     */
+    private final class Trace {
+
+        final String operation;
+        final long started = System.nanoTime();
+        final long[] stageNanos = new long[STAGES.length];
+        final List<Detail> details = new ArrayList<>();
+
+        Trace(String operation) {
+            this.operation = operation;
+        }
+
+        void finish(String outcome) {
+            long duration = System.nanoTime() - started;
+            boolean failed = !"success".equals(outcome);
+            boolean slow = duration >= slowThresholdNanos;
+            if (failed || slow) {
+                if (traceLog.isWarnEnabled()) {
+                    traceLog.warn(format(outcome, duration, true));
+                }
+            } else if (traceLog.isInfoEnabled() && ThreadLocalRandom.current().nextDouble() < sampleRate) {
+                traceLog.info(format(outcome, duration, false));
+            }
+        }
+
+        private String format(String outcome, long duration, boolean withDetails) {
+            StringBuilder event = new StringBuilder(128)
+                    .append("operation=").append(operation)
+                    .append(" outcome=").append(outcome)
+                    .append(" durationMicros=").append(TimeUnit.NANOSECONDS.toMicros(duration));
+            for (Stage stage : STAGES) {
+                long nanos = stageNanos[stage.ordinal()];
+                if (nanos > 0) {
+                    event.append(' ').append(stage.name().toLowerCase(Locale.ROOT)).append("Micros=")
+                            .append(TimeUnit.NANOSECONDS.toMicros(nanos));
+                }
+            }
+            if (withDetails) {
+                event.append(" details=\"");
+                for (int i = 0; i < details.size(); i++) {
+                    if (i > 0) {
+                        event.append("; ");
+                    }
+                    Detail detail = details.get(i);
+                    event.append(MessageFormatter.arrayFormat(detail.format, detail.args).getMessage());
+                }
+                event.append('"');
+            }
+            return event.toString();
+        }
+    }
+
+    private static final class Detail {
+
+        final String format;
+        final Object[] args;
+
+        Detail(String format, Object[] args) {
+            this.format = format;
+            this.args = args;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.koryshev.widgets.service;
+
+/**
+ * Thrown when a read performed on a thread which must never block, such as an event loop, can't be completed without
+ * waiting for a modification. The read is to be repeated on a thread allowed to block.
+ *
+ * @author Ivan Koryshev
+ */
+public class WouldBlockException extends RuntimeException {
+
+    public WouldBlockException() {
+        // Thrown to change threads rather than to report a failure, so the stack trace is not worth filling in
+        super("Read would block", null, false, false);
+    }
+}
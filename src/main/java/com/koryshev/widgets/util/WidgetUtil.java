@@ -1,23 +1,47 @@
 package com.koryshev.widgets.util;
 
+import com.koryshev.widgets.domain.model.Widget;
+import com.koryshev.widgets.exception.InvalidCursorException;
 import lombok.experimental.UtilityClass;
 
-import java.awt.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 
 
 @UtilityClass
 public class WidgetUtil {
 
-    public static Rectangle createRectangle(Integer x, Integer y, Integer width, Integer height) {
-        int xTopLeft = x - width / 2;
-        int yTopLeft = y + height / 2;
-        return new Rectangle(xTopLeft, yTopLeft, width, height);
+    private static final String CURSOR_PREFIX = "z:";
+
+    /**
+     * Checks if a widget is inside a rectangle specified by its center coordinates, width and height.
+     * Only primitive arithmetic is used, so the check doesn't allocate and can be applied to every candidate widget.
+     */
+    public static boolean rectangleContains(int x, int y, int width, int height, Widget widget) {
+        int widgetWidth = widget.getWidth();
+        int widgetHeight = widget.getHeight();
+        long left = (long) x - width / 2;
+        long widgetLeft = (long) widget.getX() - widgetWidth / 2;
+        return widgetLeft >= left
+                && widgetLeft + widgetWidth <= left + width
+                && (long) widget.getY() + widgetHeight / 2 <= (long) y + height / 2
+                && widgetHeight <= height;
+    }
+
+    public static String encodeCursor(Integer z) {
+        byte[] cursor = (CURSOR_PREFIX + z).getBytes(StandardCharsets.UTF_8);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor);
     }
 
-    public static boolean rectangleContains(Rectangle rectangle, Rectangle widget) {
-        return (widget.getX() >= rectangle.getX()
-                && widget.getY() <= rectangle.getY()
-                && (widget.getX() + widget.getWidth()) <= (rectangle.getX() + rectangle.getWidth())
-                && (widget.getY() + widget.getHeight()) <= (rectangle.getY() + rectangle.getHeight()));
+    public static Integer decodeCursor(String cursor) {
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            if (!value.startsWith(CURSOR_PREFIX)) {
+                throw new InvalidCursorException();
+            }
+            return Integer.valueOf(value.substring(CURSOR_PREFIX.length()));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidCursorException();
+        }
     }
 }
@@ -1,4 +1,5 @@
-insert into widget (id, x, y, z, width, height, created_date, last_modified_date) values
-  (RANDOM_UUID(), 0, 0, 1, 10, 10, CURRENT_TIMESTAMP(), CURRENT_TIMESTAMP()),
-  (RANDOM_UUID(), 0, 0, 2, 10, 10, CURRENT_TIMESTAMP(), CURRENT_TIMESTAMP()),
-  (RANDOM_UUID(), 0, 0, 4, 10, 10, CURRENT_TIMESTAMP(), CURRENT_TIMESTAMP());
+insert into widget (id, x, y, z, width, height, left_edge, right_edge, top_edge, created_date,
+                    last_modified_date) values
+  (RANDOM_UUID(), 0, 0, 1, 10, 10, -5, 5, 5, CURRENT_TIMESTAMP(), CURRENT_TIMESTAMP()),
+  (RANDOM_UUID(), 0, 0, 2, 10, 10, -5, 5, 5, CURRENT_TIMESTAMP(), CURRENT_TIMESTAMP()),
+  (RANDOM_UUID(), 0, 0, 4, 10, 10, -5, 5, 5, CURRENT_TIMESTAMP(), CURRENT_TIMESTAMP());
@@ -0,0 +1,62 @@
+package com.koryshev.widgets.benchmark;
+
+import com.koryshev.widgets.domain.model.Widget;
+import com.koryshev.widgets.util.WidgetUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.koryshev.widgets.util.TestData.createWidget;
+
+/**
+ * Measures the rectangle containment check applied to candidate widgets in a loop, results are per candidate.
+ * <p>
+ * Run with the GC profiler to verify that nothing is allocated: {@code -prof gc} reports
+ * {@code gc.alloc.rate.norm} close to zero bytes per candidate. {@code WidgetUtilTest} checks the same with
+ * the bytes allocated by the testing thread, so that the build fails if the check starts allocating.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RectangleContainsBenchmark {
+
+    private static final int CANDIDATES = 10_000;
+
+    private Widget[] widgets;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        widgets = new Widget[CANDIDATES];
+        for (int i = 0; i < CANDIDATES; i++) {
+            widgets[i] = createWidget(random.nextInt(1000), random.nextInt(1000), i, random.nextInt(200) + 1,
+                    random.nextInt(200) + 1);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CANDIDATES)
+    public int rectangleContains() {
+        int contained = 0;
+        for (Widget widget : widgets) {
+            if (WidgetUtil.rectangleContains(500, 500, 400, 400, widget)) {
+                contained++;
+            }
+        }
+        return contained;
+    }
+}
@@ -0,0 +1,226 @@
+package com.koryshev.widgets.benchmark;
+
+import com.koryshev.widgets.WidgetsApplication;
+import com.koryshev.widgets.contoller.WidgetController;
+import com.koryshev.widgets.domain.model.Widget;
+import com.koryshev.widgets.domain.repository.WidgetRepository;
+import com.koryshev.widgets.dto.WidgetBatchRequestDto;
+import com.koryshev.widgets.dto.WidgetPageRequestDto;
+import com.koryshev.widgets.dto.WidgetPageResponseDto;
+import com.koryshev.widgets.dto.WidgetRequestDto;
+import com.koryshev.widgets.service.WidgetBatchResult;
+import com.koryshev.widgets.service.WidgetService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.Page;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static com.koryshev.widgets.util.TestData.createWidget;
+import static com.koryshev.widgets.util.TestData.createWidgetPageRequestDto;
+
+/**
+ * Measures the hot paths of the application against every storage profile and different numbers of widgets.
+ * <p>
+ * Widgets occupy consecutive z-indexes, so creating a widget at the bottom shifts all of them. They are spread over
+ * a 10000 x 10000 area, and filtering uses rectangles covering about 1% and 25% of it. Batches contain 10000
+ * widgets.
+ * <p>
+ * Benchmarks modifying widgets use {@link Writes}, which populates the widgets again after every iteration, so that
+ * every iteration starts with the same number of widgets instead of the store growing during the whole trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms3g", "-Xmx3g"})
+@State(Scope.Benchmark)
+public class WidgetBenchmark {
+
+    private static final int AREA_SIZE = 10_000;
+    private static final int PAGE_SIZE = 100;
+    private static final int BATCH_SIZE = 10_000;
+
+    @Param({"in-memory", "in-memory-snapshot", "in-memory-compact", "jpa"})
+    private String profile;
+
+    @Param({"1000", "100000", "1000000"})
+    private int size;
+
+    private ConfigurableApplicationContext context;
+    private WidgetService widgetService;
+    private WidgetController widgetController;
+    private List<UUID> widgetIds;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = new SpringApplicationBuilder(WidgetsApplication.class)
+                .web(WebApplicationType.NONE)
+                .run("--spring.profiles.active=" + profile, "--spring.main.banner-mode=off",
+                        "--logging.level.com.koryshev.widgets=warn");
+        widgetService = context.getBean(WidgetService.class);
+        widgetController = context.getBean(WidgetController.class);
+        random = new Random(42);
+        widgetIds = populate();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    /**
+     * The state of benchmarks modifying widgets.
+     */
+    @State(Scope.Benchmark)
+    public static class Writes {
+
+        @TearDown(Level.Iteration)
+        public void repopulate(WidgetBenchmark benchmark) {
+            benchmark.widgetIds = benchmark.populate();
+        }
+    }
+
+    @Benchmark
+    public Widget createOnTop(Writes writes) {
+        return widgetService.create(createWidgetRequestDto(null));
+    }
+
+    @Benchmark
+    public Widget createAtBottom(Writes writes) {
+        return widgetService.create(createWidgetRequestDto(1));
+    }
+
+    @Benchmark
+    public WidgetBatchResult applyBatch(Writes writes) {
+        // Half of the widgets go on top, the other half to distinct z-indexes among existing widgets
+        Set<Integer> requestedZ = new HashSet<>();
+        while (requestedZ.size() < BATCH_SIZE / 2) {
+            requestedZ.add(random.nextInt(size + BATCH_SIZE) + 1);
+        }
+        List<WidgetRequestDto> creates = new ArrayList<>(BATCH_SIZE);
+        requestedZ.forEach(z -> creates.add(createWidgetRequestDto(z)));
+        while (creates.size() < BATCH_SIZE) {
+            creates.add(createWidgetRequestDto(null));
+        }
+        return widgetService.applyBatch(WidgetBatchRequestDto.builder().create(creates).build());
+    }
+
+    @Benchmark
+    public WidgetBatchResult applyBatchOnTop(Writes writes) {
+        // Only inserts, without shifting existing widgets
+        List<WidgetRequestDto> creates = new ArrayList<>(BATCH_SIZE);
+        while (creates.size() < BATCH_SIZE) {
+            creates.add(createWidgetRequestDto(null));
+        }
+        return widgetService.applyBatch(WidgetBatchRequestDto.builder().create(creates).build());
+    }
+
+    @Benchmark
+    public Widget update(Writes writes) {
+        // Moving to a z-index taken by another widget shifts the widgets between them
+        return widgetService.update(randomWidgetId(), createWidgetRequestDto(random.nextInt(size) + 1));
+    }
+
+    @Benchmark
+    public Widget findOne() {
+        return widgetService.findOne(randomWidgetId());
+    }
+
+    @Benchmark
+    public Page<Widget> findAllFirstPage() {
+        return widgetService.findAll(0, PAGE_SIZE, null);
+    }
+
+    @Benchmark
+    public Page<Widget> findAllDeepPage() {
+        return widgetService.findAll(size / PAGE_SIZE - 1, PAGE_SIZE, null);
+    }
+
+    @Benchmark
+    public Page<Widget> filterSelective() {
+        return widgetService.findAll(0, PAGE_SIZE, createRectangle(AREA_SIZE / 10));
+    }
+
+    @Benchmark
+    public Page<Widget> filterBroad() {
+        return widgetService.findAll(0, PAGE_SIZE, createRectangle(AREA_SIZE / 2));
+    }
+
+    @Benchmark
+    public WidgetPageResponseDto filterController() {
+        return widgetController.filter(0, PAGE_SIZE, null, createRectangle(AREA_SIZE / 10));
+    }
+
+    private List<UUID> populate() {
+        WidgetRepository widgetRepository = context.getBean(WidgetRepository.class);
+        widgetRepository.deleteAll();
+
+        List<Widget> widgets = new ArrayList<>(size);
+        for (int z = 1; z <= size; z++) {
+            widgets.add(createWidget(random.nextInt(AREA_SIZE), random.nextInt(AREA_SIZE), z,
+                    random.nextInt(100) + 1, random.nextInt(100) + 1));
+        }
+
+        if (widgetRepository instanceof JpaRepository) {
+            @SuppressWarnings("unchecked")
+            JpaRepository<Widget, UUID> jpaRepository = (JpaRepository<Widget, UUID>) widgetRepository;
+            TransactionTemplate transactionTemplate =
+                    new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+            for (int from = 0; from < size; from += BATCH_SIZE) {
+                List<Widget> batch = widgets.subList(from, Math.min(size, from + BATCH_SIZE));
+                transactionTemplate.executeWithoutResult(status -> jpaRepository.saveAll(batch));
+            }
+        } else {
+            widgets.forEach(widgetRepository::save);
+        }
+
+        List<UUID> ids = new ArrayList<>(size);
+        widgets.forEach(widget -> ids.add(widget.getId()));
+        return ids;
+    }
+
+    private UUID randomWidgetId() {
+        return widgetIds.get(random.nextInt(widgetIds.size()));
+    }
+
+    private WidgetRequestDto createWidgetRequestDto(Integer z) {
+        return WidgetRequestDto.builder()
+                .x(random.nextInt(AREA_SIZE))
+                .y(random.nextInt(AREA_SIZE))
+                .z(z)
+                .width(random.nextInt(100) + 1)
+                .height(random.nextInt(100) + 1)
+                .build();
+    }
+
+    private WidgetPageRequestDto createRectangle(int side) {
+        int x = random.nextInt(AREA_SIZE - side);
+        int y = random.nextInt(AREA_SIZE - side);
+        return createWidgetPageRequestDto(x, y, x + side, y + side);
+    }
+}
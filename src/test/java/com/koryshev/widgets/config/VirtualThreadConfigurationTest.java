@@ -0,0 +1,43 @@
+package com.koryshev.widgets.config;
+
+import org.apache.coyote.http11.Http11NioProtocol;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledIfSystemProperty;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.concurrent.ExecutorService;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class VirtualThreadConfigurationTest {
+
+    private static final String JAVA_VERSION = "java.specification.version";
+    private static final String BEFORE_JAVA_21 = "1\\.8|9|1\\d|20";
+
+    private final VirtualThreadConfiguration configuration = new VirtualThreadConfiguration();
+
+    @Test
+    @EnabledIfSystemProperty(named = JAVA_VERSION, matches = BEFORE_JAVA_21)
+    void shouldFailToStartBeforeJava21() {
+        assertThatThrownBy(configuration::virtualThreadExecutor)
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageStartingWith("Virtual threads require Java 21 or later");
+    }
+
+    @Test
+    @DisabledIfSystemProperty(named = JAVA_VERSION, matches = BEFORE_JAVA_21)
+    void shouldHandleRequestsOnVirtualThreads() throws Exception {
+        ExecutorService executor = configuration.virtualThreadExecutor();
+        try {
+            Http11NioProtocol protocolHandler = new Http11NioProtocol();
+            configuration.virtualThreadProtocolHandlerCustomizer(executor).customize(protocolHandler);
+
+            assertThat(protocolHandler.getExecutor()).isSameAs(executor);
+            Thread thread = executor.submit(Thread::currentThread).get();
+            assertThat(Thread.class.getMethod("isVirtual").invoke(thread)).isEqualTo(true);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
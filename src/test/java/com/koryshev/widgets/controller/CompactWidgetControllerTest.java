@@ -0,0 +1,7 @@
+package com.koryshev.widgets.controller;
+
+import org.springframework.test.context.ActiveProfiles;
+
+@ActiveProfiles("in-memory-compact")
+class CompactWidgetControllerTest extends WidgetControllerTest {
+}
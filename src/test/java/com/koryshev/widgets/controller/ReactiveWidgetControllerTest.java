@@ -0,0 +1,281 @@
+package com.koryshev.widgets.controller;
+
+import com.koryshev.widgets.domain.model.Widget;
+import com.koryshev.widgets.domain.repository.WidgetRepository;
+import com.koryshev.widgets.dto.WidgetBatchRequestDto;
+import com.koryshev.widgets.dto.WidgetBatchResponseDto;
+import com.koryshev.widgets.dto.WidgetChangeDto;
+import com.koryshev.widgets.dto.WidgetImportResponseDto;
+import com.koryshev.widgets.dto.WidgetPageResponseDto;
+import com.koryshev.widgets.dto.WidgetRequestDto;
+import com.koryshev.widgets.dto.WidgetResponseDto;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.Disposable;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.koryshev.widgets.util.TestData.createWidget;
+import static com.koryshev.widgets.util.TestData.createWidgetPageRequestDto;
+import static com.koryshev.widgets.util.TestData.createWidgetRequestDtoWithZIndex;
+import static com.koryshev.widgets.util.TestData.createWidgetWithZIndex;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ActiveProfiles({"in-memory", "reactive"})
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class ReactiveWidgetControllerTest {
+
+    private static final String API_BASE_PATH = "/v1/widgets/";
+
+    @Autowired
+    private WidgetRepository widgetRepository;
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @BeforeEach
+    public void setup() {
+        widgetRepository.deleteAll();
+    }
+
+    @Test
+    void shouldCreateWidget() {
+        WidgetResponseDto response = webTestClient.post().uri(API_BASE_PATH)
+                .bodyValue(createWidgetRequestDtoWithZIndex(1))
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody(WidgetResponseDto.class)
+                .returnResult().getResponseBody();
+
+        assertThat(response).isNotNull();
+        assertThat(response.getZ()).isEqualTo(1);
+        assertThat(widgetRepository.findById(response.getId())).isNotEmpty();
+    }
+
+    @Test
+    void shouldNotCreateWidgetWithInvalidHeight() {
+        WidgetRequestDto requestDto = createWidgetRequestDtoWithZIndex(1);
+        requestDto.setHeight(0);
+
+        webTestClient.post().uri(API_BASE_PATH)
+                .bodyValue(requestDto)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void shouldUpdateWidget() {
+        Widget widget = widgetRepository.save(createWidgetWithZIndex(1));
+
+        webTestClient.put().uri(API_BASE_PATH + widget.getId())
+                .bodyValue(createWidgetRequestDtoWithZIndex(2))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.z").isEqualTo(2);
+    }
+
+    @Test
+    void shouldDeleteWidget() {
+        Widget widget = widgetRepository.save(createWidgetWithZIndex(1));
+
+        webTestClient.delete().uri(API_BASE_PATH + widget.getId())
+                .exchange()
+                .expectStatus().isNoContent();
+
+        assertThat(widgetRepository.findById(widget.getId())).isEmpty();
+    }
+
+    @Test
+    void shouldGetWidget() {
+        Widget widget = widgetRepository.save(createWidgetWithZIndex(1));
+
+        webTestClient.get().uri(API_BASE_PATH + widget.getId())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.id").isEqualTo(widget.getId().toString());
+    }
+
+    @Test
+    void shouldNotGetMissingWidget() {
+        webTestClient.get().uri(API_BASE_PATH + UUID.randomUUID())
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    void shouldApplyBatch() {
+        Widget widget = widgetRepository.save(createWidgetWithZIndex(1));
+        WidgetBatchRequestDto requestDto = WidgetBatchRequestDto.builder()
+                .create(List.of(createWidgetRequestDtoWithZIndex(1)))
+                .build();
+
+        WidgetBatchResponseDto response = webTestClient.post().uri(API_BASE_PATH + "batch")
+                .bodyValue(requestDto)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(WidgetBatchResponseDto.class)
+                .returnResult().getResponseBody();
+
+        assertThat(response).isNotNull();
+        assertThat(response.getCreated()).extracting(WidgetResponseDto::getZ).containsExactly(1);
+        assertThat(widgetRepository.findById(widget.getId()).map(Widget::getZ)).contains(2);
+    }
+
+    @Test
+    void shouldFilterWidgetsWithCursor() {
+        widgetRepository.save(createWidget(50, 50, 1, 100, 100));
+        widgetRepository.save(createWidget(50, 100, 2, 100, 100));
+        widgetRepository.save(createWidget(50, 50, 3, 100, 100));
+        widgetRepository.save(createWidget(100, 100, 4, 100, 100));
+
+        WidgetPageResponseDto firstPage = webTestClient.post().uri(API_BASE_PATH + "filter?size=2")
+                .bodyValue(createWidgetPageRequestDto(0, 0, 100, 150))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(WidgetPageResponseDto.class)
+                .returnResult().getResponseBody();
+
+        assertThat(firstPage).isNotNull();
+        assertThat(firstPage.getTotalElements()).isEqualTo(3);
+        assertThat(firstPage.getContent()).extracting(WidgetResponseDto::getZ).containsExactly(1, 2);
+
+        WidgetPageResponseDto nextPage = webTestClient.post()
+                .uri(API_BASE_PATH + "filter?size=2&cursor=" + firstPage.getNextCursor())
+                .bodyValue(createWidgetPageRequestDto(0, 0, 100, 150))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(WidgetPageResponseDto.class)
+                .returnResult().getResponseBody();
+
+        assertThat(nextPage).isNotNull();
+        assertThat(nextPage.getContent()).extracting(WidgetResponseDto::getZ).containsExactly(3);
+        assertThat(nextPage.getNextCursor()).isNull();
+    }
+
+    @Test
+    void shouldExportWidgets() {
+        for (int z = 1; z <= 3; z++) {
+            widgetRepository.save(createWidgetWithZIndex(z));
+        }
+
+        String body = webTestClient.get().uri(API_BASE_PATH + "export")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.valueOf("application/x-ndjson"))
+                .expectBody(String.class)
+                .returnResult().getResponseBody();
+
+        assertThat(body).isNotNull();
+        assertThat(body.split("\n")).hasSize(3);
+        assertThat(body).contains("\"z\":1").contains("\"z\":3");
+    }
+
+    @Test
+    void shouldImportWidgetsFromCsv() {
+        WidgetImportResponseDto response = webTestClient.post().uri(API_BASE_PATH + "import")
+                .contentType(MediaType.valueOf("text/csv"))
+                .bodyValue("x,y,width,height\n1,1,10,10\n2,2,10,10\n")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(WidgetImportResponseDto.class)
+                .returnResult().getResponseBody();
+
+        assertThat(response).isNotNull();
+        assertThat(response.getImported()).isEqualTo(2);
+        assertThat(widgetRepository.findAllZ()).hasSize(2);
+    }
+
+    @Test
+    void shouldImportWidgetsLargerThanPipe() {
+        StringBuilder body = new StringBuilder("x,y,width,height\n");
+        for (int i = 0; i < 10_000; i++) {
+            body.append(i).append(',').append(i).append(",10,10\n");
+        }
+
+        WidgetImportResponseDto response = webTestClient.post().uri(API_BASE_PATH + "import")
+                .contentType(MediaType.valueOf("text/csv"))
+                .bodyValue(body.toString())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(WidgetImportResponseDto.class)
+                .returnResult().getResponseBody();
+
+        assertThat(response).isNotNull();
+        assertThat(response.getImported()).isEqualTo(10_000);
+        assertThat(widgetRepository.findAllZ()).hasSize(10_000);
+    }
+
+    @Test
+    void shouldRejectImportWithoutReadingWholeRequest() {
+        StringBuilder body = new StringBuilder("a,b,c\n");
+        for (int i = 0; i < 10_000; i++) {
+            body.append(i).append(',').append(i).append(",10,10\n");
+        }
+
+        webTestClient.post().uri(API_BASE_PATH + "import")
+                .contentType(MediaType.valueOf("text/csv"))
+                .bodyValue(body.toString())
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        assertThat(widgetRepository.findAllZ()).isEmpty();
+    }
+
+    @Test
+    void shouldNotSubscribeWithIncompleteViewport() {
+        webTestClient.get()
+                .uri(API_BASE_PATH + "subscribe?xBottomLeft=-10&yBottomLeft=-10&xTopRight=10")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void shouldStreamChangesInsideViewport() throws InterruptedException {
+        Widget widget = widgetRepository.save(createWidgetWithZIndex(1));
+        BlockingQueue<ServerSentEvent<WidgetChangeDto>> events = new LinkedBlockingQueue<>();
+
+        Disposable subscription = webTestClient.get()
+                .uri(API_BASE_PATH + "subscribe?xBottomLeft=-10&yBottomLeft=-10&xTopRight=10&yTopRight=10")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<WidgetChangeDto>>() {
+                })
+                .getResponseBody()
+                .subscribe(events::add);
+        try {
+            ServerSentEvent<WidgetChangeDto> entered = events.poll(10, TimeUnit.SECONDS);
+            assertThat(entered).isNotNull();
+            assertThat(entered.event()).isEqualTo("entered");
+            assertThat(entered.data().getId()).isEqualTo(widget.getId());
+
+            webTestClient.post().uri(API_BASE_PATH)
+                    .bodyValue(createWidgetRequestDtoWithZIndex(1))
+                    .exchange()
+                    .expectStatus().isCreated();
+
+            ServerSentEvent<WidgetChangeDto> shifted = events.poll(10, TimeUnit.SECONDS);
+            assertThat(shifted).isNotNull();
+            assertThat(shifted.event()).isEqualTo("shifted");
+            assertThat(shifted.data().getWidget().getZ()).isEqualTo(2);
+            ServerSentEvent<WidgetChangeDto> created = events.poll(10, TimeUnit.SECONDS);
+            assertThat(created).isNotNull();
+            assertThat(created.event()).isEqualTo("created");
+            assertThat(created.data().getWidget().getZ()).isEqualTo(1);
+        } finally {
+            subscription.dispose();
+        }
+    }
+}
@@ -1,7 +1,13 @@
 package com.koryshev.widgets.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.koryshev.widgets.domain.model.Widget;
 import com.koryshev.widgets.domain.repository.WidgetRepository;
+import com.koryshev.widgets.dto.WidgetBatchRequestDto;
+import com.koryshev.widgets.dto.WidgetBatchResponseDto;
+import com.koryshev.widgets.dto.WidgetChangeDto;
+import com.koryshev.widgets.dto.WidgetBatchUpdateDto;
+import com.koryshev.widgets.dto.WidgetImportResponseDto;
 import com.koryshev.widgets.dto.WidgetPageRequestDto;
 import com.koryshev.widgets.dto.WidgetPageResponseDto;
 import com.koryshev.widgets.dto.WidgetRequestDto;
@@ -15,13 +21,21 @@ import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.http.ResponseEntity;
+import org.springframework.test.web.reactive.server.WebTestClient;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
+import reactor.core.Disposable;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import static com.koryshev.widgets.util.TestData.createWidget;
 import static com.koryshev.widgets.util.TestData.createWidgetPageRequestDto;
@@ -40,6 +54,12 @@ class WidgetControllerTest {
     @Autowired
     private TestRestTemplate restTemplate;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private WebTestClient webTestClient;
+
     @BeforeEach
     public void setup() {
         widgetRepository.deleteAll();
@@ -165,6 +185,46 @@ class WidgetControllerTest {
         assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
     }
 
+    @Test
+    void shouldApplyBatch() {
+        Widget widget1 = widgetRepository.save(createWidgetWithZIndex(1));
+        Widget widget2 = widgetRepository.save(createWidgetWithZIndex(2));
+        WidgetBatchRequestDto requestDto = WidgetBatchRequestDto.builder()
+                .create(List.of(createWidgetRequestDtoWithZIndex(1), createWidgetRequestDtoWithZIndex(null)))
+                .update(List.of(WidgetBatchUpdateDto.builder()
+                        .id(widget1.getId())
+                        .widget(createWidgetRequestDtoWithZIndex(2))
+                        .build()))
+                .delete(List.of(widget2.getId()))
+                .build();
+
+        HttpEntity<WidgetBatchRequestDto> entity = new HttpEntity<>(requestDto);
+        ResponseEntity<WidgetBatchResponseDto> response = restTemplate.exchange(
+                API_BASE_PATH + "batch", HttpMethod.POST, entity, WidgetBatchResponseDto.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).isNotNull();
+        assertThat(response.getBody().getCreated()).extracting(WidgetResponseDto::getZ).containsExactly(1, 3);
+        assertThat(response.getBody().getUpdated()).extracting(WidgetResponseDto::getZ).containsExactly(2);
+        assertThat(widgetRepository.findById(widget2.getId())).isEmpty();
+    }
+
+    @Test
+    void shouldNotApplyBatchWithInvalidWidget() {
+        WidgetRequestDto widgetDto = createWidgetRequestDtoWithZIndex(1);
+        widgetDto.setWidth(0);
+        WidgetBatchRequestDto requestDto = WidgetBatchRequestDto.builder()
+                .create(List.of(widgetDto))
+                .build();
+
+        HttpEntity<WidgetBatchRequestDto> entity = new HttpEntity<>(requestDto);
+        ResponseEntity<Void> response = restTemplate.exchange(
+                API_BASE_PATH + "batch", HttpMethod.POST, entity, Void.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(widgetRepository.findAllZ()).isEmpty();
+    }
+
     @Test
     void shouldGetWidgetById() {
         Widget widget = createWidgetWithZIndex(1);
@@ -274,4 +334,196 @@ class WidgetControllerTest {
         assertThat(widgets.get(0).getZ()).isEqualTo(1);
         assertThat(widgets.get(1).getZ()).isEqualTo(2);
     }
+
+    @Test
+    void shouldGetAllWidgetsWithCursorPagination() {
+        for (int z = 1; z <= 5; z++) {
+            widgetRepository.save(createWidgetWithZIndex(z));
+        }
+
+        MultiValueMap<String, String> headers = new LinkedMultiValueMap<>();
+        headers.add(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
+        HttpEntity<Void> entity = new HttpEntity<>(headers);
+        ResponseEntity<WidgetPageResponseDto> response = restTemplate.exchange(
+                API_BASE_PATH + "/filter?size=2", HttpMethod.POST, entity, WidgetPageResponseDto.class);
+
+        assertThat(response.getBody()).isNotNull();
+        assertThat(response.getBody().getContent()).extracting(WidgetResponseDto::getZ).containsExactly(1, 2);
+        String cursor = response.getBody().getNextCursor();
+        assertThat(cursor).isNotNull();
+
+        response = restTemplate.exchange(API_BASE_PATH + "/filter?size=2&cursor=" + cursor,
+                HttpMethod.POST, entity, WidgetPageResponseDto.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).isNotNull();
+        assertThat(response.getBody().getTotalElements()).isNull();
+        assertThat(response.getBody().getContent()).extracting(WidgetResponseDto::getZ).containsExactly(3, 4);
+        cursor = response.getBody().getNextCursor();
+        assertThat(cursor).isNotNull();
+
+        response = restTemplate.exchange(API_BASE_PATH + "/filter?size=2&cursor=" + cursor,
+                HttpMethod.POST, entity, WidgetPageResponseDto.class);
+
+        assertThat(response.getBody()).isNotNull();
+        assertThat(response.getBody().getContent()).extracting(WidgetResponseDto::getZ).containsExactly(5);
+        assertThat(response.getBody().getNextCursor()).isNull();
+    }
+
+    @Test
+    void shouldGetAllWidgetsWithCursorPaginationAndFiltering() {
+        widgetRepository.save(createWidget(50, 50, 2, 100, 100));
+        widgetRepository.save(createWidget(50, 100, 1, 100, 100));
+        widgetRepository.save(createWidget(100, 100, 3, 100, 100));
+        widgetRepository.save(createWidget(50, 50, 4, 50, 50));
+
+        WidgetPageRequestDto dto = createWidgetPageRequestDto(0, 0, 100, 150);
+        HttpEntity<WidgetPageRequestDto> entity = new HttpEntity<>(dto);
+        ResponseEntity<WidgetPageResponseDto> response = restTemplate.exchange(
+                API_BASE_PATH + "/filter?size=2", HttpMethod.POST, entity, WidgetPageResponseDto.class);
+
+        assertThat(response.getBody()).isNotNull();
+        assertThat(response.getBody().getContent()).extracting(WidgetResponseDto::getZ).containsExactly(1, 2);
+        String cursor = response.getBody().getNextCursor();
+
+        response = restTemplate.exchange(API_BASE_PATH + "/filter?size=2&cursor=" + cursor,
+                HttpMethod.POST, entity, WidgetPageResponseDto.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).isNotNull();
+        assertThat(response.getBody().getContent()).extracting(WidgetResponseDto::getZ).containsExactly(4);
+        assertThat(response.getBody().getNextCursor()).isNull();
+    }
+
+    @Test
+    void shouldNotGetAllWidgetsWithInvalidCursor() {
+        MultiValueMap<String, String> headers = new LinkedMultiValueMap<>();
+        headers.add(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
+        HttpEntity<Void> entity = new HttpEntity<>(headers);
+        ResponseEntity<Void> response = restTemplate.exchange(
+                API_BASE_PATH + "/filter?cursor=invalid", HttpMethod.POST, entity, Void.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    @Test
+    void shouldExportAllWidgets() throws IOException {
+        Widget widget1 = widgetRepository.save(createWidgetWithZIndex(2));
+        Widget widget2 = widgetRepository.save(createWidgetWithZIndex(1));
+
+        ResponseEntity<String> response = restTemplate.getForEntity(API_BASE_PATH + "/export", String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getHeaders().getContentType()).isEqualTo(MediaType.valueOf("application/x-ndjson"));
+        assertThat(response.getBody()).endsWith("\n");
+        String[] lines = response.getBody().split("\n");
+        assertThat(lines).hasSize(2);
+        assertThat(objectMapper.readValue(lines[0], WidgetResponseDto.class).getId()).isEqualTo(widget2.getId());
+        assertThat(objectMapper.readValue(lines[1], WidgetResponseDto.class).getId()).isEqualTo(widget1.getId());
+    }
+
+    @Test
+    void shouldImportWidgetsFromJson() {
+        String body = "{\"x\": 1, \"y\": 1, \"z\": 2, \"width\": 10, \"height\": 10}\n"
+                + "{\"x\": 2, \"y\": 2, \"z\": 1, \"width\": 10, \"height\": -10}\n";
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.valueOf("application/x-ndjson"));
+
+        ResponseEntity<WidgetImportResponseDto> response = restTemplate.postForEntity(
+                API_BASE_PATH + "/import", new HttpEntity<>(body, headers), WidgetImportResponseDto.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).isNotNull();
+        assertThat(response.getBody().getImported()).isEqualTo(1);
+        assertThat(response.getBody().getRejected()).isEqualTo(1);
+        assertThat(response.getBody().getErrors()).hasSize(1);
+        assertThat(response.getBody().getErrors().get(0).getLine()).isEqualTo(2);
+        assertThat(response.getBody().getErrors().get(0).getMessage()).isEqualTo("height must be greater than 0");
+        assertThat(widgetRepository.findByZ(2)).isPresent();
+    }
+
+    @Test
+    void shouldImportWidgetsFromCsv() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.valueOf("text/csv"));
+
+        ResponseEntity<WidgetImportResponseDto> response = restTemplate.postForEntity(API_BASE_PATH + "/import",
+                new HttpEntity<>("x,y,width,height\n1,1,10,10\n2,2,10,10\n", headers), WidgetImportResponseDto.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).isNotNull();
+        assertThat(response.getBody().getLines()).isEqualTo(3);
+        assertThat(response.getBody().getChunks()).isEqualTo(1);
+        assertThat(response.getBody().getImported()).isEqualTo(2);
+        assertThat(response.getBody().getErrors()).isEmpty();
+    }
+
+    @Test
+    void shouldNotImportCsvWithInvalidHeader() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.valueOf("text/csv"));
+
+        ResponseEntity<Void> response = restTemplate.postForEntity(API_BASE_PATH + "/import",
+                new HttpEntity<>("x,y\n1,1\n", headers), Void.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    @Test
+    void shouldExposeOperationMetrics() {
+        restTemplate.postForEntity(API_BASE_PATH, createWidgetRequestDtoWithZIndex(1), WidgetResponseDto.class);
+
+        ResponseEntity<String> response = restTemplate.getForEntity(
+                "/actuator/metrics/widgets.operations?tag=operation:create", String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).contains("\"COUNT\"").contains("\"exception\"");
+    }
+
+    @Test
+    void shouldNotSubscribeWithIncompleteViewport() {
+        webTestClient.get()
+                .uri(API_BASE_PATH + "subscribe?xBottomLeft=-10&yBottomLeft=-10&xTopRight=10")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void shouldStreamChangesInsideViewport() throws InterruptedException {
+        Widget widget = widgetRepository.save(createWidgetWithZIndex(1));
+        BlockingQueue<ServerSentEvent<WidgetChangeDto>> events = new LinkedBlockingQueue<>();
+
+        Disposable subscription = webTestClient.get()
+                .uri(API_BASE_PATH + "subscribe?xBottomLeft=-10&yBottomLeft=-10&xTopRight=10&yTopRight=10")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<WidgetChangeDto>>() {
+                })
+                .getResponseBody()
+                .subscribe(events::add);
+        try {
+            ServerSentEvent<WidgetChangeDto> entered = events.poll(10, TimeUnit.SECONDS);
+            assertThat(entered).isNotNull();
+            assertThat(entered.event()).isEqualTo("entered");
+            assertThat(entered.data().getId()).isEqualTo(widget.getId());
+
+            webTestClient.post().uri(API_BASE_PATH)
+                    .bodyValue(createWidgetRequestDtoWithZIndex(1))
+                    .exchange()
+                    .expectStatus().isCreated();
+
+            ServerSentEvent<WidgetChangeDto> shifted = events.poll(10, TimeUnit.SECONDS);
+            assertThat(shifted).isNotNull();
+            assertThat(shifted.event()).isEqualTo("shifted");
+            assertThat(shifted.data().getWidget().getZ()).isEqualTo(2);
+            ServerSentEvent<WidgetChangeDto> created = events.poll(10, TimeUnit.SECONDS);
+            assertThat(created).isNotNull();
+            assertThat(created.event()).isEqualTo("created");
+            assertThat(created.data().getWidget().getZ()).isEqualTo(1);
+        } finally {
+            subscription.dispose();
+        }
+    }
 }
@@ -0,0 +1,194 @@
+package com.koryshev.widgets.domain.repository;
+
+import com.koryshev.widgets.domain.model.Widget;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.koryshev.widgets.util.TestData.createWidget;
+import static com.koryshev.widgets.util.TestData.createWidgetWithZIndex;
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CompactWidgetRepositoryTest {
+
+    private final CompactWidgetRepository repository = new CompactWidgetRepository();
+
+    @Test
+    void shouldSaveWidget() {
+        Widget widget = repository.save(createWidget(10, 20, 1, 30, 40));
+
+        assertThat(widget.getId()).isNotNull();
+        assertThat(widget.getCreatedDate()).isNotNull();
+        assertThat(widget.getLastModifiedDate()).isNotNull();
+        assertThat(repository.findById(widget.getId())).contains(widget);
+        assertThat(repository.findByZ(1)).contains(widget);
+        assertThat(repository.count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldNotExposeStoredWidgets() {
+        Widget widget = repository.save(createWidgetWithZIndex(1));
+        widget.setX(100);
+        repository.findById(widget.getId()).orElseThrow().setY(100);
+
+        Widget stored = repository.findById(widget.getId()).orElseThrow();
+        assertThat(stored.getX()).isNotEqualTo(100);
+        assertThat(stored.getY()).isNotEqualTo(100);
+    }
+
+    @Test
+    void shouldMoveWidgetWhenSavedWithNewZIndex() {
+        Widget widget = repository.save(createWidgetWithZIndex(1));
+        widget.setZ(5);
+        repository.save(widget);
+
+        assertThat(repository.findByZ(1)).isEmpty();
+        assertThat(repository.findByZ(5)).contains(widget);
+        assertThat(repository.findAllZ()).containsExactly(5);
+    }
+
+    @Test
+    void shouldNotSaveWidgetWithTakenZIndex() {
+        repository.save(createWidgetWithZIndex(1));
+        Widget widget = repository.save(createWidgetWithZIndex(2));
+        widget.setZ(1);
+
+        assertThatThrownBy(() -> repository.save(widget)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(repository.findByZ(2).map(Widget::getId)).contains(widget.getId());
+    }
+
+    @Test
+    void shouldDeleteWidget() {
+        Widget widget1 = repository.save(createWidgetWithZIndex(1));
+        Widget widget2 = repository.save(createWidgetWithZIndex(2));
+        Widget widget3 = repository.save(createWidgetWithZIndex(3));
+
+        repository.deleteById(widget1.getId());
+
+        assertThat(repository.findById(widget1.getId())).isEmpty();
+        assertThat(repository.findByZ(1)).isEmpty();
+        assertThat(repository.findById(widget2.getId())).contains(widget2);
+        assertThat(repository.findById(widget3.getId())).contains(widget3);
+        assertThat(repository.findByZ(3)).contains(widget3);
+        assertThat(repository.count()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldShiftZIndexRun() {
+        Widget widget1 = repository.save(createWidgetWithZIndex(1));
+        Widget widget2 = repository.save(createWidgetWithZIndex(2));
+        Widget widget3 = repository.save(createWidgetWithZIndex(3));
+        Widget widget4 = repository.save(createWidgetWithZIndex(5));
+
+        assertThat(repository.shiftZRun(2)).isEqualTo(2);
+
+        assertThat(repository.findAllZ()).containsExactly(1, 3, 4, 5);
+        assertThat(repository.findByZ(1).map(Widget::getId)).contains(widget1.getId());
+        assertThat(repository.findByZ(3).map(Widget::getId)).contains(widget2.getId());
+        assertThat(repository.findByZ(4).map(Widget::getId)).contains(widget3.getId());
+        assertThat(repository.findByZ(5).map(Widget::getId)).contains(widget4.getId());
+        assertThat(repository.findById(widget2.getId()).map(Widget::getZ)).contains(3);
+    }
+
+    @Test
+    void shouldShiftZIndexRangeOverOtherWidgets() {
+        Widget widget1 = repository.save(createWidgetWithZIndex(1));
+        Widget widget2 = repository.save(createWidgetWithZIndex(2));
+        Widget widget3 = repository.save(createWidgetWithZIndex(4));
+
+        assertThat(repository.shiftZRange(1, 2, 4)).isEqualTo(2);
+
+        assertThat(repository.findAllZ()).containsExactly(4, 5, 6);
+        assertThat(repository.findByZ(4).map(Widget::getId)).contains(widget3.getId());
+        assertThat(repository.findByZ(5).map(Widget::getId)).contains(widget1.getId());
+        assertThat(repository.findByZ(6).map(Widget::getId)).contains(widget2.getId());
+    }
+
+    @Test
+    void shouldFindAllWidgetsInRectangle() {
+        Widget widget1 = repository.save(createWidget(50, 50, 2, 100, 100));
+        Widget widget2 = repository.save(createWidget(50, 100, 1, 100, 100));
+        repository.save(createWidget(100, 100, 3, 100, 100));
+
+        assertThat(repository.findAllInRectangleOrderByZAsc(50, 75, 100, 150)).containsExactly(widget2, widget1);
+        assertThat(repository.findAllInRectangleByZGreaterThanOrderByZAsc(50, 75, 100, 150, 1, PageRequest.of(0, 1)))
+                .containsExactly(widget1);
+    }
+
+    @Test
+    void shouldMatchInMemoryRepositoryAfterChanges() {
+        InMemoryWidgetRepository expected = new InMemoryWidgetRepository();
+        Random random = new Random(42);
+        List<Widget> widgets = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            int operation = random.nextInt(10);
+            if (widgets.isEmpty() || operation < 4) {
+                int z = random.nextInt(20000);
+                if (expected.findByZ(z).isEmpty()) {
+                    Widget widget = repository.save(createWidget(random.nextInt(1000), random.nextInt(1000), z,
+                            random.nextInt(200) + 1, random.nextInt(200) + 1));
+                    widgets.add(expected.save(widget.toBuilder().build()));
+                }
+            } else if (operation < 6) {
+                Widget widget = widgets.remove(random.nextInt(widgets.size()));
+                repository.deleteById(widget.getId());
+                expected.deleteById(widget.getId());
+            } else if (operation < 8) {
+                Widget widget = widgets.get(random.nextInt(widgets.size()));
+                widget.setX(random.nextInt(1000));
+                widget.setWidth(random.nextInt(200) + 1);
+                repository.save(widget.toBuilder().build());
+                expected.save(widget);
+            } else if (operation < 9) {
+                Widget widget = widgets.get(random.nextInt(widgets.size()));
+                int z = random.nextInt(20000);
+                if (expected.findByZ(z).isEmpty()) {
+                    repository.updateZ(widget.getZ(), z);
+                    expected.updateZ(widget.getZ(), z);
+                }
+            } else {
+                int z = widgets.get(random.nextInt(widgets.size())).getZ();
+                assertThat(repository.shiftZRun(z)).isEqualTo(expected.shiftZRun(z));
+            }
+        }
+
+        assertThat(repository.count()).isEqualTo(widgets.size());
+        assertThat(repository.findAllZ()).isEqualTo(expected.findAllZ());
+        for (int page = 0; page * 500 <= widgets.size(); page++) {
+            PageRequest pageable = PageRequest.of(page, 500, Sort.Direction.ASC, "z");
+            assertThat(geometry(repository.findAll(pageable).getContent()))
+                    .isEqualTo(geometry(expected.findAll(pageable).getContent()));
+        }
+        for (Widget widget : widgets) {
+            assertThat(geometry(List.of(repository.findById(widget.getId()).orElseThrow())))
+                    .isEqualTo(geometry(List.of(widget)));
+        }
+        for (int i = 0; i < 50; i++) {
+            int x = random.nextInt(1000);
+            int y = random.nextInt(1000);
+            int width = random.nextInt(500) + 1;
+            int height = random.nextInt(500) + 1;
+            int z = random.nextInt(20000);
+
+            assertThat(geometry(repository.findAllInRectangleOrderByZAsc(x, y, width, height)))
+                    .isEqualTo(geometry(expected.findAllInRectangleOrderByZAsc(x, y, width, height)));
+            assertThat(geometry(repository.findAllInRectangleByZGreaterThanOrderByZAsc(
+                    x, y, width, height, z, PageRequest.of(0, 10))))
+                    .isEqualTo(geometry(expected.findAllInRectangleByZGreaterThanOrderByZAsc(
+                            x, y, width, height, z, PageRequest.of(0, 10))));
+        }
+    }
+
+    private static List<List<Object>> geometry(List<Widget> widgets) {
+        return widgets.stream()
+                .map(widget -> List.<Object>of(widget.getId(), widget.getX(), widget.getY(), widget.getZ(),
+                        widget.getWidth(), widget.getHeight()))
+                .collect(toList());
+    }
+}
@@ -1,14 +1,27 @@
 package com.koryshev.widgets.domain.repository;
 
 import com.koryshev.widgets.domain.model.Widget;
+import com.koryshev.widgets.util.WidgetUtil;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import static com.koryshev.widgets.util.TestData.createWidget;
 import static com.koryshev.widgets.util.TestData.createWidgetWithZIndex;
+import static java.util.stream.Collectors.toList;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 class InMemoryWidgetRepositoryTest {
 
@@ -30,6 +43,32 @@ class InMemoryWidgetRepositoryTest {
         assertThat(repository.findById(widget.getId())).isNotEmpty();
     }
 
+    @Test
+    void shouldCalculateEdgesOnSave() {
+        Widget widget = repository.save(createWidget(-5, 10, 1, 11, 7));
+
+        assertThat(widget.getLeftEdge()).isEqualTo(-10);
+        assertThat(widget.getRightEdge()).isEqualTo(1);
+        assertThat(widget.getTopEdge()).isEqualTo(13);
+
+        widget.setX(5);
+        repository.save(widget);
+
+        assertThat(widget.getLeftEdge()).isEqualTo(0);
+        assertThat(widget.getRightEdge()).isEqualTo(11);
+    }
+
+    @Test
+    void shouldCalculateEdgesBeyondIntRange() {
+        Widget widget = repository.save(createWidget(Integer.MIN_VALUE + 2, Integer.MAX_VALUE - 2, 1, 10, 10));
+
+        assertThat(widget.getLeftEdge()).isEqualTo(Integer.MIN_VALUE - 3L);
+        assertThat(widget.getRightEdge()).isEqualTo(Integer.MIN_VALUE + 7L);
+        assertThat(widget.getTopEdge()).isEqualTo(Integer.MAX_VALUE + 3L);
+        assertThat(repository.findAllInRectangleOrderByZAsc(Integer.MIN_VALUE + 100, Integer.MAX_VALUE - 100,
+                100, 100)).isEmpty();
+    }
+
     @Test
     void shouldDeleteWidget() {
         Widget widget = createWidgetWithZIndex(1);
@@ -80,6 +119,30 @@ class InMemoryWidgetRepositoryTest {
         assertThat(repository.findAll(pageable).getContent()).hasSize(3);
     }
 
+    @Test
+    void shouldFindAllWidgetsByPageAfterChanges() {
+        Random random = new Random(42);
+        TreeMap<Integer, Widget> expected = new TreeMap<>();
+        for (int i = 0; i < 3000; i++) {
+            int z = random.nextInt(5000);
+            if (expected.containsKey(z)) {
+                repository.deleteById(expected.remove(z).getId());
+            } else {
+                expected.put(z, repository.save(createWidgetWithZIndex(z)));
+            }
+        }
+
+        List<Widget> widgets = new ArrayList<>(expected.values());
+        for (int page = 0; page * 100 <= widgets.size(); page++) {
+            Page<Widget> result = repository.findAll(PageRequest.of(page, 100, Sort.Direction.ASC, "z"));
+
+            assertThat(result.getTotalElements()).isEqualTo(widgets.size());
+            assertThat(result.getContent())
+                    .isEqualTo(widgets.subList(page * 100, Math.min(widgets.size(), page * 100 + 100)));
+        }
+        assertThat(repository.findAllZ()).isEqualTo(new ArrayList<>(expected.keySet()));
+    }
+
     @Test
     void shouldShiftZIndex() {
         Widget widget = createWidgetWithZIndex(1);
@@ -90,6 +153,32 @@ class InMemoryWidgetRepositoryTest {
         assertThat(repository.findByZ(2)).isNotEmpty();
     }
 
+    @Test
+    void shouldShiftZIndexRun() {
+        Widget widget1 = repository.save(createWidgetWithZIndex(1));
+        Widget widget2 = repository.save(createWidgetWithZIndex(2));
+        Widget widget3 = repository.save(createWidgetWithZIndex(3));
+        Widget widget4 = repository.save(createWidgetWithZIndex(5));
+
+        assertThat(repository.shiftZRun(2)).isEqualTo(2);
+
+        assertThat(repository.findByZ(1)).contains(widget1);
+        assertThat(repository.findByZ(2)).isEmpty();
+        assertThat(repository.findByZ(3)).contains(widget2);
+        assertThat(repository.findByZ(4)).contains(widget3);
+        assertThat(repository.findByZ(5)).contains(widget4);
+        assertThat(widget2.getZ()).isEqualTo(3);
+        assertThat(widget3.getZ()).isEqualTo(4);
+        assertThat(widget4.getZ()).isEqualTo(5);
+    }
+
+    @Test
+    void shouldNotShiftZIndexRunWhenZIndexIsFree() {
+        repository.save(createWidgetWithZIndex(2));
+
+        assertThat(repository.shiftZRun(1)).isZero();
+        assertThat(repository.findByZ(2)).isNotEmpty();
+    }
 
     @Test
     void shouldUpdateZIndex() {
@@ -100,4 +189,125 @@ class InMemoryWidgetRepositoryTest {
 
         assertThat(repository.findByZ(10)).isNotEmpty();
     }
+
+    @Test
+    void shouldFindAllWidgetsInRectangle() {
+        Widget widget1 = repository.save(createWidget(50, 50, 2, 100, 100));
+        Widget widget2 = repository.save(createWidget(50, 100, 1, 100, 100));
+        repository.save(createWidget(100, 100, 3, 100, 100));
+
+        List<Widget> widgets = repository.findAllInRectangleOrderByZAsc(50, 75, 100, 150);
+
+        assertThat(widgets).containsExactly(widget2, widget1);
+    }
+
+    @Test
+    void shouldFindNoWidgetsAfterMaxZIndex() {
+        repository.save(createWidget(50, 50, Integer.MAX_VALUE, 100, 100));
+
+        assertThat(repository.findAllByZGreaterThanOrderByZAsc(Integer.MAX_VALUE, PageRequest.of(0, 10))).isEmpty();
+        assertThat(repository.findAllInRectangleByZGreaterThanOrderByZAsc(
+                50, 50, 100, 100, Integer.MAX_VALUE, PageRequest.of(0, 10))).isEmpty();
+    }
+
+    @Test
+    void shouldFindAllWidgetsInRectangleAfterChanges() {
+        Random random = new Random(42);
+        List<Widget> widgets = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            widgets.add(repository.save(createRandomWidget(random, i)));
+        }
+        for (int i = 0; i < 500; i++) {
+            Widget widget = widgets.get(random.nextInt(widgets.size()));
+            if (i % 2 == 0) {
+                repository.deleteById(widget.getId());
+                widgets.remove(widget);
+            } else {
+                widget.setX(random.nextInt(1000));
+                widget.setY(random.nextInt(1000));
+                repository.save(widget);
+            }
+        }
+
+        assertFindAllInRectangle(random, widgets);
+    }
+
+    @Test
+    void shouldLoadWidgets() {
+        repository.save(createWidgetWithZIndex(5000));
+        Random random = new Random(42);
+        List<Widget> widgets = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            Widget widget = createRandomWidget(random, 2 * i);
+            widget.setId(UUID.randomUUID());
+            widget.setCreatedDate(Instant.ofEpochMilli(i));
+            widget.setLastModifiedDate(Instant.ofEpochMilli(i));
+            widgets.add(widget);
+        }
+
+        repository.load(widgets);
+
+        assertThat(repository.count()).isEqualTo(2000);
+        assertThat(repository.findByZ(5000)).isEmpty();
+        assertThat(repository.findById(widgets.get(10).getId())).contains(widgets.get(10));
+        assertThat(repository.findMaxZ()).contains(3998);
+        assertFindAllInRectangle(random, widgets);
+
+        for (int i = 0; i < 500; i++) {
+            Widget widget = widgets.get(random.nextInt(widgets.size()));
+            if (i % 2 == 0) {
+                repository.deleteById(widget.getId());
+                widgets.remove(widget);
+            } else {
+                widget.setX(random.nextInt(1000));
+                widget.setY(random.nextInt(1000));
+                repository.save(widget);
+            }
+        }
+        widgets.add(repository.save(createRandomWidget(random, 1)));
+        assertFindAllInRectangle(random, widgets);
+    }
+
+    @Test
+    void shouldNotLoadWidgetsWithDuplicateZIndexes() {
+        List<Widget> widgets = List.of(createWidgetWithZIndex(1), createWidgetWithZIndex(1));
+        widgets.forEach(widget -> widget.setId(UUID.randomUUID()));
+
+        assertThatThrownBy(() -> repository.load(widgets)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(repository.count()).isZero();
+    }
+
+    private void assertFindAllInRectangle(Random random, List<Widget> widgets) {
+        for (int i = 0; i < 50; i++) {
+            int x = random.nextInt(1000);
+            int y = random.nextInt(1000);
+            int width = random.nextInt(500) + 1;
+            int height = random.nextInt(500) + 1;
+
+            List<Widget> expected = widgets.stream()
+                    .filter(widget -> WidgetUtil.rectangleContains(x, y, width, height, widget))
+                    .sorted(Comparator.comparing(Widget::getZ))
+                    .collect(toList());
+
+            assertThat(repository.findAllInRectangleOrderByZAsc(x, y, width, height)).isEqualTo(expected);
+
+            // Small pages mostly fall back to the spatial index, large ones are mostly found walking the z-order
+            int pageSize = i % 2 == 0 ? 1 : 100;
+            List<Widget> pages = new ArrayList<>();
+            int z = Integer.MIN_VALUE;
+            List<Widget> page;
+            do {
+                page = repository.findAllInRectangleByZGreaterThanOrderByZAsc(
+                        x, y, width, height, z, PageRequest.of(0, pageSize));
+                pages.addAll(page);
+                z = page.isEmpty() ? z : page.get(page.size() - 1).getZ();
+            } while (page.size() == pageSize);
+            assertThat(pages).isEqualTo(expected);
+        }
+    }
+
+    private static Widget createRandomWidget(Random random, int z) {
+        return createWidget(random.nextInt(1000), random.nextInt(1000), z, random.nextInt(200) + 1,
+                random.nextInt(200) + 1);
+    }
 }
@@ -0,0 +1,160 @@
+package com.koryshev.widgets.domain.repository;
+
+import com.koryshev.widgets.config.WidgetProperties;
+import com.koryshev.widgets.domain.model.Widget;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static com.koryshev.widgets.util.TestData.createWidget;
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class JournaledWidgetRepositoryTest {
+
+    @TempDir
+    Path directory;
+
+    private final WidgetProperties widgetProperties = new WidgetProperties();
+
+    private JournaledWidgetRepository repository;
+
+    @BeforeEach
+    public void setup() {
+        widgetProperties.getJournal().setDirectory(directory.toString());
+        widgetProperties.getJournal().setSegmentSize(DataSize.ofKilobytes(64));
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        repository.close();
+    }
+
+    @Test
+    void shouldRecoverChangesFromJournal() throws IOException {
+        repository = open();
+        Widget widget1 = repository.save(createWidget(0, 0, 1, 10, 10));
+        Widget widget2 = repository.save(createWidget(10, 10, 2, 10, 10));
+        Widget widget3 = repository.save(createWidget(20, 20, 3, 10, 10));
+        repository.save(createWidget(30, 30, 10, 10, 10));
+        repository.shiftZRun(1);
+        repository.shiftZRange(10, 10, 5);
+        repository.updateZ(4, 20);
+        repository.deleteById(widget2.getId());
+        widget1.setX(100);
+        repository.save(widget1);
+        List<Widget> widgets = widgets(repository);
+
+        repository = reopen();
+
+        assertThat(widgets(repository)).isEqualTo(widgets);
+        assertThat(widgets(repository)).extracting(Widget::getId).contains(widget1.getId(), widget3.getId());
+        assertThat(repository.findById(widget1.getId()).orElseThrow().getX()).isEqualTo(100);
+    }
+
+    @Test
+    void shouldRecoverFromSnapshotAndJournalTail() throws IOException {
+        widgetProperties.getJournal().setSnapshotInterval(10);
+        repository = open();
+        for (int z = 1; z <= 25; z++) {
+            repository.save(createWidget(z, z, z, 10, 10));
+        }
+        repository.deleteById(repository.findByZ(1).orElseThrow().getId());
+        List<Widget> widgets = widgets(repository);
+
+        repository = reopen();
+
+        assertThat(widgets(repository)).isEqualTo(widgets);
+        assertThat(files("snapshot-")).hasSize(1);
+        assertThat(files("journal-")).hasSize(1);
+    }
+
+    @Test
+    void shouldNotRecoverFromCorruptSnapshot() throws IOException {
+        widgetProperties.getJournal().setSnapshotInterval(10);
+        repository = open();
+        for (int z = 1; z <= 15; z++) {
+            repository.save(createWidget(z, z, z, 10, 10));
+        }
+        repository.close();
+
+        // Damages the x coordinate of the first widget
+        try (RandomAccessFile file = new RandomAccessFile(files("snapshot-").get(0).toFile(), "rw")) {
+            file.seek(3 * Integer.BYTES + 10 * 2 * Long.BYTES);
+            file.writeInt(1000);
+        }
+
+        assertThatThrownBy(this::open).isInstanceOf(IOException.class).hasMessageContaining("corrupt");
+    }
+
+    @Test
+    void shouldRecoverChangesFromMultipleSegments() throws IOException {
+        widgetProperties.getJournal().setSegmentSize(DataSize.ofBytes(1000));
+        repository = open();
+        for (int z = 1; z <= 100; z++) {
+            repository.save(createWidget(z, z, z, 10, 10));
+        }
+        List<Widget> widgets = widgets(repository);
+
+        repository = reopen();
+
+        assertThat(widgets(repository)).isEqualTo(widgets);
+        assertThat(files("journal-")).hasSizeGreaterThan(1);
+    }
+
+    @Test
+    void shouldDiscardPartiallyWrittenRecord() throws IOException {
+        repository = open();
+        Widget widget = repository.save(createWidget(0, 0, 1, 10, 10));
+        repository.save(createWidget(10, 10, 2, 10, 10));
+        repository.close();
+
+        // Damages the last byte of the second record
+        try (RandomAccessFile file = new RandomAccessFile(files("journal-").get(0).toFile(), "rw")) {
+            int recordSize = 2 * Integer.BYTES + 53;
+            file.seek(2L * recordSize - 1);
+            int value = file.read();
+            file.seek(2L * recordSize - 1);
+            file.write(value ^ 0xFF);
+        }
+        repository = open();
+        repository.save(createWidget(20, 20, 3, 10, 10));
+
+        repository = reopen();
+
+        assertThat(widgets(repository)).extracting(Widget::getZ).containsExactly(1, 3);
+        assertThat(widgets(repository).get(0)).isEqualTo(widget);
+    }
+
+    private JournaledWidgetRepository open() throws IOException {
+        return new JournaledWidgetRepository(widgetProperties);
+    }
+
+    private JournaledWidgetRepository reopen() throws IOException {
+        repository.close();
+        return open();
+    }
+
+    private List<Path> files(String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().startsWith(prefix)).sorted().collect(toList());
+        }
+    }
+
+    private static List<Widget> widgets(InMemoryWidgetRepository repository) {
+        List<Widget> widgets = new ArrayList<>();
+        repository.forEachOrderByZAsc(widget -> widgets.add(widget.toBuilder().build()));
+        return widgets;
+    }
+}
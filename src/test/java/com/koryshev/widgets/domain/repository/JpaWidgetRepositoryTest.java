@@ -0,0 +1,98 @@
+package com.koryshev.widgets.domain.repository;
+
+import com.koryshev.widgets.domain.model.Widget;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static com.koryshev.widgets.util.TestData.createWidget;
+import static com.koryshev.widgets.util.TestData.filterInRectangle;
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ActiveProfiles("jpa")
+@SpringBootTest
+class JpaWidgetRepositoryTest {
+
+    @Autowired
+    private WidgetRepository repository;
+
+    @BeforeEach
+    public void setup() {
+        repository.deleteAll();
+    }
+
+    @Test
+    void shouldGenerateAscendingIds() {
+        List<UUID> ids = new ArrayList<>();
+        for (int z = 0; z < 100; z++) {
+            ids.add(repository.save(createWidget(0, 0, z, 10, 10)).getId());
+        }
+
+        assertThat(ids).extracting(UUID::version).containsOnly(7);
+        assertThat(ids).isSortedAccordingTo(Comparator.comparing(UUID::toString));
+    }
+
+    @Test
+    void shouldFindPageOfWidgetsInRectangle() {
+        Widget widget1 = repository.save(createWidget(50, 50, 2, 100, 100));
+        Widget widget2 = repository.save(createWidget(50, 100, 1, 100, 100));
+        repository.save(createWidget(100, 100, 3, 100, 100));
+
+        Page<Widget> firstPage = repository.findAllInRectangle(50, 75, 100, 150, PageRequest.of(0, 1));
+        Page<Widget> secondPage = repository.findAllInRectangle(50, 75, 100, 150, PageRequest.of(1, 1));
+
+        assertThat(firstPage.getTotalElements()).isEqualTo(2);
+        assertThat(ids(firstPage.getContent())).containsExactly(widget2.getId());
+        assertThat(secondPage.getTotalElements()).isEqualTo(2);
+        assertThat(ids(secondPage.getContent())).containsExactly(widget1.getId());
+    }
+
+    @Test
+    void shouldFindWidgetsInRectangleSameAsInMemoryCheck() {
+        Random random = new Random(42);
+        List<Widget> widgets = new ArrayList<>();
+        for (int z = 0; z < 1000; z++) {
+            // Negative coordinates and odd sizes check that halves are rounded the same way as in Java
+            widgets.add(createWidget(random.nextInt(1000) - 500, random.nextInt(1000) - 500, z,
+                    random.nextInt(199) + 1, random.nextInt(199) + 1));
+        }
+        widgets.forEach(repository::save);
+
+        for (int i = 0; i < 50; i++) {
+            int x = random.nextInt(1000) - 500;
+            int y = random.nextInt(1000) - 500;
+            int width = random.nextInt(499) + 1;
+            int height = random.nextInt(499) + 1;
+            int z = random.nextInt(1000);
+            List<UUID> expected = ids(filterInRectangle(widgets, x, y, width, height));
+            List<UUID> expectedAfterZ = ids(filterInRectangle(widgets.subList(z + 1, widgets.size()),
+                    x, y, width, height));
+
+            Page<Widget> page = repository.findAllInRectangle(x, y, width, height,
+                    PageRequest.of(0, 10, Sort.Direction.ASC, "z"));
+            List<Widget> afterZ = repository.findAllInRectangleByZGreaterThanOrderByZAsc(
+                    x, y, width, height, z, PageRequest.of(0, 10));
+
+            assertThat(ids(repository.findAllInRectangleOrderByZAsc(x, y, width, height))).isEqualTo(expected);
+            assertThat(page.getTotalElements()).isEqualTo(expected.size());
+            assertThat(ids(page.getContent())).isEqualTo(expected.subList(0, Math.min(10, expected.size())));
+            assertThat(ids(afterZ)).isEqualTo(expectedAfterZ.subList(0, Math.min(10, expectedAfterZ.size())));
+        }
+    }
+
+    private static List<UUID> ids(List<Widget> widgets) {
+        return widgets.stream().map(Widget::getId).collect(toList());
+    }
+}
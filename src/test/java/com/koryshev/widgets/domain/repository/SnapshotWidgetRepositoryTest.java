@@ -0,0 +1,193 @@
+package com.koryshev.widgets.domain.repository;
+
+import com.koryshev.widgets.domain.model.Widget;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import static com.koryshev.widgets.util.TestData.createWidget;
+import static com.koryshev.widgets.util.TestData.createWidgetWithZIndex;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SnapshotWidgetRepositoryTest {
+
+    private final SnapshotWidgetRepository repository = new SnapshotWidgetRepository();
+
+    @BeforeEach
+    public void setup() {
+        repository.deleteAll();
+    }
+
+    @Test
+    void shouldSaveWidget() {
+        Widget widget = repository.save(createWidgetWithZIndex(1));
+
+        assertThat(widget.getId()).isNotNull();
+        assertThat(widget.getCreatedDate()).isNotNull();
+        assertThat(widget.getLastModifiedDate()).isNotNull();
+        assertThat(repository.findById(widget.getId())).contains(widget);
+    }
+
+    @Test
+    void shouldNotExposeStoredWidgets() {
+        Widget widget = repository.save(createWidgetWithZIndex(1));
+        widget.setX(100);
+        repository.findById(widget.getId()).orElseThrow().setY(100);
+
+        Widget stored = repository.findById(widget.getId()).orElseThrow();
+        assertThat(stored.getX()).isNotEqualTo(100);
+        assertThat(stored.getY()).isNotEqualTo(100);
+    }
+
+    @Test
+    void shouldMoveWidgetWhenSavedWithNewZIndex() {
+        Widget widget = repository.save(createWidgetWithZIndex(1));
+        widget.setZ(5);
+        repository.save(widget);
+
+        assertThat(repository.findByZ(1)).isEmpty();
+        assertThat(repository.findByZ(5)).contains(widget);
+        assertThat(repository.findAllZ()).containsExactly(5);
+    }
+
+    @Test
+    void shouldDeleteWidget() {
+        Widget widget = repository.save(createWidgetWithZIndex(1));
+
+        repository.deleteById(widget.getId());
+
+        assertThat(repository.findById(widget.getId())).isEmpty();
+        assertThat(repository.findByZ(1)).isEmpty();
+    }
+
+    @Test
+    void shouldShiftZIndexRun() {
+        Widget widget1 = repository.save(createWidgetWithZIndex(1));
+        Widget widget2 = repository.save(createWidgetWithZIndex(2));
+        Widget widget3 = repository.save(createWidgetWithZIndex(3));
+        Widget widget4 = repository.save(createWidgetWithZIndex(5));
+
+        assertThat(repository.shiftZRun(2)).isEqualTo(2);
+
+        assertThat(repository.findAllZ()).containsExactly(1, 3, 4, 5);
+        assertThat(repository.findByZ(1).map(Widget::getId)).contains(widget1.getId());
+        assertThat(repository.findByZ(3).map(Widget::getId)).contains(widget2.getId());
+        assertThat(repository.findByZ(4).map(Widget::getId)).contains(widget3.getId());
+        assertThat(repository.findByZ(5).map(Widget::getId)).contains(widget4.getId());
+        assertThat(repository.findById(widget2.getId()).map(Widget::getZ)).contains(3);
+    }
+
+    @Test
+    void shouldFindAllWidgetsByPageAfterChanges() {
+        Random random = new Random(42);
+        TreeMap<Integer, Widget> expected = new TreeMap<>();
+        for (int i = 0; i < 3000; i++) {
+            int z = random.nextInt(5000);
+            if (expected.containsKey(z)) {
+                repository.deleteById(expected.remove(z).getId());
+            } else {
+                expected.put(z, repository.save(createWidgetWithZIndex(z)));
+            }
+        }
+
+        List<Widget> widgets = new ArrayList<>(expected.values());
+        for (int page = 0; page * 100 <= widgets.size(); page++) {
+            Page<Widget> result = repository.findAll(PageRequest.of(page, 100, Sort.Direction.ASC, "z"));
+
+            assertThat(result.getTotalElements()).isEqualTo(widgets.size());
+            assertThat(result.getContent())
+                    .isEqualTo(widgets.subList(page * 100, Math.min(widgets.size(), page * 100 + 100)));
+        }
+        assertThat(repository.findAllZ()).isEqualTo(new ArrayList<>(expected.keySet()));
+    }
+
+    @Test
+    void shouldFindAllWidgetsInRectangle() {
+        Widget widget1 = repository.save(createWidget(50, 50, 2, 100, 100));
+        Widget widget2 = repository.save(createWidget(50, 100, 1, 100, 100));
+        repository.save(createWidget(100, 100, 3, 100, 100));
+
+        assertThat(repository.findAllInRectangleOrderByZAsc(50, 75, 100, 150)).containsExactly(widget2, widget1);
+        assertThat(repository.findAllInRectangleByZGreaterThanOrderByZAsc(50, 75, 100, 150, 1, PageRequest.of(0, 1)))
+                .containsExactly(widget1);
+    }
+
+    @Test
+    void shouldFindWidgetsInRectangleByCurrentEdgesBeyondZOrderScan() {
+        for (int z = 1; z <= 100; z++) {
+            repository.save(createWidget(1000, 1000, z, 10, 10));
+        }
+        Widget moved = repository.save(createWidget(1000, 1000, 101, 10, 10));
+        Widget widget = repository.save(createWidget(50, 50, 102, 10, 10));
+        moved.setX(40);
+        moved.setY(40);
+        repository.save(moved);
+        repository.shiftZRange(101, 102, 10);
+
+        assertThat(repository.findAllInRectangleOrderByZAsc(50, 50, 100, 100)).extracting(Widget::getId)
+                .containsExactly(moved.getId(), widget.getId());
+        // The page isn't found within the z-order scan, so the rest is searched by left edges
+        assertThat(repository.findAllInRectangleByZGreaterThanOrderByZAsc(50, 50, 100, 100, 0, PageRequest.of(0, 1)))
+                .extracting(Widget::getZ).containsExactly(111);
+        assertThat(repository.findAllInRectangleByZGreaterThanOrderByZAsc(50, 50, 100, 100, 111, PageRequest.of(0, 1)))
+                .extracting(Widget::getZ).containsExactly(112);
+        assertThat(repository.findAllInRectangleOrderByZAsc(1000, 1000, 100, 100)).hasSize(100);
+    }
+
+    @Test
+    void shouldFindNoWidgetsAfterMaxZIndex() {
+        repository.save(createWidget(50, 50, Integer.MAX_VALUE, 100, 100));
+
+        assertThat(repository.findAllByZGreaterThanOrderByZAsc(Integer.MAX_VALUE, PageRequest.of(0, 10))).isEmpty();
+        assertThat(repository.findAllInRectangleByZGreaterThanOrderByZAsc(
+                50, 50, 100, 100, Integer.MAX_VALUE, PageRequest.of(0, 10))).isEmpty();
+    }
+
+    @Test
+    void shouldPublishWriteAtOnce() throws Exception {
+        repository.save(createWidgetWithZIndex(1));
+        CountDownLatch written = new CountDownLatch(1);
+        CountDownLatch read = new CountDownLatch(1);
+
+        CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> repository.write(() -> {
+            repository.shiftZRun(1);
+            repository.save(createWidgetWithZIndex(1));
+            written.countDown();
+            try {
+                read.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }));
+
+        written.await();
+        assertThat(repository.findAllZ()).containsExactly(1);
+        read.countDown();
+        writer.get();
+
+        assertThat(repository.findAllZ()).containsExactly(1, 2);
+    }
+
+    @Test
+    void shouldDiscardFailedWrite() {
+        repository.save(createWidgetWithZIndex(1));
+
+        assertThatThrownBy(() -> repository.write(() -> {
+            repository.shiftZRun(1);
+            throw new IllegalStateException();
+        })).isInstanceOf(IllegalStateException.class);
+
+        assertThat(repository.findAllZ()).containsExactly(1);
+    }
+}
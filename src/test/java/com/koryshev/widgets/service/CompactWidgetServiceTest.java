@@ -0,0 +1,7 @@
+package com.koryshev.widgets.service;
+
+import org.springframework.test.context.ActiveProfiles;
+
+@ActiveProfiles("in-memory-compact")
+class CompactWidgetServiceTest extends WidgetServiceTest {
+}
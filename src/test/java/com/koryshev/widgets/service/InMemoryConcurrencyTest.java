@@ -3,19 +3,32 @@ package com.koryshev.widgets.service;
 import com.koryshev.widgets.domain.model.Widget;
 import com.koryshev.widgets.domain.repository.WidgetRepository;
 import com.koryshev.widgets.dto.WidgetRequestDto;
+import com.koryshev.widgets.event.WidgetEvent;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.koryshev.widgets.util.TestData.createWidgetRequestDtoWithZIndex;
 import static com.koryshev.widgets.util.TestData.createWidgetWithZIndex;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 @Slf4j
 @SpringBootTest
@@ -27,6 +40,9 @@ class InMemoryConcurrencyTest {
     @Autowired
     private WidgetService widgetService;
 
+    @Autowired
+    private BlockingListener blockingListener;
+
     @BeforeEach
     public void setup() {
         widgetRepository.deleteAll();
@@ -62,4 +78,114 @@ class InMemoryConcurrencyTest {
         assertThat(widgets).hasSize(widgetsNumber);
         assertThat(widgets.get(widgetsNumber - 1).getZ()).isEqualTo(widgetsNumber + 1);
     }
+
+    @Test
+    void shouldReturnConsistentResultsForConcurrentReads() throws Exception {
+        int writesNumber = 2000;
+        int readersNumber = 4;
+        ExecutorService executorService = Executors.newFixedThreadPool(readersNumber + 1);
+        AtomicBoolean writesFinished = new AtomicBoolean(false);
+
+        // Keep inserting widgets at the bottom, shifting all others upwards and rebalancing the trees
+        Future<?> writer = executorService.submit(() -> {
+            for (int i = 0; i < writesNumber; i++) {
+                widgetService.create(createWidgetRequestDtoWithZIndex(1));
+            }
+            writesFinished.set(true);
+        });
+
+        // Every read must see all widgets of some single state, each of them exactly once
+        List<Future<?>> readers = new ArrayList<>();
+        for (int i = 0; i < readersNumber; i++) {
+            readers.add(executorService.submit(() -> {
+                while (!writesFinished.get()) {
+                    Page<Widget> widgets = widgetService.findAll(0, writesNumber, null);
+                    assertThat(widgets.getContent()).hasSize((int) widgets.getTotalElements());
+                    assertThat(widgets.getContent()).extracting(Widget::getId).doesNotHaveDuplicates();
+                }
+            }));
+        }
+
+        writer.get(1, TimeUnit.MINUTES);
+        for (Future<?> reader : readers) {
+            reader.get(1, TimeUnit.MINUTES);
+        }
+        executorService.shutdown();
+
+        assertThat(widgetService.findAll(0, writesNumber, null).getContent()).hasSize(writesNumber);
+    }
+
+    @Test
+    void shouldReturnWidgetsUnchangedByLaterModifications() {
+        Widget widget = widgetRepository.save(createWidgetWithZIndex(1));
+        Widget read = widgetService.findOne(widget.getId());
+        List<Widget> page = widgetService.findAll(0, 10, null).getContent();
+
+        // Shift the widget read upwards
+        widgetService.create(createWidgetRequestDtoWithZIndex(1));
+
+        assertThat(read.getZ()).isEqualTo(1);
+        assertThat(page).extracting(Widget::getZ).containsExactly(1);
+        assertThat(widgetService.findOne(widget.getId()).getZ()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldNotBlockReadsOnNonBlockingThreads() throws Exception {
+        Widget widget = widgetRepository.save(createWidgetWithZIndex(1));
+
+        // Hold the write lock by an update waiting for its event to be handled
+        blockingListener.hold();
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        Future<?> update = executorService.submit(
+                () -> widgetService.update(widget.getId(), createWidgetRequestDtoWithZIndex(2)));
+        try {
+            assertThat(blockingListener.entered.await(1, TimeUnit.MINUTES)).isTrue();
+
+            assertThatThrownBy(() -> Mono.fromCallable(() -> widgetService.findOne(widget.getId()))
+                    .subscribeOn(Schedulers.parallel())
+                    .block())
+                    .isInstanceOf(WouldBlockException.class);
+        } finally {
+            blockingListener.release();
+        }
+        update.get(1, TimeUnit.MINUTES);
+        executorService.shutdown();
+
+        assertThat(Mono.fromCallable(() -> widgetService.findOne(widget.getId()))
+                .subscribeOn(Schedulers.parallel())
+                .block()).extracting(Widget::getZ).isEqualTo(2);
+    }
+
+    @TestConfiguration
+    static class BlockingListenerConfiguration {
+
+        @Bean
+        BlockingListener blockingListener() {
+            return new BlockingListener();
+        }
+    }
+
+    /**
+     * Blocks handling of events once asked to, keeping the lock of the change announced.
+     */
+    static class BlockingListener {
+
+        private volatile CountDownLatch entered = new CountDownLatch(0);
+        private volatile CountDownLatch released = new CountDownLatch(0);
+
+        void hold() {
+            entered = new CountDownLatch(1);
+            released = new CountDownLatch(1);
+        }
+
+        void release() {
+            released.countDown();
+        }
+
+        @EventListener
+        public void onEvent(WidgetEvent event) throws InterruptedException {
+            entered.countDown();
+            released.await(1, TimeUnit.MINUTES);
+        }
+    }
 }
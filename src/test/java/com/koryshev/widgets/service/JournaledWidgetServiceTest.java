@@ -0,0 +1,10 @@
+package com.koryshev.widgets.service;
+
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+
+@ActiveProfiles("journal")
+@TestPropertySource(properties = {
+        "widgets.journal.directory=target/journal/${random.uuid}", "widgets.journal.segment-size=1MB"})
+class JournaledWidgetServiceTest extends WidgetServiceTest {
+}
@@ -0,0 +1,7 @@
+package com.koryshev.widgets.service;
+
+import org.springframework.test.context.ActiveProfiles;
+
+@ActiveProfiles("jpa")
+class JpaSparseWidgetServiceTest extends SparseWidgetServiceTest {
+}
@@ -0,0 +1,166 @@
+package com.koryshev.widgets.service;
+
+import com.koryshev.widgets.config.WidgetProperties;
+import com.koryshev.widgets.domain.model.Widget;
+import com.koryshev.widgets.domain.repository.WidgetRepository;
+import com.koryshev.widgets.dto.WidgetRequestDto;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+
+import static com.koryshev.widgets.util.TestData.createWidgetRequestDtoWithZIndex;
+import static com.koryshev.widgets.util.TestData.createWidgetWithZIndex;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {"widgets.sparse-ordering.enabled=true", "widgets.sparse-ordering.gap=10"})
+class SparseWidgetServiceTest {
+
+    @Autowired
+    private WidgetRepository widgetRepository;
+
+    @Autowired
+    private WidgetService widgetService;
+
+    @Autowired
+    private WidgetProperties widgetProperties;
+
+    @BeforeEach
+    public void setup() {
+        widgetRepository.deleteAll();
+    }
+
+    @Test
+    void shouldCreateWidgetsWithGaps() {
+        Widget widget1 = widgetService.create(createWidgetRequestDtoWithZIndex(null));
+        Widget widget2 = widgetService.create(createWidgetRequestDtoWithZIndex(null));
+
+        assertThat(widget1.getZ()).isEqualTo(10);
+        assertThat(widget2.getZ()).isEqualTo(20);
+    }
+
+    @Test
+    void shouldCreateWidgetOnTopWithoutGapAndRebalanceNearMaxZIndex() throws Exception {
+        Widget widget = widgetRepository.save(createWidgetWithZIndex(Integer.MAX_VALUE - 5));
+
+        Widget newWidget = widgetService.create(createWidgetRequestDtoWithZIndex(null));
+        assertThat(newWidget.getZ()).isEqualTo(Integer.MAX_VALUE - 4);
+
+        // Rebalancing is performed in the background
+        for (int i = 0; i < 100 && widgetService.findOne(newWidget.getId()).getZ() != 20; i++) {
+            Thread.sleep(50);
+        }
+
+        assertThat(widgetService.findOne(widget.getId()).getZ()).isEqualTo(10);
+        assertThat(widgetService.findOne(newWidget.getId()).getZ()).isEqualTo(20);
+        // The returned widget is a copy, which rebalancing doesn't change
+        assertThat(newWidget.getZ()).isEqualTo(Integer.MAX_VALUE - 4);
+    }
+
+    @Test
+    void shouldCreateWidgetWithoutShifts() {
+        Widget widget1 = widgetRepository.save(createWidgetWithZIndex(10));
+        Widget widget2 = widgetRepository.save(createWidgetWithZIndex(20));
+        Widget widget3 = widgetRepository.save(createWidgetWithZIndex(30));
+
+        WidgetRequestDto requestDto = createWidgetRequestDtoWithZIndex(20);
+
+        Widget newWidget = widgetService.create(requestDto);
+
+        List<Widget> widgets = widgetService.findAll(0, 10, null).getContent();
+        assertThat(widgets.get(0).getZ()).isEqualTo(10);
+        assertThat(widgets.get(0).getId()).isEqualTo(widget1.getId());
+        assertThat(widgets.get(1).getZ()).isEqualTo(15);
+        assertThat(widgets.get(1).getId()).isEqualTo(newWidget.getId());
+        assertThat(widgets.get(2).getZ()).isEqualTo(20);
+        assertThat(widgets.get(2).getId()).isEqualTo(widget2.getId());
+        assertThat(widgets.get(3).getZ()).isEqualTo(30);
+        assertThat(widgets.get(3).getId()).isEqualTo(widget3.getId());
+    }
+
+    @Test
+    void shouldCreateWidgetWithoutShiftsBelowAllWidgets() {
+        Widget widget = widgetRepository.save(createWidgetWithZIndex(10));
+
+        Widget newWidget = widgetService.create(createWidgetRequestDtoWithZIndex(10));
+
+        assertThat(newWidget.getZ()).isEqualTo(0);
+        assertThat(widgetService.findOne(widget.getId()).getZ()).isEqualTo(10);
+    }
+
+    @Test
+    void shouldUpdateWidgetWithoutShifts() {
+        Widget widget1 = widgetRepository.save(createWidgetWithZIndex(10));
+        Widget widget2 = widgetRepository.save(createWidgetWithZIndex(20));
+        Widget widget3 = widgetRepository.save(createWidgetWithZIndex(30));
+
+        WidgetRequestDto requestDto = createWidgetRequestDtoWithZIndex(20);
+
+        widgetService.update(widget3.getId(), requestDto);
+
+        List<Widget> widgets = widgetService.findAll(0, 10, null).getContent();
+        assertThat(widgets.get(0).getZ()).isEqualTo(10);
+        assertThat(widgets.get(0).getId()).isEqualTo(widget1.getId());
+        assertThat(widgets.get(1).getZ()).isEqualTo(15);
+        assertThat(widgets.get(1).getId()).isEqualTo(widget3.getId());
+        assertThat(widgets.get(2).getZ()).isEqualTo(20);
+        assertThat(widgets.get(2).getId()).isEqualTo(widget2.getId());
+    }
+
+    @Test
+    void shouldShiftAndRebalanceWhenGapRunsOut() throws Exception {
+        Widget widget1 = widgetRepository.save(createWidgetWithZIndex(1));
+        Widget widget2 = widgetRepository.save(createWidgetWithZIndex(2));
+
+        Widget newWidget = widgetService.create(createWidgetRequestDtoWithZIndex(2));
+
+        // Rebalancing is performed in the background
+        for (int i = 0; i < 100 && widgetService.findOne(widget2.getId()).getZ() != 30; i++) {
+            Thread.sleep(50);
+        }
+
+        List<Widget> widgets = widgetService.findAll(0, 10, null).getContent();
+        assertThat(widgets.get(0).getZ()).isEqualTo(10);
+        assertThat(widgets.get(0).getId()).isEqualTo(widget1.getId());
+        assertThat(widgets.get(1).getZ()).isEqualTo(20);
+        assertThat(widgets.get(1).getId()).isEqualTo(newWidget.getId());
+        assertThat(widgets.get(2).getZ()).isEqualTo(30);
+        assertThat(widgets.get(2).getId()).isEqualTo(widget2.getId());
+    }
+
+    @Test
+    void shouldRebalanceWidgets() {
+        Widget widget1 = widgetRepository.save(createWidgetWithZIndex(-5));
+        Widget widget2 = widgetRepository.save(createWidgetWithZIndex(11));
+        Widget widget3 = widgetRepository.save(createWidgetWithZIndex(12));
+        Widget widget4 = widgetRepository.save(createWidgetWithZIndex(100));
+
+        widgetService.rebalance();
+
+        List<Widget> widgets = widgetService.findAll(0, 10, null).getContent();
+        assertThat(widgets).extracting(Widget::getZ).containsExactly(10, 20, 30, 40);
+        assertThat(widgets).extracting(Widget::getId)
+                .containsExactly(widget1.getId(), widget2.getId(), widget3.getId(), widget4.getId());
+    }
+
+    @Test
+    void shouldShrinkGapWhenRebalancingWidgetsNotFittingWithIt() {
+        Widget widget1 = widgetRepository.save(createWidgetWithZIndex(1));
+        Widget widget2 = widgetRepository.save(createWidgetWithZIndex(2));
+        Widget widget3 = widgetRepository.save(createWidgetWithZIndex(3));
+        widgetProperties.getSparseOrdering().setGap(1_000_000_000);
+        try {
+            widgetService.rebalance();
+        } finally {
+            widgetProperties.getSparseOrdering().setGap(10);
+        }
+
+        int gap = Integer.MAX_VALUE / 3;
+        List<Widget> widgets = widgetService.findAll(0, 10, null).getContent();
+        assertThat(widgets).extracting(Widget::getZ).containsExactly(gap, 2 * gap, 3 * gap);
+        assertThat(widgets).extracting(Widget::getId)
+                .containsExactly(widget1.getId(), widget2.getId(), widget3.getId());
+    }
+}
@@ -0,0 +1,37 @@
+package com.koryshev.widgets.service;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import static com.koryshev.widgets.util.TestData.createWidgetRequestDtoWithZIndex;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {"widgets.tracing.enabled=true", "widgets.tracing.sample-rate=1"})
+class TracedWidgetServiceTest extends WidgetServiceTest {
+
+    @Autowired
+    private WidgetService widgetService;
+
+    @Test
+    void shouldTraceWaitForWriteLock() {
+        Logger traceLog = (Logger) LoggerFactory.getLogger("widgets.trace");
+        ListAppender<ILoggingEvent> traceEvents = new ListAppender<>();
+        traceEvents.start();
+        traceLog.addAppender(traceEvents);
+        try {
+            widgetService.create(createWidgetRequestDtoWithZIndex(1));
+        } finally {
+            traceLog.detachAppender(traceEvents);
+        }
+
+        assertThat(traceEvents.list).extracting(ILoggingEvent::getFormattedMessage)
+                .anySatisfy(event -> assertThat(event)
+                        .startsWith("operation=create outcome=success")
+                        .contains(" lockMicros="));
+    }
+}
@@ -0,0 +1,184 @@
+package com.koryshev.widgets.service;
+
+import com.koryshev.widgets.domain.model.Widget;
+import com.koryshev.widgets.domain.repository.WidgetRepository;
+import com.koryshev.widgets.dto.WidgetBatchRequestDto;
+import com.koryshev.widgets.dto.WidgetRequestDto;
+import com.koryshev.widgets.event.WidgetsShiftedEvent;
+import com.koryshev.widgets.exception.WidgetNotFoundException;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.koryshev.widgets.util.TestData.createWidgetRequestDtoWithZIndex;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@ActiveProfiles("jpa")
+@SpringBootTest(properties = "widgets.cache.enabled=true")
+class WidgetCacheTest {
+
+    @Autowired
+    private WidgetRepository widgetRepository;
+
+    @Autowired
+    private WidgetService widgetService;
+
+    @Autowired
+    private WidgetCache widgetCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @BeforeEach
+    public void setup() {
+        widgetRepository.deleteAll();
+    }
+
+    @Test
+    void shouldReadCachedWidgetOnce() {
+        Widget widget = widgetService.create(createWidgetRequestDtoWithZIndex(1));
+        AtomicInteger reads = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++) {
+            widgetCache.get(widget.getId(), widgetId -> {
+                reads.incrementAndGet();
+                return widgetRepository.findById(widgetId);
+            });
+        }
+
+        assertThat(reads).hasValue(1);
+    }
+
+    @Test
+    void shouldReturnCopiesOfCachedWidget() {
+        Widget widget = widgetService.create(createWidgetRequestDtoWithZIndex(1));
+
+        widgetService.findOne(widget.getId()).setX(100);
+
+        assertThat(widgetService.findOne(widget.getId()).getX()).isEqualTo(widget.getX());
+    }
+
+    @Test
+    void shouldInvalidateCachedWidgetsShiftedByCreation() {
+        Widget widget1 = widgetService.create(createWidgetRequestDtoWithZIndex(1));
+        Widget widget2 = widgetService.create(createWidgetRequestDtoWithZIndex(2));
+        Widget widget3 = widgetService.create(createWidgetRequestDtoWithZIndex(4));
+        warmUp(widget1, widget2, widget3);
+
+        widgetService.create(createWidgetRequestDtoWithZIndex(1));
+
+        assertThat(widgetService.findOne(widget1.getId()).getZ()).isEqualTo(2);
+        assertThat(widgetService.findOne(widget2.getId()).getZ()).isEqualTo(3);
+        assertThat(widgetService.findOne(widget3.getId()).getZ()).isEqualTo(4);
+    }
+
+    @Test
+    void shouldInvalidateUpdatedWidget() {
+        Widget widget1 = widgetService.create(createWidgetRequestDtoWithZIndex(1));
+        Widget widget2 = widgetService.create(createWidgetRequestDtoWithZIndex(2));
+        warmUp(widget1, widget2);
+
+        WidgetRequestDto requestDto = createWidgetRequestDtoWithZIndex(2);
+        requestDto.setX(100);
+        widgetService.update(widget1.getId(), requestDto);
+
+        assertThat(widgetService.findOne(widget1.getId()).getX()).isEqualTo(100);
+        assertThat(widgetService.findOne(widget1.getId()).getZ()).isEqualTo(2);
+        assertThat(widgetService.findOne(widget2.getId()).getZ()).isEqualTo(3);
+    }
+
+    @Test
+    void shouldInvalidateDeletedWidget() {
+        Widget widget = widgetService.create(createWidgetRequestDtoWithZIndex(1));
+        warmUp(widget);
+
+        widgetService.delete(widget.getId());
+
+        assertThatThrownBy(() -> widgetService.findOne(widget.getId())).isInstanceOf(WidgetNotFoundException.class);
+    }
+
+    @Test
+    void shouldInvalidateCachedWidgetsShiftedByBatch() {
+        Widget widget1 = widgetService.create(createWidgetRequestDtoWithZIndex(1));
+        Widget widget2 = widgetService.create(createWidgetRequestDtoWithZIndex(3));
+        warmUp(widget1, widget2);
+
+        widgetService.applyBatch(WidgetBatchRequestDto.builder()
+                .create(List.of(createWidgetRequestDtoWithZIndex(1), createWidgetRequestDtoWithZIndex(2)))
+                .build());
+
+        assertThat(widgetService.findOne(widget1.getId()).getZ()).isEqualTo(3);
+        assertThat(widgetService.findOne(widget2.getId()).getZ()).isEqualTo(4);
+    }
+
+    @Test
+    void shouldInvalidateCachedWidgetsOnRebalancing() {
+        Widget widget = widgetService.create(createWidgetRequestDtoWithZIndex(1));
+        warmUp(widget);
+
+        widgetService.rebalance();
+
+        assertThat(widgetService.findOne(widget.getId()).getZ()).isEqualTo(1024);
+    }
+
+    @Test
+    void shouldNotCacheWidgetReadBeforeInvalidation() {
+        Widget widget = widgetService.create(createWidgetRequestDtoWithZIndex(1));
+
+        // The widget is shifted after it has been read, but before it gets cached
+        widgetCache.get(widget.getId(), widgetId -> {
+            widgetService.create(createWidgetRequestDtoWithZIndex(1));
+            return widgetRepository.findById(widgetId).map(stale -> {
+                stale.setZ(1);
+                return stale;
+            });
+        });
+
+        assertThat(widgetService.findOne(widget.getId()).getZ()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldNotInvalidateWidgetsOutsideOfShiftedRange() {
+        Widget widget1 = widgetService.create(createWidgetRequestDtoWithZIndex(1));
+        Widget widget2 = widgetService.create(createWidgetRequestDtoWithZIndex(5));
+        warmUp(widget1, widget2);
+        double hits = hits();
+
+        widgetCache.onShifted(new WidgetsShiftedEvent(2, 4, 1));
+        warmUp(widget1, widget2);
+
+        assertThat(hits() - hits).isEqualTo(2);
+    }
+
+    @Test
+    void shouldExposeCacheMetrics() {
+        Widget widget = widgetService.create(createWidgetRequestDtoWithZIndex(1));
+        double hits = hits();
+
+        warmUp(widget);
+        warmUp(widget);
+
+        assertThat(hits() - hits).isEqualTo(1);
+        assertThat(meterRegistry.get("cache.gets").tag("cache", "widgets").tag("result", "miss").functionCounter()
+                .count()).isPositive();
+        assertThat(meterRegistry.get("cache.evictions").tag("cache", "widgets").functionCounter()).isNotNull();
+    }
+
+    private void warmUp(Widget... widgets) {
+        for (Widget widget : widgets) {
+            widgetService.findOne(widget.getId());
+        }
+    }
+
+    private double hits() {
+        return meterRegistry.get("cache.gets").tag("cache", "widgets").tag("result", "hit").functionCounter()
+                .count();
+    }
+}
@@ -0,0 +1,164 @@
+package com.koryshev.widgets.service;
+
+import com.koryshev.widgets.domain.model.Widget;
+import com.koryshev.widgets.domain.repository.WidgetRepository;
+import com.koryshev.widgets.dto.WidgetPageRequestDto;
+import com.koryshev.widgets.dto.WidgetRequestDto;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import reactor.core.Disposable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.koryshev.widgets.util.TestData.createWidgetPageRequestDto;
+import static com.koryshev.widgets.util.TestData.createWidgetRequestDtoWithZIndex;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class WidgetChangeFeedTest {
+
+    private static final WidgetPageRequestDto VIEWPORT = createWidgetPageRequestDto(-10, -10, 10, 10);
+
+    @Autowired
+    private WidgetRepository widgetRepository;
+
+    @Autowired
+    private WidgetService widgetService;
+
+    @Autowired
+    private WidgetChangeFeed widgetChangeFeed;
+
+    private final BlockingQueue<WidgetChange> changes = new LinkedBlockingQueue<>();
+    private Disposable subscription;
+
+    @BeforeEach
+    public void setup() {
+        widgetRepository.deleteAll();
+    }
+
+    @AfterEach
+    public void cleanup() {
+        if (subscription != null) {
+            subscription.dispose();
+        }
+    }
+
+    @Test
+    void shouldSendWidgetsInsideViewportFirst() throws InterruptedException {
+        Widget top = widgetService.create(createWidgetRequestDtoWithZIndex(2));
+        Widget bottom = widgetService.create(createWidgetRequestDtoWithZIndex(1));
+        widgetService.create(createOutsideWidgetRequestDto(3));
+
+        subscribe();
+
+        assertChange(WidgetChangeType.ENTERED, bottom, 1);
+        assertChange(WidgetChangeType.ENTERED, top, 2);
+        assertNoMoreChanges();
+    }
+
+    @Test
+    void shouldSendChangesOfWidgetsInsideViewport() throws InterruptedException {
+        Widget widget = widgetService.create(createWidgetRequestDtoWithZIndex(1));
+        subscribe();
+        assertChange(WidgetChangeType.ENTERED, widget, 1);
+
+        Widget created = widgetService.create(createWidgetRequestDtoWithZIndex(10));
+        widgetService.create(createOutsideWidgetRequestDto(20));
+        assertChange(WidgetChangeType.CREATED, created, 10);
+
+        WidgetRequestDto resized = createWidgetRequestDtoWithZIndex(10);
+        resized.setWidth(5);
+        widgetService.update(created.getId(), resized);
+        assertChange(WidgetChangeType.UPDATED, created, 10);
+
+        widgetService.update(created.getId(), createOutsideWidgetRequestDto(10));
+        assertChange(WidgetChangeType.LEFT, created, null);
+
+        widgetService.update(created.getId(), createWidgetRequestDtoWithZIndex(10));
+        assertChange(WidgetChangeType.ENTERED, created, 10);
+
+        widgetService.delete(created.getId());
+        assertChange(WidgetChangeType.DELETED, created, null);
+        assertNoMoreChanges();
+    }
+
+    @Test
+    void shouldSendEveryWidgetShiftedInsideViewport() throws InterruptedException {
+        Widget bottom = widgetService.create(createWidgetRequestDtoWithZIndex(1));
+        Widget top = widgetService.create(createWidgetRequestDtoWithZIndex(2));
+        widgetService.create(createOutsideWidgetRequestDto(3));
+        subscribe();
+        assertChange(WidgetChangeType.ENTERED, bottom, 1);
+        assertChange(WidgetChangeType.ENTERED, top, 2);
+
+        Widget created = widgetService.create(createWidgetRequestDtoWithZIndex(1));
+
+        List<WidgetChange> received = poll(3);
+        assertThat(received).extracting(WidgetChange::getType)
+                .containsExactlyInAnyOrder(WidgetChangeType.SHIFTED, WidgetChangeType.SHIFTED,
+                        WidgetChangeType.CREATED);
+        assertThat(received).extracting(change -> change.getWidget().getZ())
+                .containsExactlyInAnyOrder(1, 2, 3);
+        assertThat(received).filteredOn(change -> change.getType() == WidgetChangeType.CREATED)
+                .extracting(WidgetChange::getWidgetId).containsExactly(created.getId());
+        assertNoMoreChanges();
+    }
+
+    @Test
+    void shouldSendWidgetsMovedByRebalancing() throws InterruptedException {
+        Widget bottom = widgetService.create(createWidgetRequestDtoWithZIndex(1));
+        Widget top = widgetService.create(createWidgetRequestDtoWithZIndex(2));
+        subscribe();
+        assertChange(WidgetChangeType.ENTERED, bottom, 1);
+        assertChange(WidgetChangeType.ENTERED, top, 2);
+
+        widgetService.rebalance();
+
+        assertChange(WidgetChangeType.SHIFTED, bottom, 1024);
+        assertChange(WidgetChangeType.SHIFTED, top, 2048);
+        assertNoMoreChanges();
+    }
+
+    private void subscribe() {
+        subscription = widgetChangeFeed.subscribe(VIEWPORT).subscribe(changes::add);
+    }
+
+    private void assertChange(WidgetChangeType type, Widget widget, Integer z) throws InterruptedException {
+        WidgetChange change = changes.poll(5, TimeUnit.SECONDS);
+        assertThat(change).isNotNull();
+        assertThat(change.getType()).isEqualTo(type);
+        assertThat(change.getWidgetId()).isEqualTo(widget.getId());
+        if (z == null) {
+            assertThat(change.getWidget()).isNull();
+        } else {
+            assertThat(change.getWidget().getZ()).isEqualTo(z);
+        }
+    }
+
+    private List<WidgetChange> poll(int count) throws InterruptedException {
+        List<WidgetChange> received = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            WidgetChange change = changes.poll(5, TimeUnit.SECONDS);
+            assertThat(change).isNotNull();
+            received.add(change);
+        }
+        return received;
+    }
+
+    private void assertNoMoreChanges() throws InterruptedException {
+        assertThat(changes.poll(100, TimeUnit.MILLISECONDS)).isNull();
+    }
+
+    private static WidgetRequestDto createOutsideWidgetRequestDto(Integer z) {
+        WidgetRequestDto dto = createWidgetRequestDtoWithZIndex(z);
+        dto.setX(100);
+        return dto;
+    }
+}
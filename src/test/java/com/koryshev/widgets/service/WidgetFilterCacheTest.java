@@ -0,0 +1,228 @@
+package com.koryshev.widgets.service;
+
+import com.koryshev.widgets.domain.model.Widget;
+import com.koryshev.widgets.domain.repository.WidgetRepository;
+import com.koryshev.widgets.dto.WidgetPageRequestDto;
+import com.koryshev.widgets.dto.WidgetRequestDto;
+import com.koryshev.widgets.event.WidgetsReorderedEvent;
+import com.koryshev.widgets.event.WidgetsShiftedEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static com.koryshev.widgets.util.TestData.createWidgetPageRequestDto;
+import static com.koryshev.widgets.util.TestData.createWidgetRequestDtoWithZIndex;
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = "widgets.filter-cache.enabled=true")
+class WidgetFilterCacheTest {
+
+    private static final WidgetPageRequestDto RECTANGLE = createWidgetPageRequestDto(-10, -10, 10, 10);
+
+    @Autowired
+    private WidgetRepository widgetRepository;
+
+    @Autowired
+    private WidgetService widgetService;
+
+    @Autowired
+    private WidgetFilterCache widgetFilterCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @BeforeEach
+    public void setup() {
+        widgetRepository.deleteAll();
+        widgetFilterCache.onReordered(new WidgetsReorderedEvent());
+    }
+
+    @Test
+    void shouldReadFilteredPageOnce() {
+        widgetService.create(createWidgetRequestDtoWithZIndex(1));
+        AtomicInteger reads = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++) {
+            widgetFilterCache.getPage(0, 0, 20, 20, PageRequest.of(0, 10), () -> {
+                reads.incrementAndGet();
+                return widgetRepository.findAllInRectangle(0, 0, 20, 20, PageRequest.of(0, 10));
+            });
+        }
+
+        assertThat(reads).hasValue(1);
+    }
+
+    @Test
+    void shouldReturnCopiesOfCachedPage() {
+        widgetService.create(createWidgetRequestDtoWithZIndex(1));
+        widgetService.findAll(0, 10, RECTANGLE);
+        widgetService.findAll(0, 10, RECTANGLE).getContent().get(0).setX(5);
+
+        Page<Widget> page = widgetService.findAll(0, 10, RECTANGLE);
+
+        assertThat(page.getTotalElements()).isEqualTo(1);
+        assertThat(page.getContent().get(0).getX()).isEqualTo(0);
+    }
+
+    @Test
+    void shouldInvalidatePagesContainingCreatedWidget() {
+        widgetService.create(createWidgetRequestDtoWithZIndex(1));
+        widgetService.findAll(0, 10, RECTANGLE);
+
+        Widget widget = widgetService.create(createWidgetRequestDtoWithZIndex(null));
+
+        assertThat(ids(widgetService.findAll(0, 10, RECTANGLE))).hasSize(2).contains(widget.getId());
+    }
+
+    @Test
+    void shouldInvalidatePagesContainingUpdatedWidgetBeforeUpdate() {
+        Widget widget = widgetService.create(createWidgetRequestDtoWithZIndex(1));
+        widgetService.findAll(0, 10, RECTANGLE);
+
+        widgetService.update(widget.getId(), createWidgetRequestDto(100, 1));
+
+        assertThat(widgetService.findAll(0, 10, RECTANGLE)).isEmpty();
+    }
+
+    @Test
+    void shouldInvalidatePagesContainingDeletedWidget() {
+        Widget widget = widgetService.create(createWidgetRequestDtoWithZIndex(1));
+        widgetService.findAll(0, 10, RECTANGLE);
+
+        widgetService.delete(widget.getId());
+
+        assertThat(widgetService.findAll(0, 10, RECTANGLE)).isEmpty();
+    }
+
+    @Test
+    void shouldKeepPagesNotContainingChangedWidget() {
+        widgetService.create(createWidgetRequestDtoWithZIndex(1));
+        widgetService.findAll(0, 10, RECTANGLE);
+        double hits = hits();
+
+        Widget widget = widgetService.create(createWidgetRequestDto(100, null));
+        widgetService.update(widget.getId(), createWidgetRequestDto(200, null));
+        widgetService.delete(widget.getId());
+        widgetService.findAll(0, 10, RECTANGLE);
+
+        assertThat(hits() - hits).isEqualTo(1);
+    }
+
+    @Test
+    void shouldRereadPagesOlderThanRecentChanges() {
+        widgetService.create(createWidgetRequestDtoWithZIndex(1));
+        AtomicInteger reads = new AtomicInteger();
+        Supplier<Page<Widget>> reader = () -> {
+            reads.incrementAndGet();
+            return widgetRepository.findAllInRectangle(0, 0, 20, 20, PageRequest.of(0, 10));
+        };
+        widgetFilterCache.getPage(0, 0, 20, 20, PageRequest.of(0, 10), reader);
+
+        // Changes outside of the rectangle are only remembered up to a limit
+        for (int i = 0; i < 1000; i++) {
+            widgetService.create(createWidgetRequestDto(100, null));
+        }
+        widgetFilterCache.getPage(0, 0, 20, 20, PageRequest.of(0, 10), reader);
+        widgetFilterCache.getPage(0, 0, 20, 20, PageRequest.of(0, 10), reader);
+
+        assertThat(reads).hasValue(2);
+    }
+
+    @Test
+    void shouldInvalidatePagesWithShiftedWidgets() {
+        widgetService.create(createWidgetRequestDtoWithZIndex(1));
+        widgetService.findAll(0, 10, RECTANGLE);
+
+        widgetService.create(createWidgetRequestDto(100, 1));
+
+        assertThat(widgetService.findAll(0, 10, RECTANGLE).getContent().get(0).getZ()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldKeepPagesWithoutShiftedWidgets() {
+        widgetService.create(createWidgetRequestDtoWithZIndex(5));
+        widgetService.findAll(0, 10, RECTANGLE);
+        double hits = hits();
+
+        widgetFilterCache.onShifted(new WidgetsShiftedEvent(1, 4, 1));
+        widgetService.findAll(0, 10, RECTANGLE);
+
+        assertThat(hits() - hits).isEqualTo(1);
+    }
+
+    @Test
+    void shouldInvalidateSlicesWhichShiftedWidgetsEnter() {
+        Widget widget1 = widgetService.create(createWidgetRequestDtoWithZIndex(1));
+        widgetService.create(createWidgetRequestDto(100, 2));
+        Widget widget2 = widgetService.create(createWidgetRequestDtoWithZIndex(5));
+        assertThat(ids(widgetService.findAllAfter(1, 10, RECTANGLE))).containsExactly(widget2.getId());
+
+        // Shifts widgets from z-indexes 1 and 2 upwards, so that the first widget follows z-index 1
+        widgetService.create(createWidgetRequestDto(100, 1));
+
+        assertThat(ids(widgetService.findAllAfter(1, 10, RECTANGLE)))
+                .containsExactly(widget1.getId(), widget2.getId());
+    }
+
+    @Test
+    void shouldInvalidateAllPagesOnRebalancing() {
+        widgetService.create(createWidgetRequestDtoWithZIndex(1));
+        widgetService.findAll(0, 10, RECTANGLE);
+
+        widgetService.rebalance();
+
+        assertThat(widgetService.findAll(0, 10, RECTANGLE).getContent().get(0).getZ()).isEqualTo(1024);
+    }
+
+    @Test
+    void shouldNotCachePageReadBeforeInvalidation() {
+        widgetService.create(createWidgetRequestDtoWithZIndex(1));
+
+        // A widget is created after the page has been read, but before it gets cached
+        widgetFilterCache.getPage(0, 0, 20, 20, PageRequest.of(0, 10), () -> {
+            Page<Widget> page = widgetRepository.findAllInRectangle(0, 0, 20, 20, PageRequest.of(0, 10));
+            widgetService.create(createWidgetRequestDtoWithZIndex(null));
+            return page;
+        });
+
+        assertThat(widgetService.findAll(0, 10, RECTANGLE).getTotalElements()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldExposeCacheMetrics() {
+        widgetService.create(createWidgetRequestDtoWithZIndex(1));
+        double hits = hits();
+
+        widgetService.findAll(0, 10, RECTANGLE);
+        widgetService.findAll(0, 10, RECTANGLE);
+
+        assertThat(hits() - hits).isEqualTo(1);
+        assertThat(meterRegistry.get("cache.size").tag("cache", "widgetFilters").gauge().value()).isPositive();
+    }
+
+    private double hits() {
+        return meterRegistry.get("cache.gets").tag("cache", "widgetFilters").tag("result", "hit").functionCounter()
+                .count();
+    }
+
+    private static WidgetRequestDto createWidgetRequestDto(Integer x, Integer z) {
+        WidgetRequestDto dto = createWidgetRequestDtoWithZIndex(z);
+        dto.setX(x);
+        return dto;
+    }
+
+    private static List<UUID> ids(Slice<Widget> widgets) {
+        return widgets.getContent().stream().map(Widget::getId).collect(toList());
+    }
+}
@@ -0,0 +1,171 @@
+package com.koryshev.widgets.service;
+
+import com.koryshev.widgets.domain.model.Widget;
+import com.koryshev.widgets.domain.repository.WidgetRepository;
+import com.koryshev.widgets.exception.InvalidImportException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.koryshev.widgets.util.TestData.createWidget;
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(properties = {"widgets.bulk-import.chunk-size=2", "widgets.bulk-import.max-errors=2"})
+class WidgetImporterTest {
+
+    @Autowired
+    private WidgetRepository widgetRepository;
+
+    @Autowired
+    private WidgetService widgetService;
+
+    @Autowired
+    private WidgetImporter widgetImporter;
+
+    @BeforeEach
+    public void setup() {
+        widgetRepository.deleteAll();
+    }
+
+    @Test
+    void shouldImportWidgetsFromJsonInChunks() throws IOException {
+        widgetRepository.save(createWidget(0, 0, 1, 10, 10));
+
+        WidgetImportResult result = importWidgets(WidgetImportFormat.NDJSON,
+                "{\"x\": 1, \"y\": 1, \"z\": 1, \"width\": 10, \"height\": 10}",
+                "",
+                "{\"x\": 2, \"y\": 2, \"width\": 10, \"height\": 10}",
+                "{\"x\": 3, \"y\": 3, \"z\": 2, \"width\": 10, \"height\": 10}");
+
+        assertThat(result.getImported()).isEqualTo(3);
+        assertThat(result.getRejected()).isZero();
+        assertThat(result.getErrors()).isEmpty();
+        // The first chunk shifts the existing widget upwards and places the second widget on top of it,
+        // the second chunk takes z-index 2, shifting the rest
+        assertThat(xOrderedByZ()).containsExactly(1, 3, 0, 2);
+    }
+
+    @Test
+    void shouldPlaceWidgetWithRepeatedZIndexBelowEarlierOne() throws IOException {
+        importWidgets(WidgetImportFormat.CSV,
+                "x,y,z,width,height",
+                "1,1,5,10,10",
+                "2,2,5,10,10");
+
+        assertThat(xOrderedByZ()).containsExactly(2, 1);
+        assertThat(widgetService.findAll(0, 10, null).getContent().get(0).getZ()).isEqualTo(5);
+    }
+
+    @Test
+    void shouldPlaceWidgetsAsIfCreatedOneByOne() throws IOException {
+        for (int z = 1; z <= 5; z++) {
+            widgetRepository.save(createWidget(z * 10, 0, z, 10, 10));
+        }
+
+        // A chunk ends before every widget with a z-index not following the widgets before it
+        WidgetImportResult result = importWidgets(WidgetImportFormat.CSV,
+                "x,y,z,width,height",
+                "1,1,5,10,10",
+                "2,2,1,10,10",
+                "3,3,,10,10",
+                "4,4,2,10,10");
+
+        assertThat(result.getChunks()).isEqualTo(3);
+        // The same as creating them one by one: the second widget shifts the first one, which ends up above
+        // the widget it replaced, and the third one is shifted by the fourth one
+        assertThat(xOrderedByZ()).containsExactly(2, 4, 10, 20, 30, 40, 1, 50, 3);
+    }
+
+    @Test
+    void shouldPassOnProgressAfterEveryChunk() throws IOException {
+        List<WidgetImportProgress> progress = new ArrayList<>();
+
+        WidgetImportResult result = widgetImporter.importWidgets(new BufferedReader(new StringReader(String.join("\n",
+                "x,y,z,width,height",
+                "1,1,,10,10",
+                "1,1,,0,10",
+                "2,2,,10,10",
+                "3,3,,10,10"))), WidgetImportFormat.CSV, progress::add);
+
+        assertThat(progress).extracting(WidgetImportProgress::getLines).containsExactly(5L, 5L);
+        assertThat(progress).extracting(WidgetImportProgress::getChunks).containsExactly(1L, 2L);
+        assertThat(progress).extracting(WidgetImportProgress::getImported).containsExactly(2L, 3L);
+        assertThat(progress).extracting(WidgetImportProgress::getRejected).containsExactly(1L, 1L);
+        assertThat(result.getLines()).isEqualTo(5);
+        assertThat(result.getChunks()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldImportWidgetsFromCsvWithColumnsInAnyOrder() throws IOException {
+        WidgetImportResult result = importWidgets(WidgetImportFormat.CSV,
+                "width, height, x, y",
+                "10, 20, 1, 2",
+                "10, 20, 3, 4",
+                "10, 20, 5, 6");
+
+        assertThat(result.getImported()).isEqualTo(3);
+        assertThat(xOrderedByZ()).containsExactly(1, 3, 5);
+        Widget widget = widgetService.findAll(0, 10, null).getContent().get(0);
+        assertThat(widget.getY()).isEqualTo(2);
+        assertThat(widget.getWidth()).isEqualTo(10);
+        assertThat(widget.getHeight()).isEqualTo(20);
+    }
+
+    @Test
+    void shouldReportRejectedLines() throws IOException {
+        WidgetImportResult result = importWidgets(WidgetImportFormat.CSV,
+                "x,y,z,width,height",
+                "1,1,,10,10",
+                "1,1,,0,10",
+                "1,1,,10",
+                "1,a,,10,10",
+                "2,2,,10,10");
+
+        assertThat(result.getImported()).isEqualTo(2);
+        assertThat(result.getRejected()).isEqualTo(3);
+        assertThat(result.getErrors()).extracting(WidgetImportError::getLine).containsExactly(3L, 4L);
+        assertThat(result.getErrors()).extracting(WidgetImportError::getMessage)
+                .containsExactly("width must be greater than 0", "Expected 5 values, found 4");
+    }
+
+    @Test
+    void shouldRejectInvalidJson() throws IOException {
+        WidgetImportResult result = importWidgets(WidgetImportFormat.NDJSON,
+                "{\"x\": 1, \"y\": 1",
+                "{\"y\": 1, \"width\": 10, \"height\": 10}");
+
+        assertThat(result.getImported()).isZero();
+        assertThat(result.getErrors()).extracting(WidgetImportError::getMessage)
+                .hasSize(2)
+                .contains("x must not be null");
+        assertThat(result.getErrors().get(0).getMessage()).startsWith("Invalid JSON");
+    }
+
+    @Test
+    void shouldNotImportCsvWithoutRequiredColumns() {
+        assertThatThrownBy(() -> importWidgets(WidgetImportFormat.CSV, "x,y,width", "1,1,10"))
+                .isInstanceOf(InvalidImportException.class)
+                .hasMessage("CSV column 'height' is missing");
+        assertThatThrownBy(() -> importWidgets(WidgetImportFormat.CSV, "x,y,width,height,depth"))
+                .isInstanceOf(InvalidImportException.class)
+                .hasMessage("Unexpected CSV column 'depth'");
+    }
+
+    private WidgetImportResult importWidgets(WidgetImportFormat format, String... lines) throws IOException {
+        BufferedReader reader = new BufferedReader(new StringReader(String.join("\n", lines)));
+        return widgetImporter.importWidgets(reader, format);
+    }
+
+    private List<Integer> xOrderedByZ() {
+        return widgetService.findAll(0, 100, null).getContent().stream().map(Widget::getX).collect(toList());
+    }
+}
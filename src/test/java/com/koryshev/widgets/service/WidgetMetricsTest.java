@@ -0,0 +1,134 @@
+package com.koryshev.widgets.service;
+
+import com.koryshev.widgets.domain.model.Widget;
+import com.koryshev.widgets.domain.repository.WidgetRepository;
+import com.koryshev.widgets.exception.WidgetNotFoundException;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.Map;
+import java.util.UUID;
+
+import static com.koryshev.widgets.util.TestData.createWidgetPageRequestDto;
+import static com.koryshev.widgets.util.TestData.createWidgetRequestDtoWithZIndex;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest
+class WidgetMetricsTest {
+
+    @Autowired
+    private WidgetRepository widgetRepository;
+
+    @Autowired
+    private WidgetService widgetService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @BeforeEach
+    public void setup() {
+        widgetRepository.deleteAll();
+    }
+
+    @Test
+    void shouldTimeOperations() {
+        long created = operationCount("create", "None");
+        long updated = operationCount("update", "None");
+        long found = operationCount("findOne", "None");
+        long notFound = operationCount("findOne", "WidgetNotFoundException");
+        long deleted = operationCount("delete", "None");
+
+        Widget widget = widgetService.create(createWidgetRequestDtoWithZIndex(1));
+        widgetService.update(widget.getId(), createWidgetRequestDtoWithZIndex(2));
+        widgetService.findOne(widget.getId());
+        widgetService.delete(widget.getId());
+        assertThatThrownBy(() -> widgetService.findOne(UUID.randomUUID()))
+                .isInstanceOf(WidgetNotFoundException.class);
+
+        assertThat(operationCount("create", "None")).isEqualTo(created + 1);
+        assertThat(operationCount("update", "None")).isEqualTo(updated + 1);
+        assertThat(operationCount("findOne", "None")).isEqualTo(found + 1);
+        assertThat(operationCount("findOne", "WidgetNotFoundException")).isEqualTo(notFound + 1);
+        assertThat(operationCount("delete", "None")).isEqualTo(deleted + 1);
+        assertThat(meterRegistry.get("widgets.lock.wait").tag("mode", "write").timer().count()).isPositive();
+    }
+
+    @Test
+    void shouldTimeFilteredAndUnfilteredReadsSeparately() {
+        long unfiltered = operationCount("findAll", "None");
+        long filtered = operationCount("findAllFiltered", "None");
+
+        widgetService.findAll(0, 10, null);
+        widgetService.findAll(0, 10, createWidgetPageRequestDto(-50, -50, 50, 50));
+
+        assertThat(operationCount("findAll", "None")).isEqualTo(unfiltered + 1);
+        assertThat(operationCount("findAllFiltered", "None")).isEqualTo(filtered + 1);
+    }
+
+    @Test
+    void shouldRecordShiftCascadeDepth() {
+        DistributionSummary cascade = meterRegistry.get("widgets.shift.cascade").summary();
+        long count = cascade.count();
+        double total = cascade.totalAmount();
+
+        widgetService.create(createWidgetRequestDtoWithZIndex(1));
+        widgetService.create(createWidgetRequestDtoWithZIndex(2));
+        widgetService.create(createWidgetRequestDtoWithZIndex(1));
+
+        assertThat(cascade.count()).isEqualTo(count + 3);
+        assertThat(cascade.totalAmount()).isEqualTo(total + 2);
+    }
+
+    @Test
+    void shouldRecordFilteredCandidatesAndReturnedWidgets() {
+        DistributionSummary candidates = meterRegistry.get("widgets.filter.candidates").summary();
+        DistributionSummary returned = meterRegistry.get("widgets.filter.returned").summary();
+        double candidatesTotal = candidates.totalAmount();
+        double returnedTotal = returned.totalAmount();
+        for (int z = 1; z <= 3; z++) {
+            widgetService.create(createWidgetRequestDtoWithZIndex(z));
+        }
+
+        widgetService.findAll(0, 2, createWidgetPageRequestDto(-50, -50, 50, 50));
+
+        assertThat(candidates.totalAmount()).isEqualTo(candidatesTotal + 3);
+        assertThat(returned.totalAmount()).isEqualTo(returnedTotal + 2);
+    }
+
+    @Test
+    void shouldRegisterTimersOfSuccessfulOperationsAndLockModesUpfront() {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        WidgetMetrics metrics = new WidgetMetrics(
+                new StaticListableBeanFactory(Map.of("registry", registry)).getBeanProvider(MeterRegistry.class));
+
+        assertThat(registry.find("widgets.operations").tag("exception", "None").timers()).hasSize(10);
+        assertThat(registry.find("widgets.lock.wait").timers()).hasSize(2);
+
+        metrics.time(WidgetMetrics.CREATE, () -> null);
+        assertThatThrownBy(() -> metrics.time(WidgetMetrics.CREATE, () -> {
+            throw new WidgetNotFoundException();
+        })).isInstanceOf(WidgetNotFoundException.class);
+
+        assertThat(registry.find("widgets.operations").timers()).hasSize(11);
+        assertThat(registry.get("widgets.operations").tag("operation", "create").tag("exception", "None")
+                .timer().count()).isEqualTo(1);
+        assertThat(registry.get("widgets.operations").tag("operation", "create")
+                .tag("exception", "WidgetNotFoundException").timer().count()).isEqualTo(1);
+    }
+
+    private long operationCount(String operation, String exception) {
+        Timer timer = meterRegistry.find("widgets.operations")
+                .tag("operation", operation)
+                .tag("exception", exception)
+                .timer();
+        return timer != null ? timer.count() : 0;
+    }
+}
@@ -2,21 +2,33 @@ package com.koryshev.widgets.service;
 
 import com.koryshev.widgets.domain.model.Widget;
 import com.koryshev.widgets.domain.repository.WidgetRepository;
+import com.koryshev.widgets.dto.WidgetBatchRequestDto;
+import com.koryshev.widgets.dto.WidgetBatchUpdateDto;
 import com.koryshev.widgets.dto.WidgetPageRequestDto;
 import com.koryshev.widgets.dto.WidgetRequestDto;
+import com.koryshev.widgets.exception.InvalidBatchException;
+import com.koryshev.widgets.exception.WidgetNotFoundException;
+import com.koryshev.widgets.exception.ZIndexOverflowException;
+import com.koryshev.widgets.util.TestData;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.UUID;
 
 import static com.koryshev.widgets.util.TestData.createWidget;
 import static com.koryshev.widgets.util.TestData.createWidgetPageRequestDto;
 import static com.koryshev.widgets.util.TestData.createWidgetRequestDtoWithZIndex;
 import static com.koryshev.widgets.util.TestData.createWidgetWithZIndex;
+import static java.util.stream.Collectors.toList;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 @SpringBootTest
 class WidgetServiceTest {
@@ -113,6 +125,24 @@ class WidgetServiceTest {
         assertThat(widgets.get(3).getId()).isEqualTo(widget3.getId());
     }
 
+    @Test
+    void shouldCreateWidgetOnTopAtMaxZIndex() {
+        widgetRepository.save(createWidgetWithZIndex(Integer.MAX_VALUE - 1));
+
+        Widget widget = widgetService.create(createWidgetRequestDtoWithZIndex(null));
+
+        assertThat(widget.getZ()).isEqualTo(Integer.MAX_VALUE);
+    }
+
+    @Test
+    void shouldNotCreateWidgetOnTopOfMaxZIndex() {
+        widgetRepository.save(createWidgetWithZIndex(Integer.MAX_VALUE));
+
+        assertThatThrownBy(() -> widgetService.create(createWidgetRequestDtoWithZIndex(null)))
+                .isInstanceOf(ZIndexOverflowException.class);
+        assertThat(widgetRepository.findAllZ()).containsExactly(Integer.MAX_VALUE);
+    }
+
     @Test
     void shouldUpdateWidget() {
         Widget widget = createWidgetWithZIndex(1);
@@ -193,6 +223,26 @@ class WidgetServiceTest {
         assertThat(widgets.get(2).getId()).isEqualTo(widget3.getId());
     }
 
+    @Test
+    void shouldUpdateWidgetMovingDownIntoRunContainingIt() {
+        Widget widget1 = createWidgetWithZIndex(1);
+        Widget widget2 = createWidgetWithZIndex(2);
+        Widget widget3 = createWidgetWithZIndex(3);
+        widgetRepository.save(widget1);
+        widgetRepository.save(widget2);
+        widgetRepository.save(widget3);
+
+        WidgetRequestDto requestDto = createWidgetRequestDtoWithZIndex(1);
+
+        widgetService.update(widget3.getId(), requestDto);
+
+        List<Widget> widgets = widgetService.findAll(0, 10, null).getContent();
+        assertThat(widgets).extracting(Widget::getId)
+                .containsExactly(widget3.getId(), widget1.getId(), widget2.getId());
+        assertThat(widgets).extracting(Widget::getZ).containsExactly(1, 2, 3);
+        assertThat(widgetService.findOne(widget2.getId()).getZ()).isEqualTo(3);
+    }
+
     @Test
     void shouldDeleteWidget() {
         Widget widget = createWidgetWithZIndex(1);
@@ -229,6 +279,20 @@ class WidgetServiceTest {
         assertThat(widgets.get(2).getZ()).isEqualTo(2);
     }
 
+    @Test
+    void shouldExportAllWidgets() {
+        List<Integer> expectedZ = new ArrayList<>();
+        for (int z = 2500; z > 0; z--) {
+            widgetRepository.save(createWidgetWithZIndex(z));
+            expectedZ.add(0, z);
+        }
+
+        List<Integer> exportedZ = new ArrayList<>();
+        widgetService.exportAll(widget -> exportedZ.add(widget.getZ()));
+
+        assertThat(exportedZ).isEqualTo(expectedZ);
+    }
+
     @Test
     void shouldFindAllWidgetsForRectangle() {
         Widget widget1 = createWidget(50, 50, 2, 100, 100);
@@ -246,4 +310,142 @@ class WidgetServiceTest {
         assertThat(widgets.get(0).getId()).isEqualTo(widget2.getId());
         assertThat(widgets.get(1).getId()).isEqualTo(widget1.getId());
     }
+
+    @Test
+    void shouldApplyBatch() {
+        Widget widget1 = widgetRepository.save(createWidgetWithZIndex(1));
+        Widget widget2 = widgetRepository.save(createWidgetWithZIndex(2));
+        Widget widget3 = widgetRepository.save(createWidgetWithZIndex(3));
+        Widget widget4 = widgetRepository.save(createWidgetWithZIndex(5));
+        Widget widget5 = widgetRepository.save(createWidgetWithZIndex(6));
+
+        WidgetBatchRequestDto dto = WidgetBatchRequestDto.builder()
+                .create(List.of(createWidgetRequestDtoWithZIndex(2), createWidgetRequestDtoWithZIndex(3)))
+                .update(List.of(WidgetBatchUpdateDto.builder()
+                        .id(widget5.getId())
+                        .widget(createWidgetRequestDtoWithZIndex(1))
+                        .build()))
+                .delete(List.of(widget4.getId()))
+                .build();
+
+        WidgetBatchResult result = widgetService.applyBatch(dto);
+
+        assertThat(result.getCreated()).extracting(Widget::getZ).containsExactly(2, 3);
+        assertThat(result.getUpdated()).extracting(Widget::getZ).containsExactly(1);
+        List<Widget> widgets = widgetService.findAll(0, 10, null).getContent();
+        assertThat(widgets).extracting(Widget::getZ).containsExactly(1, 2, 3, 4, 5, 6);
+        assertThat(widgets).extracting(Widget::getId).containsExactly(
+                widget5.getId(), result.getCreated().get(0).getId(), result.getCreated().get(1).getId(),
+                widget1.getId(), widget2.getId(), widget3.getId());
+    }
+
+    @Test
+    void shouldApplyBatchPlacingWidgetsWithoutZIndexOnTop() {
+        Widget widget1 = widgetRepository.save(createWidgetWithZIndex(1));
+        Widget widget2 = widgetRepository.save(createWidgetWithZIndex(2));
+
+        WidgetBatchRequestDto dto = WidgetBatchRequestDto.builder()
+                .create(List.of(createWidgetRequestDtoWithZIndex(null), createWidgetRequestDtoWithZIndex(null)))
+                .update(List.of(WidgetBatchUpdateDto.builder()
+                        .id(widget1.getId())
+                        .widget(createWidgetRequestDtoWithZIndex(null))
+                        .build()))
+                .build();
+
+        WidgetBatchResult result = widgetService.applyBatch(dto);
+
+        assertThat(result.getCreated()).extracting(Widget::getZ).containsExactly(3, 4);
+        assertThat(result.getUpdated()).extracting(Widget::getZ).containsExactly(5);
+        assertThat(widgetService.findOne(widget2.getId()).getZ()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldApplyBatchLargerThanJdbcBatch() {
+        Widget widget = widgetRepository.save(createWidgetWithZIndex(1));
+        List<WidgetRequestDto> creates = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            creates.add(createWidgetRequestDtoWithZIndex(null));
+        }
+
+        WidgetBatchResult result = widgetService.applyBatch(WidgetBatchRequestDto.builder()
+                .create(creates)
+                .update(List.of(WidgetBatchUpdateDto.builder()
+                        .id(widget.getId())
+                        .widget(createWidgetRequestDtoWithZIndex(null))
+                        .build()))
+                .build());
+
+        assertThat(result.getCreated()).extracting(Widget::getZ).hasSize(250).startsWith(2).endsWith(251);
+        List<Widget> widgets = widgetService.findAll(0, 300, null).getContent();
+        assertThat(widgets).hasSize(251);
+        assertThat(widgets.get(250).getId()).isEqualTo(widget.getId());
+        assertThat(widgetService.findOne(widget.getId()).getZ()).isEqualTo(252);
+    }
+
+    @Test
+    void shouldApplyBatchShiftingWidgetsMinimally() {
+        Random random = new Random(42);
+        TreeSet<Integer> existingZ = new TreeSet<>();
+        while (existingZ.size() < 3000) {
+            existingZ.add(random.nextInt(4000));
+        }
+        List<Widget> existing = new ArrayList<>();
+        existingZ.forEach(z -> existing.add(widgetRepository.save(createWidgetWithZIndex(z))));
+
+        TreeSet<Integer> requestedZ = new TreeSet<>();
+        while (requestedZ.size() < 500) {
+            requestedZ.add(random.nextInt(4000));
+        }
+        List<WidgetRequestDto> creates = requestedZ.stream()
+                .map(TestData::createWidgetRequestDtoWithZIndex)
+                .collect(toList());
+
+        widgetService.applyBatch(WidgetBatchRequestDto.builder().create(creates).build());
+
+        // Every existing widget takes the lowest z-index which is not requested and is above the previous widget
+        List<Integer> expectedZ = new ArrayList<>();
+        int floor = Integer.MIN_VALUE;
+        for (Integer z : existingZ) {
+            int target = Math.max(z, floor);
+            while (requestedZ.contains(target)) {
+                target++;
+            }
+            expectedZ.add(target);
+            floor = target + 1;
+        }
+        for (int i = 0; i < existing.size(); i++) {
+            assertThat(widgetRepository.findById(existing.get(i).getId()).map(Widget::getZ)).contains(expectedZ.get(i));
+        }
+        for (Integer z : requestedZ) {
+            assertThat(widgetRepository.findByZ(z)).isNotEmpty();
+        }
+        assertThat(widgetRepository.findAllZ()).hasSize(3500);
+    }
+
+    @Test
+    void shouldNotApplyBatchWithDuplicateZIndex() {
+        Widget widget = widgetRepository.save(createWidgetWithZIndex(1));
+
+        WidgetBatchRequestDto dto = WidgetBatchRequestDto.builder()
+                .create(List.of(createWidgetRequestDtoWithZIndex(1), createWidgetRequestDtoWithZIndex(1)))
+                .delete(List.of(widget.getId()))
+                .build();
+
+        assertThatThrownBy(() -> widgetService.applyBatch(dto)).isInstanceOf(InvalidBatchException.class);
+        assertThat(widgetRepository.findAllZ()).containsExactly(1);
+    }
+
+    @Test
+    void shouldNotApplyBatchWithNonExistingWidget() {
+        Widget widget = widgetRepository.save(createWidgetWithZIndex(1));
+
+        WidgetBatchRequestDto dto = WidgetBatchRequestDto.builder()
+                .create(List.of(createWidgetRequestDtoWithZIndex(1)))
+                .delete(List.of(widget.getId(), UUID.randomUUID()))
+                .build();
+
+        assertThatThrownBy(() -> widgetService.applyBatch(dto)).isInstanceOf(WidgetNotFoundException.class);
+        assertThat(widgetRepository.findById(widget.getId()).map(Widget::getZ)).contains(1);
+        assertThat(widgetRepository.findAllZ()).containsExactly(1);
+    }
 }
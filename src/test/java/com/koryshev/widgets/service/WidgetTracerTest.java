@@ -0,0 +1,172 @@
+package com.koryshev.widgets.service;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.koryshev.widgets.config.WidgetProperties;
+import com.koryshev.widgets.exception.WidgetNotFoundException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class WidgetTracerTest {
+
+    private final Logger traceLog = (Logger) LoggerFactory.getLogger("widgets.trace");
+    private final Logger log = (Logger) LoggerFactory.getLogger(WidgetTracerTest.class);
+    private final ListAppender<ILoggingEvent> traceEvents = new ListAppender<>();
+    private final ListAppender<ILoggingEvent> logEvents = new ListAppender<>();
+    private final WidgetProperties widgetProperties = new WidgetProperties();
+
+    @BeforeEach
+    public void setup() {
+        traceEvents.start();
+        logEvents.start();
+        traceLog.addAppender(traceEvents);
+        log.addAppender(logEvents);
+        widgetProperties.getTracing().setEnabled(true);
+        widgetProperties.getTracing().setSlowThreshold(Duration.ofHours(1));
+    }
+
+    @AfterEach
+    public void cleanup() {
+        traceLog.detachAppender(traceEvents);
+        log.detachAppender(logEvents);
+    }
+
+    @Test
+    void shouldLogImmediatelyWhenDisabled() {
+        widgetProperties.getTracing().setEnabled(false);
+        WidgetTracer tracer = new WidgetTracer(widgetProperties);
+
+        tracer.trace("create", () -> {
+            tracer.info(log, "Creating widget, z-index {}", 1);
+            return null;
+        });
+
+        assertThat(logEvents.list).extracting(ILoggingEvent::getFormattedMessage)
+                .containsExactly("Creating widget, z-index 1");
+        assertThat(traceEvents.list).isEmpty();
+    }
+
+    @Test
+    void shouldWriteSampledTraceEventWithoutLogLines() {
+        widgetProperties.getTracing().setSampleRate(1);
+        WidgetTracer tracer = new WidgetTracer(widgetProperties);
+
+        tracer.trace("create", () -> {
+            tracer.info(log, "Creating widget, z-index {}", 1);
+            return tracer.stage(WidgetTracer.Stage.SAVE, () -> sleep(2));
+        });
+
+        assertThat(logEvents.list).isEmpty();
+        assertThat(traceEvents.list).hasSize(1);
+        ILoggingEvent event = traceEvents.list.get(0);
+        assertThat(event.getLevel()).isEqualTo(Level.INFO);
+        assertThat(event.getFormattedMessage())
+                .startsWith("operation=create outcome=success durationMicros=")
+                .contains(" saveMicros=")
+                .doesNotContain("details");
+    }
+
+    @Test
+    void shouldNotWriteTraceEventOfOperationNotSampled() {
+        widgetProperties.getTracing().setSampleRate(0);
+        WidgetTracer tracer = new WidgetTracer(widgetProperties);
+
+        tracer.trace("create", () -> {
+            tracer.info(log, "Creating widget, z-index {}", 1);
+            return null;
+        });
+
+        assertThat(logEvents.list).isEmpty();
+        assertThat(traceEvents.list).isEmpty();
+    }
+
+    @Test
+    void shouldWriteTraceEventWithLogLinesOfSlowOperation() {
+        widgetProperties.getTracing().setSampleRate(0);
+        widgetProperties.getTracing().setSlowThreshold(Duration.ofMillis(1));
+        WidgetTracer tracer = new WidgetTracer(widgetProperties);
+
+        tracer.trace("update", () -> {
+            tracer.info(log, "Updating widget {}", "a");
+            tracer.stage(WidgetTracer.Stage.SHIFT, () -> sleep(2));
+            tracer.info(log, "Updated widget {}", "a");
+            return null;
+        });
+
+        assertThat(traceEvents.list).hasSize(1);
+        ILoggingEvent event = traceEvents.list.get(0);
+        assertThat(event.getLevel()).isEqualTo(Level.WARN);
+        assertThat(event.getFormattedMessage())
+                .startsWith("operation=update outcome=success")
+                .contains(" shiftMicros=")
+                .endsWith(" details=\"Updating widget a; Updated widget a\"");
+    }
+
+    @Test
+    void shouldCountStageTimedByCallerTowardsSlowOperation() {
+        widgetProperties.getTracing().setSampleRate(0);
+        widgetProperties.getTracing().setSlowThreshold(Duration.ofMillis(1));
+        WidgetTracer tracer = new WidgetTracer(widgetProperties);
+
+        tracer.trace("create", () -> {
+            long started = System.nanoTime();
+            sleep(2);
+            tracer.record(WidgetTracer.Stage.LOCK, System.nanoTime() - started);
+            return null;
+        });
+
+        assertThat(traceEvents.list).hasSize(1);
+        ILoggingEvent event = traceEvents.list.get(0);
+        assertThat(event.getLevel()).isEqualTo(Level.WARN);
+        assertThat(event.getFormattedMessage())
+                .startsWith("operation=create outcome=success")
+                .contains(" lockMicros=");
+    }
+
+    @Test
+    void shouldWriteTraceEventWithLogLinesOfFailedOperation() {
+        widgetProperties.getTracing().setSampleRate(0);
+        WidgetTracer tracer = new WidgetTracer(widgetProperties);
+
+        assertThatThrownBy(() -> tracer.trace("findOne", () -> {
+            tracer.warn(log, "Attempted to get widget {}, which was not found", "a");
+            throw new WidgetNotFoundException();
+        })).isInstanceOf(WidgetNotFoundException.class);
+
+        assertThat(traceEvents.list).hasSize(1);
+        ILoggingEvent event = traceEvents.list.get(0);
+        assertThat(event.getLevel()).isEqualTo(Level.WARN);
+        assertThat(event.getFormattedMessage())
+                .startsWith("operation=findOne outcome=WidgetNotFoundException")
+                .endsWith(" details=\"Attempted to get widget a, which was not found\"");
+    }
+
+    @Test
+    void shouldTraceNestedOperationAsPartOfOuterOne() {
+        widgetProperties.getTracing().setSampleRate(1);
+        WidgetTracer tracer = new WidgetTracer(widgetProperties);
+
+        tracer.trace("applyBatch", () -> tracer.trace("create", () -> null));
+
+        assertThat(traceEvents.list).hasSize(1);
+        assertThat(traceEvents.list.get(0).getFormattedMessage()).startsWith("operation=applyBatch ");
+    }
+
+    private static Void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+}
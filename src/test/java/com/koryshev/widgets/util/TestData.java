@@ -5,6 +5,10 @@ import com.koryshev.widgets.dto.WidgetPageRequestDto;
 import com.koryshev.widgets.dto.WidgetRequestDto;
 import lombok.experimental.UtilityClass;
 
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+
 @UtilityClass
 public class TestData {
 
@@ -41,4 +45,13 @@ public class TestData {
                 .height(height)
                 .build();
     }
+
+    /**
+     * Returns widgets inside a rectangle specified by its center coordinates, width and height, keeping their order.
+     */
+    public static List<Widget> filterInRectangle(List<Widget> widgets, int x, int y, int width, int height) {
+        return widgets.stream()
+                .filter(widget -> WidgetUtil.rectangleContains(x, y, width, height, widget))
+                .collect(toList());
+    }
 }
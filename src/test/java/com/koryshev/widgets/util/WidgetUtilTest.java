@@ -0,0 +1,71 @@
+package com.koryshev.widgets.util;
+
+import com.koryshev.widgets.domain.model.Widget;
+import com.sun.management.ThreadMXBean;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static com.koryshev.widgets.util.TestData.createWidget;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WidgetUtilTest {
+
+    @Test
+    void shouldContainWidgetTouchingRectangleEdges() {
+        assertThat(WidgetUtil.rectangleContains(50, 50, 100, 100, createWidget(50, 50, 1, 100, 100))).isTrue();
+        assertThat(WidgetUtil.rectangleContains(50, 50, 100, 100, createWidget(5, 95, 1, 10, 10))).isTrue();
+    }
+
+    @Test
+    void shouldNotContainWidgetCrossingRectangleEdges() {
+        assertThat(WidgetUtil.rectangleContains(50, 50, 100, 100, createWidget(-1, 50, 1, 10, 10))).isFalse();
+        assertThat(WidgetUtil.rectangleContains(50, 50, 100, 100, createWidget(96, 50, 1, 10, 10))).isFalse();
+        assertThat(WidgetUtil.rectangleContains(50, 50, 100, 100, createWidget(50, 96, 1, 10, 10))).isFalse();
+        assertThat(WidgetUtil.rectangleContains(50, 50, 100, 100, createWidget(50, 50, 1, 10, 101))).isFalse();
+    }
+
+    @Test
+    void shouldNotOverflowForWidgetsAtRightBoundary() {
+        Widget widget = createWidget(Integer.MAX_VALUE - 5, 0, 1, 10, 10);
+
+        assertThat(WidgetUtil.rectangleContains(Integer.MAX_VALUE - 100, 0, 100, 100, widget)).isFalse();
+    }
+
+    @Test
+    void shouldNotOverflowForWidgetsAtLeftAndTopBoundaries() {
+        Widget leftWidget = createWidget(Integer.MIN_VALUE + 2, 0, 1, 10, 10);
+        Widget topWidget = createWidget(0, Integer.MAX_VALUE - 2, 1, 10, 10);
+
+        assertThat(WidgetUtil.rectangleContains(Integer.MIN_VALUE + 100, 0, 100, 100, leftWidget)).isFalse();
+        assertThat(WidgetUtil.rectangleContains(0, Integer.MAX_VALUE - 100, 100, 100, topWidget)).isFalse();
+    }
+
+    @Test
+    void shouldCheckRectangleContainsWithoutAllocating() {
+        ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        Widget widget = createWidget(50, 50, 1, 10, 10);
+        // Warming up keeps allocations made once, while measuring and compiling, out of the measurement
+        countContained(widget, 100_000);
+        threadMXBean.getThreadAllocatedBytes(threadId);
+
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId);
+        int contained = countContained(widget, 1_000_000);
+        allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocated;
+
+        assertThat(contained).isEqualTo(1_000_000);
+        // Allocating even a single object per check would take megabytes
+        assertThat(allocated).isLessThan(1024);
+    }
+
+    private static int countContained(Widget widget, int checks) {
+        int contained = 0;
+        for (int i = 0; i < checks; i++) {
+            if (WidgetUtil.rectangleContains(50, 50, 100, 100, widget)) {
+                contained++;
+            }
+        }
+        return contained;
+    }
+}